@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.*;
+import java.util.Base64;
+
+/**
+ * Partial implementation of the serializers to the binary formats of Jackson (such as
+ * Smile and CBOR), which write and read maps through the streaming generators and
+ * parsers of their Jackson factory with the same structure as the JSON text of
+ * {@link JsonSerializer}: a root object holding each top-level object by name, the
+ * type of each object in its first field, named 'class', and objects referred to
+ * once inlined, if enabled, in the field referring to them.
+ *
+ * <p>
+ * Maps are written to, and read from, byte streams by {@link #write(Mapped, OutputStream)}
+ * and {@link #read(InputStream)}. As a {@link Serializer}, these serializers write the
+ * same bytes encoded in Base64, to character streams as well as to byte streams, buffers
+ * and files, which hold the Base64 text in UTF-8.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public abstract class AbstractJacksonSerializer implements Serializer {
+  /**
+   * Writes the map to the output stream, which is not closed, compressed if compression
+   * was enabled.
+   */
+  public void write(Mapped map, OutputStream out) throws IOException {
+    OutputStream stream = compression == null ? out : compression.compress(out);
+    try (JsonGenerator json = factory().createGenerator(stream)) {
+      json.writeStartObject();
+      AbstractSerializerWriter.walk(map, json, GENERATOR_HOOKS, inlineSingleRefObjects);
+      json.writeEndObject();
+    }
+    AbstractSerializerWriter.finish(stream);
+  }
+
+  /**
+   * Reads a map from the input stream, which is not closed, decompressing it if
+   * compression was enabled.
+   */
+  public Mapped read(InputStream in) throws IOException {
+    try (JsonParser json = factory().createParser(compression == null ? in : compression.decompress(in))) {
+      return JsonSerializer.toMap(json, namingStrategy, symbolTable == null ? SymbolTable.unshared() : symbolTable);
+    }
+  }
+
+  /**
+   * Returns the map in the binary format of this serializer.
+   */
+  public byte[] toBytes(Mapped map) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      write(map, out);
+      return out.toByteArray();
+    } catch (IOException e) {
+      // should not happen
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads a map from its binary format.
+   */
+  public Mapped toMap(byte[] bytes) {
+    try {
+      return read(new ByteArrayInputStream(bytes));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads a map from its binary format encoded in Base64.
+   */
+  @Override
+  public Mapped toMap(Reader in) throws IOException {
+    StringBuilder text = new StringBuilder();
+    char[] buffer = new char[8192];
+    for (int read; (read = in.read(buffer)) != -1; ) {
+      text.append(buffer, 0, read);
+    }
+    return toMap(Base64.getMimeDecoder().decode(text.toString()));
+  }
+
+  /**
+   * Writes the map in the binary format of this serializer encoded in Base64.
+   */
+  @Override
+  public void toText(Mapped map, Writer out) throws IOException {
+    out.write(Base64.getEncoder().encodeToString(toBytes(map)));
+  }
+
+  /**
+   * The hooks writing the objects through a generator, each object starting with its
+   * type in the field 'class'.
+   */
+  private static final class GeneratorHooks implements AbstractSerializerWriter.Hooks<JsonGenerator> {
+    @Override
+    public void objectStart(JsonGenerator json, String name, String type, boolean first) throws IOException {
+      json.writeFieldName(name);
+      json.writeStartObject();
+      json.writeStringField("class", type);
+    }
+
+    @Override
+    public void objectEnd(JsonGenerator json, String name) throws IOException {
+      json.writeEndObject();
+    }
+
+    @Override
+    public void field(JsonGenerator json, String fieldName, String value, int level) throws IOException {
+      json.writeFieldName(fieldName);
+      if (value == null) {
+        json.writeNull();
+      } else {
+        json.writeString(value);
+      }
+    }
+
+    @Override
+    public void inlineStart(JsonGenerator json, String fieldName, String type, int level) throws IOException {
+      json.writeFieldName(fieldName);
+      json.writeStartObject();
+      json.writeStringField("class", type);
+    }
+
+    @Override
+    public void inlineEnd(JsonGenerator json, String fieldName, int level) throws IOException {
+      json.writeEndObject();
+    }
+  }
+
+  /**
+   * The factory of the generators and parsers of the format, configured not to close
+   * the streams it writes to and reads from.
+   */
+  abstract JsonFactory factory();
+
+  private static final GeneratorHooks GENERATOR_HOOKS = new GeneratorHooks();
+
+  /**
+   * Whether to inline single-reference objects: default true.
+   */
+  boolean inlineSingleRefObjects = true;
+
+  /**
+   * The strategy for naming inlined objects when reading.
+   */
+  NamingStrategy namingStrategy = Mapper.DEFAULT_NAMING_STRATEGY;
+
+  /**
+   * The symbol table shared by all reads, or null for each read to use its own.
+   */
+  SymbolTable symbolTable;
+
+  /**
+   * The compression of the bytes written to and read from streams, or null for none.
+   */
+  Compression compression;
+}
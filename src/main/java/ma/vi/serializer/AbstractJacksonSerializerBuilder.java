@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.base.lang.Builder;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An abstract builder of the serializers to the binary formats of Jackson providing
+ * control of the options they share with {@link JsonSerializer}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public abstract class AbstractJacksonSerializerBuilder<T extends AbstractJacksonSerializer, B extends Builder<T>>
+    implements Builder<T> {
+  /**
+   * Changes whether to inline single-reference objects or not: default true.
+   */
+  public B inlineSingleRefObjects(boolean inline) {
+    this.inlineSingleRefObjects = inline;
+    return (B) this;
+  }
+
+  /**
+   * Changes the strategy for naming the objects which are inlined in the serialized
+   * representation, when reading them: default {@link NamingStrategy#RANDOM}.
+   */
+  public B namingStrategy(NamingStrategy namingStrategy) {
+    checkNotNull(namingStrategy, "naming strategy cannot be null");
+    this.namingStrategy = namingStrategy;
+    return (B) this;
+  }
+
+  /**
+   * Shares the symbol table, which deduplicates the field names and types read, across
+   * all the reads of the serializer instead of using a new table for each read.
+   */
+  public B symbolTable(SymbolTable symbolTable) {
+    checkNotNull(symbolTable, "symbol table cannot be null");
+    this.symbolTable = symbolTable;
+    return (B) this;
+  }
+
+  /**
+   * Compresses the bytes written to output streams in gzip format, at the given level
+   * (from 1, fastest, to 9, smallest, or {@link Deflater#DEFAULT_COMPRESSION}), and
+   * decompresses the bytes read from input streams, as {@link JsonSerializer} does with
+   * its text. Compression is off by default.
+   */
+  public B compression(int level) {
+    return compression(level, BlockGzipOutputStream.DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Same as {@link #compression(int)} but compressing the bytes in blocks of the given
+   * size, in parallel on the given pool, which also decompresses the blocks read.
+   */
+  public B compression(int level, int blockSize, ForkJoinPool pool) {
+    this.compression = new Compression(level, blockSize, pool);
+    return (B) this;
+  }
+
+  /**
+   * Whether to inline single-reference objects.
+   */
+  boolean inlineSingleRefObjects = true;
+
+  /**
+   * The strategy for naming inlined objects when reading.
+   */
+  NamingStrategy namingStrategy = Mapper.DEFAULT_NAMING_STRATEGY;
+
+  /**
+   * The symbol table shared by all reads, or null for each read to use its own.
+   */
+  SymbolTable symbolTable;
+
+  /**
+   * The compression of the bytes written to and read from streams, or null for none.
+   */
+  Compression compression;
+}
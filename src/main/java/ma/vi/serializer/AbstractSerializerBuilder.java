@@ -8,6 +8,8 @@ import ma.vi.base.lang.Builder;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -57,6 +59,48 @@ public abstract class AbstractSerializerBuilder<T extends Serializer, B extends
     return (B) this;
   }
 
+  /**
+   * Changes the strategy for naming the objects which are inlined in the serialized
+   * representation, when reading them: default {@link NamingStrategy#RANDOM}.
+   */
+  public B namingStrategy(NamingStrategy namingStrategy) {
+    checkNotNull(namingStrategy, "naming strategy cannot be null");
+    this.namingStrategy = namingStrategy;
+    return (B) this;
+  }
+
+  /**
+   * Shares the symbol table, which deduplicates the field names and types read, across
+   * all the reads of the serializer, and possibly other serializers and mappers, instead
+   * of using a new table for each read. The table keeps the statistics of the symbols
+   * deduplicated.
+   */
+  public B symbolTable(SymbolTable symbolTable) {
+    checkNotNull(symbolTable, "symbol table cannot be null");
+    this.symbolTable = symbolTable;
+    return (B) this;
+  }
+
+  /**
+   * Compresses the text written to output streams in gzip format, at the given level
+   * (from 1, fastest, to 9, smallest, or {@link Deflater#DEFAULT_COMPRESSION}), and
+   * decompresses the text read from input streams. The text is compressed in blocks
+   * of 128 KB, in parallel on the common fork/join pool, into a standard gzip file.
+   * Compression is off by default.
+   */
+  public B compression(int level) {
+    return compression(level, BlockGzipOutputStream.DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Same as {@link #compression(int)} but compressing the text in blocks of the given
+   * size, in parallel on the given pool, which also decompresses the blocks read.
+   */
+  public B compression(int level, int blockSize, ForkJoinPool pool) {
+    this.compression = new Compression(level, blockSize, pool);
+    return (B) this;
+  }
+
   /**
    * The number of spaces for indentation: default 2.
    */
@@ -77,4 +121,19 @@ public abstract class AbstractSerializerBuilder<T extends Serializer, B extends
    * more readable content without any impact on the size of the text produced.
    */
   boolean inlineSingleRefObjects = true;
-}
\ No newline at end of file
+
+  /**
+   * The strategy for naming inlined objects when reading.
+   */
+  NamingStrategy namingStrategy = Mapper.DEFAULT_NAMING_STRATEGY;
+
+  /**
+   * The symbol table shared by all reads, or null for each read to use its own.
+   */
+  SymbolTable symbolTable;
+
+  /**
+   * The compression of the text written to and read from streams, or null for none.
+   */
+  Compression compression;
+}
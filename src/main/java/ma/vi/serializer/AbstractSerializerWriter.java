@@ -4,8 +4,7 @@
 
 package ma.vi.serializer;
 
-import java.io.IOException;
-import java.io.Writer;
+import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
@@ -14,6 +13,7 @@ import java.util.Set;
 
 import static com.google.common.base.Strings.repeat;
 import static java.util.Map.Entry;
+import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
 
 /**
  * Partial implementation the writing part of a Serializer as a set of
@@ -24,46 +24,359 @@ import static java.util.Map.Entry;
  */
 public abstract class AbstractSerializerWriter implements Serializer {
   @Override
-  public void toText(Mapped map, Writer out) throws IOException {
-    writeHeader(map, out);
-    String indent = repeat(" ", indentSpaces);
+  public void toText(Mapped map, Writer writer) throws IOException {
+    TextEmitter out = new TextEmitter(writer);
+    writeHeader(out);
+    walk(map, out, new TextHooks(repeat(" ", indentSpaces)), inlineSingleRefObjects);
+    writeFooter(out);
+    out.release();
+  }
+
+  @Override
+  public void toText(IndexedMapped map, Writer writer) throws IOException {
+    TextEmitter out = new TextEmitter(writer);
+    writeHeader(out);
+    walk(map, out, new TextHooks(repeat(" ", indentSpaces)), inlineSingleRefObjects);
+    writeFooter(out);
+    out.release();
+  }
+
+  /**
+   * Writes the text of the map to the output stream, which is not closed, in the
+   * encoding of this serializer, compressed if compression was enabled.
+   */
+  @Override
+  public void toText(Mapped map, OutputStream out) throws IOException {
+    OutputStream stream = compress(out);
+    Writer writer = writer(stream);
+    toText(map, writer);
+    release(writer);
+    finish(stream);
+  }
+
+  /**
+   * Writes the text of the indexed map to the output stream, which is not closed, in
+   * the encoding of this serializer, compressed if compression was enabled.
+   */
+  @Override
+  public void toText(IndexedMapped map, OutputStream out) throws IOException {
+    OutputStream stream = compress(out);
+    Writer writer = writer(stream);
+    toText(map, writer);
+    release(writer);
+    finish(stream);
+  }
+
+  /**
+   * Reads the map from its text in the input stream, in the encoding of this serializer,
+   * decompressing it if compression was enabled.
+   */
+  @Override
+  public Mapped toMap(InputStream in) throws IOException {
+    Reader reader = reader(in);
+    Mapped map = toMap(reader);
+    release(reader);
+    return map;
+  }
+
+  /**
+   * The output stream compressing the bytes written to it to the given stream, if
+   * compression was enabled, or the given stream otherwise.
+   */
+  OutputStream compress(OutputStream out) {
+    return compression == null ? out : compression.compress(out);
+  }
+
+  /**
+   * Writes the remaining compressed content of a stream returned by
+   * {@link #compress(OutputStream)}, without closing the underlying stream.
+   */
+  static void finish(OutputStream out) throws IOException {
+    if (out instanceof BlockGzipOutputStream) {
+      ((BlockGzipOutputStream)out).finish();
+    } else {
+      out.flush();
+    }
+  }
+
+  /**
+   * A writer of text to the output stream in the encoding of this serializer, encoding
+   * UTF-8 directly into a pooled buffer.
+   */
+  Writer writer(OutputStream out) {
+    return encoding.equals(StandardCharsets.UTF_8)
+         ? new Utf8Writer(out)
+         : new BufferedWriter(new OutputStreamWriter(out, encoding));
+  }
+
+  /**
+   * Flushes the text written to a writer returned by {@link #writer(OutputStream)},
+   * returning its buffer to the pool, without closing the underlying stream.
+   */
+  static void release(Writer writer) throws IOException {
+    if (writer instanceof Utf8Writer) {
+      ((Utf8Writer)writer).release();
+    } else {
+      writer.flush();
+    }
+  }
+
+  /**
+   * A reader of text from the input stream in the encoding of this serializer,
+   * decompressing it if compression was enabled. UTF-8 is decoded directly from a
+   * pooled buffer.
+   */
+  Reader reader(InputStream in) {
+    InputStream stream = compression == null ? in : compression.decompress(in);
+    return encoding.equals(StandardCharsets.UTF_8)
+         ? new Utf8Reader(stream)
+         : new BufferedReader(new InputStreamReader(stream, encoding));
+  }
+
+  /**
+   * Returns the buffer of a reader returned by {@link #reader(InputStream)} to the pool.
+   */
+  static void release(Reader reader) {
+    if (reader instanceof Utf8Reader) {
+      ((Utf8Reader)reader).release();
+    }
+  }
+
+  /**
+   * Writes the objects of the map to the output through the hooks, each top-level
+   * object followed by its fields, inlining the objects referred to once if inline is
+   * true. This walk is shared by the text serializers, writing through their template
+   * methods, and by the serializers to the binary formats of Jackson.
+   */
+  static <O> void walk(Mapped map, O out, Hooks<O> hooks, boolean inline) throws IOException {
     Set<String> written = new HashSet<>();
     boolean first = true;
     for (Entry<String, Map<String, String>> entry : map.objects.entrySet()) {
       String name = entry.getKey();
       if (!written.contains(name)) {
-        Map<String, String> object = entry.getValue();
-        String type = map.types.get(name);
+        hooks.objectStart(out, name, map.types.get(name), first);
+        writeFields(map, out, name, entry.getValue(), written, 2, hooks, inline);
+        hooks.objectEnd(out, name);
+        first = false;
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #walk(Mapped, Object, Hooks, boolean)} for an indexed map.
+   */
+  static <O> void walk(IndexedMapped map, O out, Hooks<O> hooks, boolean inline) throws IOException {
+    boolean[] written = new boolean[map.size()];
+    boolean first = true;
+    for (int id = 0; id < written.length; id++) {
+      if (!written[id]) {
+        String name = map.name(id);
+        hooks.objectStart(out, name, map.type(id), first);
+        writeFields(map, out, id, written, 2, hooks, inline);
+        hooks.objectEnd(out, name);
+        first = false;
+      }
+    }
+  }
+
+  /**
+   * Writes the fields of the object at the level of nesting through the hooks,
+   * inlining the objects referred to once if inline is true.
+   */
+  private static <O> void writeFields(Mapped map,
+                                      O out,
+                                      String name,
+                                      Map<String, String> object,
+                                      Set<String> written,
+                                      int level,
+                                      Hooks<O> hooks,
+                                      boolean inline) throws IOException {
+    written.add(name);
+    for (Entry<String, String> field : object.entrySet()) {
+      String fieldName = field.getKey();
+      String value = field.getValue();
+      if (inline && value != null && value.startsWith(OBJ_NAME_PREFIX) &&
+          map.singleRefObjects.contains(value) && map.objects.containsKey(value)) {
 
-        writeObjectStart(map, out, name, type, indent, object, first);
-        writeObject(map, out, name, type, indent, object, first, written, 2);
-        writeObjectEnd(map, out, name, type, indent, object, first);
+        hooks.inlineStart(out, fieldName, map.types.get(value), level);
+        writeFields(map, out, value, map.objects.get(value), written, level + 1, hooks, inline);
+        hooks.inlineEnd(out, fieldName, level);
+
+      } else {
+        hooks.field(out, fieldName, value, level);
+      }
+    }
+  }
 
-        if (first) {
-          first = false;
+  /**
+   * Writes the fields of the object with the id at the level of nesting through the
+   * hooks, inlining the objects referred to once if inline is true.
+   */
+  private static <O> void writeFields(IndexedMapped map,
+                                      O out,
+                                      int id,
+                                      boolean[] written,
+                                      int level,
+                                      Hooks<O> hooks,
+                                      boolean inline) throws IOException {
+    written[id] = true;
+    int fieldCount = map.fieldCount(id);
+    for (int field = 0; field < fieldCount; field++) {
+      String fieldName = map.fieldName(id, field);
+      if (map.isReference(id, field)) {
+        int reference = map.reference(id, field);
+        if (inline && map.referenceCount(reference) == 1 && !written[reference]) {
+          hooks.inlineStart(out, fieldName, map.type(reference), level);
+          writeFields(map, out, reference, written, level + 1, hooks, inline);
+          hooks.inlineEnd(out, fieldName, level);
+        } else {
+          hooks.field(out, fieldName, map.name(reference), level);
         }
+      } else {
+        hooks.field(out, fieldName, map.text(id, field), level);
+      }
+    }
+  }
+
+  /**
+   * The parts of the objects written by {@link #walk(Mapped, Object, Hooks, boolean)} to
+   * an output of type O. Fields are given the level of nesting of the object holding
+   * them, 2 being the level of the fields of top-level objects.
+   */
+  interface Hooks<O> {
+    /**
+     * Writes the start of a top-level object, with its type.
+     */
+    void objectStart(O out, String name, String type, boolean first) throws IOException;
+
+    /**
+     * Writes the end of a top-level object.
+     */
+    void objectEnd(O out, String name) throws IOException;
+
+    /**
+     * Writes a field holding a (possibly null) text value or the name of an object.
+     */
+    void field(O out, String fieldName, String value, int level) throws IOException;
+
+    /**
+     * Writes the start of an object inlined as the value of a field, with its type.
+     */
+    void inlineStart(O out, String fieldName, String type, int level) throws IOException;
+
+    /**
+     * Writes the end of an inlined object.
+     */
+    void inlineEnd(O out, String fieldName, int level) throws IOException;
+  }
+
+  /**
+   * The hooks writing the objects as text through the template methods of this
+   * serializer, indenting them with the indent.
+   */
+  private final class TextHooks implements Hooks<Writer> {
+    TextHooks(String indent) {
+      this.indent = indent;
+    }
+
+    @Override
+    public void objectStart(Writer out, String name, String type, boolean first) throws IOException {
+      writeObjectStart(out, name, type, indent, first);
+    }
+
+    @Override
+    public void objectEnd(Writer out, String name) throws IOException {
+      writeObjectEnd(out, name, indent);
+    }
+
+    @Override
+    public void field(Writer out, String fieldName, String value, int level) throws IOException {
+      writeField(out, fieldName, value, indent, indentation(indent, level));
+    }
+
+    @Override
+    public void inlineStart(Writer out, String fieldName, String type, int level) throws IOException {
+      writeInlineStart(out, fieldName, type, indent, indentation(indent, level));
+    }
+
+    @Override
+    public void inlineEnd(Writer out, String fieldName, int level) throws IOException {
+      writeInlineEnd(out, fieldName, indent, indentation(indent, level));
+    }
+
+    private final String indent;
+  }
+
+  /**
+   * Returns the indentation of the fields of objects at the level of nesting, 2 being
+   * the level of the fields of top-level objects. Indentations are computed once for
+   * every level and kept in a table shared by all the writes of this serializer.
+   */
+  protected String indentation(String indent, int level) {
+    Indentations table = indentations;
+    if (table == null || !table.indent.equals(indent) || level >= table.levels.length) {
+      table = new Indentations(indent, Math.max(level + 1, table == null ? 16 : table.levels.length * 2));
+      indentations = table;
+    }
+    return table.levels[level];
+  }
+
+  /**
+   * The indentations of all levels of nesting up to a maximum, for an indent.
+   */
+  private static class Indentations {
+    Indentations(String indent, int levels) {
+      this.indent = indent;
+      this.levels = new String[levels];
+      for (int i = 0; i < levels; i++) {
+        this.levels[i] = repeat(indent, i);
       }
     }
-    writeFooter(map, out);
+
+    final String indent;
+    final String[] levels;
   }
 
-  protected abstract void writeHeader(Mapped map, Writer out) throws IOException;
+  protected abstract void writeHeader(Writer out) throws IOException;
 
-  protected abstract void writeFooter(Mapped map, Writer out) throws IOException;
+  protected abstract void writeFooter(Writer out) throws IOException;
 
-  protected abstract void writeObjectStart(Mapped map, Writer out,
-                                           String name, String type,
-                                           String indent, Map<String, String> object,
-                                           boolean first) throws IOException;
+  /**
+   * Writes the start of a top-level object, with its type.
+   */
+  protected abstract void writeObjectStart(Writer out, String name, String type,
+                                           String indent, boolean first) throws IOException;
 
-  protected abstract void writeObjectEnd(Mapped map, Writer out,
-                                         String name, String type,
-                                         String indent, Map<String, String> object,
-                                         boolean first) throws IOException;
+  /**
+   * Writes the end of a top-level object.
+   */
+  protected abstract void writeObjectEnd(Writer out, String name, String indent) throws IOException;
 
-  protected abstract void writeObject(Mapped map, Writer out, String name, String type,
-                                      String indent, Map<String, String> object,
-                                      boolean first, Set<String> written, int level) throws IOException;
+  /**
+   * Writes a field holding a (possibly null) text value or the name of an object.
+   */
+  protected abstract void writeField(Writer out, String fieldName, String value,
+                                     String indent, String indentation) throws IOException;
+
+  /**
+   * Writes the start of an object inlined as the value of a field, with its type.
+   */
+  protected abstract void writeInlineStart(Writer out, String fieldName, String type,
+                                           String indent, String indentation) throws IOException;
+
+  /**
+   * Writes the end of an inlined object.
+   */
+  protected abstract void writeInlineEnd(Writer out, String fieldName,
+                                         String indent, String indentation) throws IOException;
+
+  /**
+   * The symbol table for deduplicating the field names and types read by a call: the
+   * shared table, if one was supplied, or a new one.
+   */
+  SymbolTable symbols() {
+    return symbolTable == null ? SymbolTable.unshared() : symbolTable;
+  }
 
   /**
    * The number of spaces for indentation: default 2.
@@ -85,4 +398,26 @@ public abstract class AbstractSerializerWriter implements Serializer {
    * more readable content without any impact on the size of the text produced.
    */
   boolean inlineSingleRefObjects = true;
+
+  /**
+   * The strategy for naming inlined objects when reading.
+   */
+  NamingStrategy namingStrategy = Mapper.DEFAULT_NAMING_STRATEGY;
+
+  /**
+   * The compression of the text written to and read from streams, or null for none.
+   */
+  Compression compression;
+
+  /**
+   * The table of indentations, replaced by a larger one when a deeper level is met.
+   * As tables are immutable, a table computed by another thread is either seen whole
+   * or not seen at all, in which case it is only computed again.
+   */
+  private Indentations indentations;
+
+  /**
+   * The symbol table shared by all reads, or null for each read to use its own.
+   */
+  SymbolTable symbolTable;
 }
\ No newline at end of file
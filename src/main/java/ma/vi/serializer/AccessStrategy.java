@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+/**
+ * The strategy used by the {@link Mapper} to read and write the fields of
+ * objects, and to create new instances, when mapping and reconstructing
+ * object graphs. The accessors for a strategy are produced once per class and
+ * cached together with the mapping plan of that class.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public enum AccessStrategy {
+  /**
+   * Fields are read and written through {@link java.lang.reflect.Field#get(Object)}
+   * and {@link java.lang.reflect.Field#set(Object, Object)}, and instances are
+   * created with <code>Unsafe.allocateInstance</code>.
+   */
+  REFLECTIVE,
+
+  /**
+   * Fields are read and written through accessor classes generated once for each
+   * field, and instances are created through a serialization constructor generated
+   * once for each class and called from a generated class. Accessor classes are
+   * defined as hidden classes, which require Java 15 or later; on earlier versions,
+   * and for the fields and classes for which accessors cannot be generated, falls
+   * back to reflective access.
+   */
+  GENERATED
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.lang.invoke.MethodHandles.insertArguments;
+import static java.lang.invoke.MethodHandles.lookup;
+import static java.lang.invoke.MethodType.methodType;
+import static ma.vi.base.lang.Errors.unchecked;
+
+/**
+ * Compiles the field accessors and instantiators of the {@link AccessStrategy#GENERATED}
+ * strategy into classes of their own, one per field and one per instantiated class.
+ * The method handles through which a compiled class reads and writes its field (or
+ * creates instances of its class) are held in static final fields of that class;
+ * the JIT compiler treats them as constants and inlines the field access (or the
+ * allocation) in the compiled methods, as it would do for direct accesses, unlike
+ * for handles held in instance fields which are invoked without being inlined.
+ * <p>
+ * The compiled classes are defined as hidden classes, which are unloaded with the
+ * accessors and instantiators referring to them, and thus with the mapping plans of
+ * the classes whose fields they access. As hidden classes were introduced in Java 15,
+ * they are defined through reflection: on earlier versions nothing is compiled and
+ * the mapper falls back to reflective access.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class AccessorCompiler {
+  private AccessorCompiler() {
+  }
+
+  /**
+   * Compiles an accessor for the non-static field, which must have already been made
+   * accessible, with the adapter of the declared type of the field, if any. Returns
+   * null if the accessor could not be compiled.
+   */
+  static FieldAccessor accessor(Field field, Mapper.RegisteredAdapter adapter) {
+    if (DEFINE_HIDDEN_CLASS == null) {
+      return null;
+    }
+    try {
+      MethodHandle get = lookup().unreflectGetter(field);
+      MethodHandle set = lookup().unreflectSetter(field);
+      Class<?> type = field.getType();
+      boolean primitive = type.isPrimitive() && type != char.class;
+
+      ClassBuilder builder = new ClassBuilder(ACCESSOR_CLASS, GENERATED_ACCESSOR_CLASS);
+      builder.constructor(GENERATED_ACCESSOR_CLASS, GENERATED_ACCESSOR_CONSTRUCTOR, 4);
+      List<MethodHandle> handles = new ArrayList<>();
+
+      // Object get(Object object) { return (Object)GET.invokeExact(object); }
+      handles.add(get.asType(methodType(Object.class, Object.class)));
+      builder.method("get", "(Ljava/lang/Object;)Ljava/lang/Object;", 2, 2)
+             .getHandle(0).load(ALOAD_1).invokeExact("(Ljava/lang/Object;)Ljava/lang/Object;").op(ARETURN);
+
+      // void set(Object object, Object value) { SET.invokeExact(object, value); }
+      handles.add(set.asType(methodType(void.class, Object.class, Object.class)));
+      builder.method("set", "(Ljava/lang/Object;Ljava/lang/Object;)V", 3, 3)
+             .getHandle(1).load(ALOAD_1).load(ALOAD_2).invokeExact("(Ljava/lang/Object;Ljava/lang/Object;)V").op(RETURN);
+
+      if (primitive) {
+        // the textual form of primitive fields is converted with the methods of their
+        // wrapper classes, without boxing their values, e.g. for int fields:
+        // String getText(Object object) { return Integer.toString((int)GET_INT.invokeExact(object)); }
+        // void setText(Object object, String text) { SET_INT.invokeExact(object, Integer.parseInt(text)); }
+        String wrapper = internalName(MethodType.methodType(type).wrap().returnType());
+        String descriptor = MethodType.methodType(type).toMethodDescriptorString().substring(2);
+        handles.add(get.asType(methodType(type, Object.class)));
+        builder.method("getText", "(Ljava/lang/Object;)Ljava/lang/String;", 2, 2)
+               .getHandle(2).load(ALOAD_1).invokeExact("(Ljava/lang/Object;)" + descriptor)
+               .invokeStatic(wrapper, "toString", "(" + descriptor + ")Ljava/lang/String;").op(ARETURN);
+
+        handles.add(set.asType(methodType(void.class, Object.class, type)));
+        builder.method("setText", "(Ljava/lang/Object;Ljava/lang/String;)V", 4, 3)
+               .getHandle(3).load(ALOAD_1).load(ALOAD_2)
+               .invokeStatic(wrapper, PARSERS.get(type), "(Ljava/lang/String;)" + descriptor)
+               .invokeExact("(Ljava/lang/Object;" + descriptor + ")V").op(RETURN);
+      }
+      Lookup compiled = define(builder, handles);
+      return (FieldAccessor)compiled.findConstructor(compiled.lookupClass(), GENERATED_ACCESSOR_CONSTRUCTOR)
+                                    .invoke(field, primitive, adapter);
+    } catch (Throwable t) {
+      // method handles cannot be produced for some fields (such as final fields
+      // of records and hidden classes); these are accessed through reflection.
+      return null;
+    }
+  }
+
+  /**
+   * Compiles an instantiator creating instances of a class through the supplied
+   * constructor, taking no argument, which must have already been made accessible.
+   * Returns null if the instantiator could not be compiled.
+   */
+  static Instantiator instantiator(Constructor<?> constructor) {
+    if (DEFINE_HIDDEN_CLASS == null) {
+      return null;
+    }
+    try {
+      // the handle of the constructor is bound to Constructor.newInstance: handles
+      // of serialization constructors cannot be produced directly as they would
+      // create instances of the class declaring the no-arg constructor run.
+      MethodHandle newInstance = lookup().findVirtual(Constructor.class, "newInstance",
+                                                      methodType(Object.class, Object[].class));
+      MethodHandle create = insertArguments(newInstance.bindTo(constructor), 0, (Object)new Object[0]);
+
+      // Object newInstance() { return (Object)NEW.invokeExact(); }
+      ClassBuilder builder = new ClassBuilder(INSTANTIATOR_CLASS, "java/lang/Object", INSTANTIATOR_INTERFACE);
+      builder.constructor("java/lang/Object", methodType(void.class), 1);
+      builder.method("newInstance", "()Ljava/lang/Object;", 1, 1)
+             .getHandle(0).invokeExact("()Ljava/lang/Object;").op(ARETURN);
+
+      Lookup compiled = define(builder, List.of(create));
+      return (Instantiator)compiled.findConstructor(compiled.lookupClass(), methodType(void.class)).invoke();
+    } catch (Throwable t) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the handle at the position in the handles of the class being defined
+   * by the current thread, called from the static initializer of that class.
+   */
+  static MethodHandle handle(int position) {
+    return definedHandles.get().get(position);
+  }
+
+  /**
+   * Defines and initializes the hidden class built, whose static initializer sets
+   * its constant handles to the supplied ones.
+   */
+  private static Lookup define(ClassBuilder builder, List<MethodHandle> handles) throws Throwable {
+    builder.staticInitializer(handles.size());
+    definedHandles.set(handles);
+    try {
+      return (Lookup)DEFINE_HIDDEN_CLASS.invoke(lookup(), builder.toBytes(), true, NO_CLASS_OPTIONS);
+    } catch (ReflectiveOperationException e) {
+      throw e.getCause() != null ? e.getCause() : e;
+    } finally {
+      definedHandles.remove();
+    }
+  }
+
+  private static String internalName(Class<?> cls) {
+    return cls.getName().replace('.', '/');
+  }
+
+  /**
+   * Builds the class file of a compiled class, with its constant handles in static
+   * final fields named h0, h1, etc. The methods built have no branches and thus
+   * need no stack map frames in the class file version produced.
+   */
+  private static class ClassBuilder {
+    ClassBuilder(String name, String superName, String... interfaces) {
+      this.thisClass = classConstant(name);
+      this.superClass = classConstant(superName);
+      this.interfaces = new int[interfaces.length];
+      for (int i = 0; i < interfaces.length; i++) {
+        this.interfaces[i] = classConstant(interfaces[i]);
+      }
+      this.name = name;
+    }
+
+    /**
+     * Adds a constructor passing its arguments, of the given type, to the constructor
+     * of the same type of the superclass.
+     */
+    void constructor(String superName, MethodType type, int maxLocals) {
+      String descriptor = type.toMethodDescriptorString();
+      MethodBuilder method = method("<init>", descriptor, maxLocals, maxLocals).load(ALOAD_0);
+      int local = 1;
+      for (Class<?> parameter : type.parameterList()) {
+        method.code.write(parameter == boolean.class ? ILOAD : ALOAD);
+        method.code.write(local++);
+      }
+      method.invoke(INVOKESPECIAL, superName, "<init>", descriptor).op(RETURN);
+    }
+
+    /**
+     * Adds the static initializer setting the constant handles of the class from
+     * {@link #handle(int)}.
+     */
+    void staticInitializer(int handles) {
+      MethodBuilder method = method("<clinit>", "()V", 1, 0);
+      for (int i = 0; i < handles; i++) {
+        method.code.write(BIPUSH);
+        method.code.write(i);
+        method.invoke(INVOKESTATIC, COMPILER_CLASS, "handle", "(I)" + HANDLE_DESCRIPTOR);
+        method.code.write(PUTSTATIC);
+        method.u2(fieldConstant(name, "h" + i, HANDLE_DESCRIPTOR));
+      }
+      method.op(RETURN);
+      handleCount = handles;
+    }
+
+    /**
+     * Adds a method of the given descriptor, returning the builder of its code.
+     */
+    MethodBuilder method(String methodName, String descriptor, int maxStack, int maxLocals) {
+      int access = methodName.equals("<clinit>") ? ACC_STATIC : ACC_PUBLIC;
+      MethodBuilder method = new MethodBuilder(access, utf8(methodName), utf8(descriptor), maxStack, maxLocals);
+      methods.add(method);
+      return method;
+    }
+
+    byte[] toBytes() throws IOException {
+      int handleType = utf8(HANDLE_DESCRIPTOR);
+      int[] handleNames = new int[handleCount];
+      for (int i = 0; i < handleCount; i++) {
+        handleNames[i] = utf8("h" + i);
+      }
+      int codeName = utf8("Code");
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(CLASS_FILE_VERSION);
+      out.writeShort(constantCount);
+      out.write(constants.toByteArray());
+      out.writeShort(ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(interfaces.length);
+      for (int i : interfaces) {
+        out.writeShort(i);
+      }
+
+      out.writeShort(handleCount);
+      for (int handleName : handleNames) {
+        out.writeShort(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+        out.writeShort(handleName);
+        out.writeShort(handleType);
+        out.writeShort(0);
+      }
+
+      out.writeShort(methods.size());
+      for (MethodBuilder method : methods) {
+        byte[] code = method.code.toByteArray();
+        out.writeShort(method.access);
+        out.writeShort(method.name);
+        out.writeShort(method.descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(method.maxStack);
+        out.writeShort(method.maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);  // exception table
+        out.writeShort(0);  // attributes
+      }
+      out.writeShort(0);  // class attributes
+      return bytes.toByteArray();
+    }
+
+    /**
+     * Builds the code of a method.
+     */
+    private class MethodBuilder {
+      MethodBuilder(int access, int name, int descriptor, int maxStack, int maxLocals) {
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+      }
+
+      MethodBuilder op(int opcode) {
+        code.write(opcode);
+        return this;
+      }
+
+      MethodBuilder load(int opcode) {
+        return op(opcode);
+      }
+
+      MethodBuilder getHandle(int position) {
+        code.write(GETSTATIC);
+        return u2(fieldConstant(ClassBuilder.this.name, "h" + position, HANDLE_DESCRIPTOR));
+      }
+
+      MethodBuilder invokeExact(String descriptor) {
+        return invoke(INVOKEVIRTUAL, "java/lang/invoke/MethodHandle", "invokeExact", descriptor);
+      }
+
+      MethodBuilder invokeStatic(String owner, String methodName, String descriptor) {
+        return invoke(INVOKESTATIC, owner, methodName, descriptor);
+      }
+
+      MethodBuilder invoke(int opcode, String owner, String methodName, String descriptor) {
+        code.write(opcode);
+        return u2(memberConstant(METHOD_REF, owner, methodName, descriptor));
+      }
+
+      MethodBuilder u2(int value) {
+        code.write(value >> 8);
+        code.write(value);
+        return this;
+      }
+
+      final int access;
+      final int name;
+      final int descriptor;
+      final int maxStack;
+      final int maxLocals;
+      final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    }
+
+    private int utf8(String value) {
+      return constant("U" + value, out -> {
+        out.writeByte(UTF8);
+        out.writeUTF(value);
+      });
+    }
+
+    private int classConstant(String className) {
+      int nameIndex = utf8(className);
+      return constant("C" + className, out -> {
+        out.writeByte(CLASS);
+        out.writeShort(nameIndex);
+      });
+    }
+
+    private int fieldConstant(String owner, String fieldName, String descriptor) {
+      return memberConstant(FIELD_REF, owner, fieldName, descriptor);
+    }
+
+    private int memberConstant(int tag, String owner, String memberName, String descriptor) {
+      int ownerIndex = classConstant(owner);
+      int nameIndex = utf8(memberName);
+      int descriptorIndex = utf8(descriptor);
+      int nameAndType = constant("N" + memberName + ' ' + descriptor, out -> {
+        out.writeByte(NAME_AND_TYPE);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+      });
+      return constant(tag + owner + '.' + memberName + ' ' + descriptor, out -> {
+        out.writeByte(tag);
+        out.writeShort(ownerIndex);
+        out.writeShort(nameAndType);
+      });
+    }
+
+    /**
+     * Returns the index of the constant with the key, writing it to the constant pool
+     * if it has not been added yet.
+     */
+    private int constant(String key, ConstantWriter writer) {
+      Integer index = constantIndices.get(key);
+      if (index == null) {
+        index = constantCount++;
+        constantIndices.put(key, index);
+        try {
+          writer.write(constantOut);
+        } catch (IOException e) {
+          throw unchecked(e);
+        }
+      }
+      return index;
+    }
+
+    private final String name;
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<MethodBuilder> methods = new ArrayList<>();
+    private int handleCount;
+
+    private final Map<String, Integer> constantIndices = new HashMap<>();
+    private final ByteArrayOutputStream constants = new ByteArrayOutputStream();
+    private final DataOutputStream constantOut = new DataOutputStream(constants);
+    private int constantCount = 1;
+  }
+
+  @FunctionalInterface
+  private interface ConstantWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  /**
+   * The handles of the class being defined by the current thread, read by its
+   * static initializer.
+   */
+  private static final ThreadLocal<List<MethodHandle>> definedHandles = new ThreadLocal<>();
+
+  /**
+   * Lookup.defineHiddenClass, null when hidden classes are not supported.
+   */
+  private static final Method DEFINE_HIDDEN_CLASS;
+
+  /**
+   * An empty array of Lookup.ClassOption: the classes defined are not nestmates of,
+   * nor strongly tied to the class loader of, this class.
+   */
+  private static final Object NO_CLASS_OPTIONS;
+
+  static {
+    Method define = null;
+    Object options = null;
+    try {
+      Class<?> classOption = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+      options = Array.newInstance(classOption, 0);
+      define = Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+    } catch (ReflectiveOperationException e) {
+      // hidden classes are not supported before Java 15
+    }
+    DEFINE_HIDDEN_CLASS = define;
+    NO_CLASS_OPTIONS = options;
+  }
+
+  /**
+   * The names of the methods of the wrapper classes parsing primitive values.
+   */
+  private static final Map<Class<?>, String> PARSERS = Map.of(
+      int.class,     "parseInt",
+      long.class,    "parseLong",
+      double.class,  "parseDouble",
+      float.class,   "parseFloat",
+      boolean.class, "parseBoolean",
+      short.class,   "parseShort",
+      byte.class,    "parseByte");
+
+  private static final MethodType GENERATED_ACCESSOR_CONSTRUCTOR =
+      methodType(void.class, Field.class, boolean.class, Mapper.RegisteredAdapter.class);
+
+  private static final String COMPILER_CLASS = internalName(AccessorCompiler.class);
+  private static final String GENERATED_ACCESSOR_CLASS = internalName(FieldAccessor.Generated.class);
+  private static final String INSTANTIATOR_INTERFACE = internalName(Instantiator.class);
+  private static final String ACCESSOR_CLASS = COMPILER_CLASS + "$Accessor";
+  private static final String INSTANTIATOR_CLASS = COMPILER_CLASS + "$Instantiator";
+  private static final String HANDLE_DESCRIPTOR = "Ljava/lang/invoke/MethodHandle;";
+
+  /**
+   * Java 8 class files, whose methods without branches are verified without stack
+   * map frames.
+   */
+  private static final int CLASS_FILE_VERSION = 52;
+
+  private static final int UTF8 = 1;
+  private static final int CLASS = 7;
+  private static final int FIELD_REF = 9;
+  private static final int METHOD_REF = 10;
+  private static final int NAME_AND_TYPE = 12;
+
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_STATIC = 0x0008;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+
+  private static final int BIPUSH = 0x10;
+  private static final int ILOAD = 0x15;
+  private static final int ALOAD = 0x19;
+  private static final int ALOAD_0 = 0x2a;
+  private static final int ALOAD_1 = 0x2b;
+  private static final int ALOAD_2 = 0x2c;
+  private static final int ARETURN = 0xb0;
+  private static final int RETURN = 0xb1;
+  private static final int GETSTATIC = 0xb2;
+  private static final int PUTSTATIC = 0xb3;
+  private static final int INVOKEVIRTUAL = 0xb6;
+  private static final int INVOKESPECIAL = 0xb7;
+  private static final int INVOKESTATIC = 0xb8;
+}
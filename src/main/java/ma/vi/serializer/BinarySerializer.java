@@ -0,0 +1,570 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.*;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
+
+/**
+ * A compact binary serializer for the fast checkpointing of object graphs, where the
+ * text serializers are kept for long-term, human-readable copies. The binary form
+ * writes the names of all objects first, followed by a table of the symbols (types and
+ * field names) and a table of the layouts of the objects, each made of a type and a
+ * sequence of field names, which is shared by all objects of the same class. Each
+ * object is then written as the id of its layout followed by the values of its fields,
+ * in the order of the layout, without repeating field names. Ids, lengths and counts
+ * are written as variable-length integers (7 bits per byte, the high bit set on all
+ * bytes but the last), and each value is written with a tag telling whether it is null,
+ * a reference to another object (written as the id of the object), a boolean, an
+ * integer or a decimal number in its typed binary form, or text. Typed forms are used
+ * only when the text of the value is the canonical text of the number, so that any
+ * {@link Mapped} is read back exactly as it was written.
+ *
+ * <p>
+ * The binary form is written to, and read from, byte streams by {@link #write(Mapped,
+ * OutputStream)} and {@link #read(InputStream)}. As a {@link Serializer}, the binary
+ * serializer writes the same bytes encoded in Base64, to character streams as well as
+ * to byte streams, buffers and files, which hold the Base64 text in UTF-8.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class BinarySerializer implements Serializer {
+  /**
+   * Writes the binary form of the map to the output stream, compressed if compression
+   * was enabled.
+   */
+  public void write(Mapped map, OutputStream out) throws IOException {
+    OutputStream stream = compression == null ? out : compression.compress(out);
+    Output output = new Output(stream, bufferSize);
+    output.writeBytes(MAGIC);
+    output.writeByte(VERSION);
+
+    // names of objects
+    Map<String, Integer> ids = new HashMap<>(CollectionHandler.capacity(map.objects.size()));
+    output.writeVarint(map.objects.size());
+    for (String name : map.objects.keySet()) {
+      ids.put(name, ids.size());
+      writeName(output, name);
+    }
+
+    // symbols and layouts, assigned in the order in which objects are written
+    Map<String, Integer> symbols = new HashMap<>();
+    List<String> symbolList = new ArrayList<>();
+    Map<Layout, Integer> layouts = new HashMap<>();
+    List<Layout> layoutList = new ArrayList<>();
+    int[] objectLayouts = new int[map.objects.size()];
+    int id = 0;
+    for (Map.Entry<String, Map<String, String>> entry : map.objects.entrySet()) {
+      Map<String, String> object = entry.getValue();
+      int[] fields = new int[object.size()];
+      int f = 0;
+      for (String fieldName : object.keySet()) {
+        fields[f++] = symbol(fieldName, symbols, symbolList);
+      }
+      String type = map.types.get(entry.getKey());
+      Layout layout = new Layout(type == null ? -1 : symbol(type, symbols, symbolList), fields);
+      Integer layoutId = layouts.get(layout);
+      if (layoutId == null) {
+        layoutId = layoutList.size();
+        layouts.put(layout, layoutId);
+        layoutList.add(layout);
+      }
+      objectLayouts[id++] = layoutId;
+    }
+    output.writeVarint(symbolList.size());
+    for (String symbol : symbolList) {
+      output.writeString(symbol);
+    }
+    output.writeVarint(layoutList.size());
+    for (Layout layout : layoutList) {
+      output.writeVarint(layout.type + 1);
+      output.writeVarint(layout.fields.length);
+      for (int field : layout.fields) {
+        output.writeVarint(field);
+      }
+    }
+
+    // objects, each with its layout, whether it is referred to once, and its values
+    id = 0;
+    for (Map.Entry<String, Map<String, String>> entry : map.objects.entrySet()) {
+      output.writeVarint((long)objectLayouts[id++] << 1 | (map.singleRefObjects.contains(entry.getKey()) ? 1 : 0));
+      for (String value : entry.getValue().values()) {
+        writeValue(output, value, ids);
+      }
+    }
+
+    // types and single references of names without objects, if any
+    List<Map.Entry<String, String>> orphanTypes = new ArrayList<>();
+    for (Map.Entry<String, String> type : map.types.entrySet()) {
+      if (!ids.containsKey(type.getKey())) {
+        orphanTypes.add(type);
+      }
+    }
+    output.writeVarint(orphanTypes.size());
+    for (Map.Entry<String, String> type : orphanTypes) {
+      writeName(output, type.getKey());
+      writeValue(output, type.getValue(), Collections.emptyMap());
+    }
+    List<String> orphanSingleRefs = new ArrayList<>();
+    for (String name : map.singleRefObjects) {
+      if (!ids.containsKey(name)) {
+        orphanSingleRefs.add(name);
+      }
+    }
+    output.writeVarint(orphanSingleRefs.size());
+    for (String name : orphanSingleRefs) {
+      writeName(output, name);
+    }
+    output.flush();
+    AbstractSerializerWriter.finish(stream);
+  }
+
+  /**
+   * Reads a map from its binary form in the input stream, decompressing it if
+   * compression was enabled.
+   */
+  public Mapped read(InputStream in) throws IOException {
+    Input input = new Input(compression == null ? in : compression.decompress(in), bufferSize);
+    for (byte b : MAGIC) {
+      checkState(input.readByte() == b, "Not a binary serialized object graph");
+    }
+    int version = input.readByte();
+    checkState(version == VERSION, "Unsupported binary format version: " + version);
+
+    int size = input.readInt();
+    String[] names = new String[size];
+    for (int i = 0; i < size; i++) {
+      names[i] = readName(input);
+    }
+    String[] symbols = new String[input.readInt()];
+    for (int i = 0; i < symbols.length; i++) {
+      symbols[i] = input.readString();
+    }
+    Layout[] layouts = new Layout[input.readInt()];
+    for (int i = 0; i < layouts.length; i++) {
+      int type = input.readInt() - 1;
+      int[] fields = new int[input.readInt()];
+      for (int f = 0; f < fields.length; f++) {
+        fields[f] = input.readInt();
+      }
+      layouts[i] = new Layout(type, fields);
+    }
+
+    int capacity = CollectionHandler.capacity(size);
+    Mapped map = Mapped.of(new LinkedHashMap<>(capacity), new HashMap<>(capacity), new HashSet<>());
+    for (String name : names) {
+      long header = input.readVarint();
+      Layout layout = layouts[(int)(header >>> 1)];
+      if ((header & 1) == 1) {
+        map.singleRefObjects.add(name);
+      }
+      if (layout.type != -1) {
+        map.types.put(name, symbols[layout.type]);
+      }
+      Map<String, String> object = new LinkedHashMap<>(CollectionHandler.capacity(layout.fields.length));
+      for (int field : layout.fields) {
+        object.put(symbols[field], readValue(input, names));
+      }
+      map.objects.put(name, object);
+    }
+
+    for (int i = input.readInt(); i > 0; i--) {
+      map.types.put(readName(input), readValue(input, names));
+    }
+    for (int i = input.readInt(); i > 0; i--) {
+      map.singleRefObjects.add(readName(input));
+    }
+    return map;
+  }
+
+  /**
+   * Returns the binary form of the map.
+   */
+  public byte[] toBytes(Mapped map) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      write(map, out);
+      return out.toByteArray();
+    } catch (IOException e) {
+      // should not happen
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads a map from its binary form.
+   */
+  public Mapped toMap(byte[] bytes) {
+    try {
+      return read(new ByteArrayInputStream(bytes));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads a map from its binary form encoded in Base64.
+   */
+  @Override
+  public Mapped toMap(Reader in) throws IOException {
+    StringBuilder text = new StringBuilder();
+    char[] buffer = new char[bufferSize];
+    for (int read; (read = in.read(buffer)) != -1; ) {
+      text.append(buffer, 0, read);
+    }
+    return toMap(Base64.getMimeDecoder().decode(text.toString()));
+  }
+
+  /**
+   * Writes the binary form of the map encoded in Base64.
+   */
+  @Override
+  public void toText(Mapped map, Writer out) throws IOException {
+    out.write(Base64.getEncoder().encodeToString(toBytes(map)));
+  }
+
+  private static int symbol(String symbol, Map<String, Integer> symbols, List<String> symbolList) {
+    Integer id = symbols.get(symbol);
+    if (id == null) {
+      id = symbolList.size();
+      symbols.put(symbol, id);
+      symbolList.add(symbol);
+    }
+    return id;
+  }
+
+  /**
+   * Writes the name of an object, without the prefix of object names when it has it,
+   * the low bit of its length telling whether it was removed.
+   */
+  private static void writeName(Output output, String name) throws IOException {
+    boolean prefixed = name.startsWith(OBJ_NAME_PREFIX);
+    byte[] bytes = (prefixed ? name.substring(OBJ_NAME_PREFIX.length()) : name).getBytes(UTF_8);
+    output.writeVarint((long)bytes.length << 1 | (prefixed ? 1 : 0));
+    output.writeBytes(bytes);
+  }
+
+  private static String readName(Input input) throws IOException {
+    long header = input.readVarint();
+    String name = input.readString((int)(header >>> 1));
+    return (header & 1) == 1 ? OBJ_NAME_PREFIX + name : name;
+  }
+
+  private void writeValue(Output output, String value, Map<String, Integer> ids) throws IOException {
+    if (value == null) {
+      output.writeByte(NULL);
+      return;
+    }
+    Integer id = ids.get(value);
+    if (id != null) {
+      output.writeByte(REFERENCE);
+      output.writeVarint(id);
+      return;
+    }
+    if (typedLiterals) {
+      if (value.equals("true")) {
+        output.writeByte(TRUE);
+        return;
+      } else if (value.equals("false")) {
+        output.writeByte(FALSE);
+        return;
+      } else if (isCanonicalLong(value)) {
+        long v = Long.parseLong(value);
+        output.writeByte(INTEGER);
+        output.writeVarint(v << 1 ^ v >> 63);
+        return;
+      } else if (value.length() > 8 && isCanonicalDouble(value)) {
+        output.writeByte(DECIMAL);
+        output.writeLong(Double.doubleToRawLongBits(Double.parseDouble(value)));
+        return;
+      }
+    }
+    output.writeByte(TEXT);
+    output.writeString(value);
+  }
+
+  private static String readValue(Input input, String[] names) throws IOException {
+    int tag = input.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case REFERENCE:
+        return names[input.readInt()];
+      case TRUE:
+        return "true";
+      case FALSE:
+        return "false";
+      case INTEGER:
+        long v = input.readVarint();
+        return Long.toString(v >>> 1 ^ -(v & 1));
+      case DECIMAL:
+        return Double.toString(Double.longBitsToDouble(input.readLong()));
+      case TEXT:
+        return input.readString();
+      default:
+        throw new IllegalStateException("Unknown value tag: " + tag);
+    }
+  }
+
+  /**
+   * True if the text is the text produced by {@link Long#toString(long)} for some long.
+   */
+  static boolean isCanonicalLong(String text) {
+    int length = text.length();
+    int start = length > 0 && text.charAt(0) == '-' ? 1 : 0;
+    if (length == start || length - start > 19) {
+      return false;
+    }
+    if (text.charAt(start) == '0') {
+      return length == 1;
+    }
+    for (int i = start; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < '0' || c > '9') {
+        return false;
+      }
+    }
+    if (length - start == 19) {
+      // may overflow
+      try {
+        Long.parseLong(text);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * True if the text is the text produced by {@link Double#toString(double)} for some
+   * double.
+   */
+  static boolean isCanonicalDouble(String text) {
+    char first = text.charAt(0);
+    if ((first < '0' || first > '9') && first != '-' || text.indexOf('.') == -1) {
+      return false;
+    }
+    try {
+      return Double.toString(Double.parseDouble(text)).equals(text);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * A type and sequence of field names, by id in the symbol table, shared by the
+   * objects of a class.
+   */
+  private static final class Layout {
+    Layout(int type, int[] fields) {
+      this.type = type;
+      this.fields = fields;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Layout)) return false;
+      Layout layout = (Layout)o;
+      return type == layout.type && Arrays.equals(fields, layout.fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * type + Arrays.hashCode(fields);
+    }
+
+    /**
+     * The id of the type, or -1 if the objects have no type.
+     */
+    final int type;
+    final int[] fields;
+  }
+
+  /**
+   * Buffered output of the primitive parts of the binary form.
+   */
+  private static final class Output {
+    Output(OutputStream out, int bufferSize) {
+      this.out = out;
+      this.buffer = new byte[bufferSize];
+    }
+
+    void writeByte(int b) throws IOException {
+      if (position == buffer.length) {
+        drain();
+      }
+      buffer[position++] = (byte)b;
+    }
+
+    void writeVarint(long v) throws IOException {
+      if (buffer.length - position < 10) {
+        drain();
+      }
+      while ((v & ~0x7FL) != 0) {
+        buffer[position++] = (byte)(v & 0x7F | 0x80);
+        v >>>= 7;
+      }
+      buffer[position++] = (byte)v;
+    }
+
+    void writeLong(long v) throws IOException {
+      if (buffer.length - position < 8) {
+        drain();
+      }
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buffer[position++] = (byte)(v >>> shift);
+      }
+    }
+
+    void writeBytes(byte[] bytes) throws IOException {
+      if (bytes.length > buffer.length - position) {
+        drain();
+        if (bytes.length > buffer.length) {
+          out.write(bytes);
+          return;
+        }
+      }
+      System.arraycopy(bytes, 0, buffer, position, bytes.length);
+      position += bytes.length;
+    }
+
+    /**
+     * Writes the string as its length in bytes followed by its UTF-8 bytes.
+     */
+    void writeString(String s) throws IOException {
+      byte[] bytes = s.getBytes(UTF_8);
+      writeVarint(bytes.length);
+      writeBytes(bytes);
+    }
+
+    void flush() throws IOException {
+      drain();
+      out.flush();
+    }
+
+    private void drain() throws IOException {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+  }
+
+  /**
+   * Buffered input of the primitive parts of the binary form.
+   */
+  private static final class Input {
+    Input(InputStream in, int bufferSize) {
+      this.in = in;
+      this.buffer = new byte[bufferSize];
+    }
+
+    int readByte() throws IOException {
+      if (position == limit) {
+        fill();
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    long readVarint() throws IOException {
+      long v = 0;
+      for (int shift = 0; ; shift += 7) {
+        int b = readByte();
+        v |= (long)(b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return v;
+        }
+        checkState(shift < 63, "Malformed variable-length integer");
+      }
+    }
+
+    int readInt() throws IOException {
+      long v = readVarint();
+      checkState(v <= Integer.MAX_VALUE, "Count or id out of range: " + v);
+      return (int)v;
+    }
+
+    long readLong() throws IOException {
+      long v = 0;
+      for (int i = 0; i < 8; i++) {
+        v = v << 8 | readByte();
+      }
+      return v;
+    }
+
+    String readString() throws IOException {
+      return readString(readInt());
+    }
+
+    String readString(int length) throws IOException {
+      if (length <= limit - position) {
+        String s = new String(buffer, position, length, UTF_8);
+        position += length;
+        return s;
+      }
+      byte[] bytes = new byte[length];
+      int read = limit - position;
+      System.arraycopy(buffer, position, bytes, 0, read);
+      position = limit;
+      while (read < length) {
+        int n = in.read(bytes, read, length - read);
+        if (n == -1) {
+          throw new EOFException();
+        }
+        read += n;
+      }
+      return new String(bytes, UTF_8);
+    }
+
+    private void fill() throws IOException {
+      int n = in.read(buffer, 0, buffer.length);
+      if (n <= 0) {
+        throw new EOFException();
+      }
+      position = 0;
+      limit = n;
+    }
+
+    private final InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+  }
+
+  private static final byte[] MAGIC = {'L', 'T', 'S', 'B'};
+  private static final int VERSION = 1;
+
+  // value tags
+  private static final int NULL = 0;
+  private static final int REFERENCE = 1;
+  private static final int TRUE = 2;
+  private static final int FALSE = 3;
+  private static final int INTEGER = 4;
+  private static final int DECIMAL = 5;
+  private static final int TEXT = 6;
+
+  /**
+   * Whether values which are the canonical text of booleans and numbers are written in
+   * their typed binary form: default true.
+   */
+  boolean typedLiterals = true;
+
+  /**
+   * The size of the buffers for reading and writing: default 64 KB.
+   */
+  int bufferSize = 64 * 1024;
+
+  /**
+   * The compression of the binary form written to and read from streams, or null for none.
+   */
+  Compression compression;
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.base.lang.Builder;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A builder for {@link BinarySerializer} providing a simple method for
+ * overriding the latter's defaults. Usage scenario:
+ *
+ * <pre>
+ *  BinarySerializer binary =
+ *      BinarySerializerBuilder.newBuilder()
+ *          .typedLiterals(false)   // write all values as text
+ *          .bufferSize(8192)       // instead of 64 KB
+ *          .build();
+ *  </pre>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class BinarySerializerBuilder implements Builder<BinarySerializer> {
+  /**
+   * Creates a new builder.
+   */
+  public static BinarySerializerBuilder newBuilder() {
+    return new BinarySerializerBuilder();
+  }
+
+  /**
+   * Changes whether values which are the canonical text of booleans and numbers are
+   * written in their typed binary form, which is smaller, instead of as text: default
+   * true.
+   */
+  public BinarySerializerBuilder typedLiterals(boolean typedLiterals) {
+    this.typedLiterals = typedLiterals;
+    return this;
+  }
+
+  /**
+   * Changes the size of the buffers for reading and writing: default 64 KB.
+   */
+  public BinarySerializerBuilder bufferSize(int bufferSize) {
+    checkArgument(bufferSize >= 16, "buffer size must be at least 16 bytes");
+    this.bufferSize = bufferSize;
+    return this;
+  }
+
+  /**
+   * Compresses the binary form written to output streams in gzip format, at the given
+   * level (from 1, fastest, to 9, smallest, or {@link Deflater#DEFAULT_COMPRESSION}),
+   * and decompresses the binary form read from input streams. Compression is off by
+   * default.
+   */
+  public BinarySerializerBuilder compression(int level) {
+    return compression(level, BlockGzipOutputStream.DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Same as {@link #compression(int)} but compressing the binary form in blocks of the
+   * given size, in parallel on the given pool, which also decompresses the blocks read.
+   */
+  public BinarySerializerBuilder compression(int level, int blockSize, ForkJoinPool pool) {
+    this.compression = new Compression(level, blockSize, pool);
+    return this;
+  }
+
+  @Override
+  public BinarySerializer build() {
+    BinarySerializer binary = new BinarySerializer();
+    binary.typedLiterals = typedLiterals;
+    binary.bufferSize = bufferSize;
+    binary.compression = compression;
+    return binary;
+  }
+
+  private BinarySerializerBuilder() {
+  }
+
+  private boolean typedLiterals = true;
+
+  private int bufferSize = 64 * 1024;
+
+  private Compression compression;
+}
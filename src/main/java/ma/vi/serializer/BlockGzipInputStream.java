@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.*;
+
+import static ma.vi.serializer.BlockGzipOutputStream.*;
+
+/**
+ * An input stream decompressing gzip content, decompressing the members written by
+ * {@link BlockGzipOutputStream} in parallel on a fork/join pool ahead of the reader of
+ * this stream. The members are found through the size of their compressed data in
+ * their header, read without decompressing them; up to twice the parallelism of the
+ * pool are decompressed ahead of the member being read. Once a member without this
+ * size is met, as in the gzip files produced by other tools, the rest of the content
+ * is decompressed sequentially.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class BlockGzipInputStream extends InputStream {
+  BlockGzipInputStream(InputStream in, ForkJoinPool pool) {
+    this.in = new BufferedInputStream(in, 64 * 1024);
+    this.pool = pool;
+    this.maxPending = pool.getParallelism() * 2;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (position == block.length && !nextBlock()) {
+      return sequential == null ? -1 : sequential.read();
+    }
+    return block[position++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (position == block.length && !nextBlock()) {
+      return sequential == null ? -1 : sequential.read(b, off, len);
+    }
+    int n = Math.min(len, block.length - position);
+    System.arraycopy(block, position, b, off, n);
+    position += n;
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return block.length - position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    for (Future<byte[]> f : pending) {
+      f.cancel(false);
+    }
+    pending.clear();
+    in.close();
+  }
+
+  /**
+   * Moves to the next non-empty decompressed block, returning false if there is none
+   * left to decompress in parallel.
+   */
+  private boolean nextBlock() throws IOException {
+    while (true) {
+      while (!ended && pending.size() < maxPending) {
+        submitNext();
+      }
+      if (pending.isEmpty()) {
+        return false;
+      }
+      try {
+        block = pending.poll().get();
+        position = 0;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      } catch (ExecutionException e) {
+        throw BlockGzipOutputStream.ioException(e);
+      }
+      if (block.length > 0) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Reads the next member, submitting its decompression if its header holds the size
+   * of its compressed data or, otherwise, switching to sequential decompression for
+   * the rest of the content.
+   */
+  private void submitNext() throws IOException {
+    in.mark(MAX_HEADER_SIZE);
+    int id1 = in.read();
+    if (id1 == -1) {
+      ended = true;
+      return;
+    }
+    byte[] header = new byte[10];
+    header[0] = (byte)id1;
+    readFully(header, 1, 9);
+    if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8) {
+      throw new ZipException("Not in gzip format");
+    }
+    int flags = header[3] & 0xff;
+    int compressed = -1;
+    if ((flags & FEXTRA) != 0) {
+      int extraLength = readShort();
+      if (extraLength <= MAX_HEADER_SIZE - 12) {
+        byte[] extra = new byte[extraLength];
+        readFully(extra, 0, extraLength);
+        compressed = compressedSize(extra);
+      }
+    }
+    if (compressed < 0 || (flags & ~FEXTRA) != 0) {
+      // not a member written in blocks: decompress the rest sequentially
+      in.reset();
+      sequential = new GZIPInputStream(in, 64 * 1024);
+      ended = true;
+      return;
+    }
+    byte[] data = new byte[compressed + TRAILER_SIZE];
+    readFully(data, 0, data.length);
+    pending.add(pool.submit(() -> decompress(data)));
+  }
+
+  /**
+   * Decompresses the data of a member, checking its length and CRC against its trailer.
+   */
+  static byte[] decompress(byte[] data) throws IOException {
+    int length = data.length - TRAILER_SIZE;
+    int expectedCrc = readInt(data, length);
+    int size = readInt(data, length + 4);
+    if (size < 0 || size == Integer.MAX_VALUE) {
+      throw new ZipException("Corrupt gzip member: invalid size in its trailer");
+    }
+    // one more byte than the size in the trailer to detect more data than expected
+    byte[] block = new byte[size + 1];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(data, 0, length);
+      int n = 0;
+      while (n < block.length && !inflater.finished()) {
+        int read = inflater.inflate(block, n, block.length - n);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        n += read;
+      }
+      if (n != size || !inflater.finished()) {
+        throw new ZipException("Corrupt gzip member: size does not match its trailer");
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    } finally {
+      inflater.end();
+    }
+    CRC32 crc = new CRC32();
+    crc.update(block, 0, size);
+    if ((int)crc.getValue() != expectedCrc) {
+      throw new ZipException("Corrupt gzip member: CRC does not match its trailer");
+    }
+    return Arrays.copyOf(block, size);
+  }
+
+  /**
+   * The size of the compressed data in the extra field of a member header, or -1 if
+   * the field does not hold it.
+   */
+  private static int compressedSize(byte[] extra) {
+    for (int i = 0; i + 4 <= extra.length; ) {
+      int length = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+      if (extra[i] == SI1 && extra[i + 1] == SI2 && length == 4 && i + 8 <= extra.length) {
+        return readInt(extra, i + 4);
+      }
+      i += 4 + length;
+    }
+    return -1;
+  }
+
+  private static int readInt(byte[] b, int offset) {
+    return (b[offset] & 0xff)
+         | (b[offset + 1] & 0xff) << 8
+         | (b[offset + 2] & 0xff) << 16
+         | (b[offset + 3] & 0xff) << 24;
+  }
+
+  private int readShort() throws IOException {
+    byte[] b = new byte[2];
+    readFully(b, 0, 2);
+    return (b[0] & 0xff) | (b[1] & 0xff) << 8;
+  }
+
+  private void readFully(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      int n = in.read(b, off, len);
+      if (n == -1) {
+        throw new EOFException("Unexpected end of gzip content");
+      }
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * The flag of the gzip header showing the presence of an extra field.
+   */
+  private static final int FEXTRA = 4;
+
+  /**
+   * The maximum size of a member header read before falling back to sequential
+   * decompression if it does not hold the size of the compressed data.
+   */
+  private static final int MAX_HEADER_SIZE = 1024;
+
+  private final BufferedInputStream in;
+  private final ForkJoinPool pool;
+  private final int maxPending;
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+  private byte[] block = new byte[0];
+  private int position;
+  private boolean ended;
+  private InputStream sequential;
+}
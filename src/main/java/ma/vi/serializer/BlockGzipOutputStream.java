@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream compressing the bytes written to it in gzip format, in blocks of a
+ * fixed size compressed in parallel on a fork/join pool and written to the underlying
+ * stream in order. Each block is written as a separate gzip member, so that the
+ * output, the concatenation of these members, is a standard gzip file which can be
+ * decompressed by any gzip tool. The header of each member records the size of its
+ * compressed data in an extra field (with identifier 'LS') which allows
+ * {@link BlockGzipInputStream} to find the following member without decompressing
+ * the current one, and thus to decompress the members in parallel too.
+ *
+ * <p>
+ * As the members are independent, a block is not compressed with the end of the
+ * previous block as dictionary, which makes the output slightly larger than the
+ * compression of the whole content in a single member. The number of blocks being
+ * compressed at any time is bounded by twice the parallelism of the pool, which
+ * bounds the memory used.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class BlockGzipOutputStream extends OutputStream {
+  BlockGzipOutputStream(OutputStream out, int level, int blockSize, ForkJoinPool pool) {
+    this.out = out;
+    this.level = level;
+    this.pool = pool;
+    this.block = new byte[blockSize];
+    this.maxPending = pool.getParallelism() * 2;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (size == block.length) {
+      submit();
+    }
+    block[size++] = (byte)b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (size == block.length) {
+        submit();
+      }
+      int n = Math.min(len, block.length - size);
+      System.arraycopy(b, off, block, size, n);
+      size += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Compresses the bytes written so far, including a partial last block, and writes
+   * them to the underlying stream, which is flushed. The gzip members written remain
+   * valid if more bytes are written to this stream after a flush.
+   */
+  @Override
+  public void flush() throws IOException {
+    if (size > 0) {
+      submit();
+    }
+    while (!pending.isEmpty()) {
+      writeNext();
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes all the compressed content to the underlying stream without closing it.
+   */
+  public void finish() throws IOException {
+    if (!finished) {
+      if (size > 0 || !written) {
+        // an empty content is written as a single empty member
+        submit();
+      }
+      flush();
+      finished = true;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Submits the current block for compression, writing the oldest blocks compressed
+   * if too many are pending.
+   */
+  private void submit() throws IOException {
+    if (finished) {
+      throw new IOException("Stream has been finished");
+    }
+    byte[] data = block;
+    int length = size;
+    pending.add(pool.submit(() -> compress(data, length, level)));
+    block = new byte[data.length];
+    size = 0;
+    written = true;
+    while (pending.size() > maxPending) {
+      writeNext();
+    }
+  }
+
+  /**
+   * Waits for the oldest block submitted to be compressed and writes it.
+   */
+  private void writeNext() throws IOException {
+    try {
+      out.write(pending.poll().get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw ioException(e);
+    }
+  }
+
+  /**
+   * The I/O exception which failed a compression or decompression task, or one wrapping
+   * the cause of the failure if it was not an I/O exception.
+   */
+  static IOException ioException(ExecutionException e) {
+    // the pool may wrap the exception thrown by the task in runtime exceptions
+    for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+      if (cause instanceof IOException) {
+        return (IOException)cause;
+      }
+    }
+    return new IOException(e.getCause());
+  }
+
+  /**
+   * Compresses the block into a complete gzip member with the size of its compressed
+   * data in the header.
+   */
+  static byte[] compress(byte[] data, int length, int level) {
+    Deflater deflater = new Deflater(level, true);
+    try {
+      deflater.setInput(data, 0, length);
+      deflater.finish();
+      byte[] member = new byte[HEADER_SIZE + length + length / 1000 + 64 + TRAILER_SIZE];
+      int size = HEADER_SIZE;
+      while (!deflater.finished()) {
+        if (size == member.length - TRAILER_SIZE) {
+          byte[] larger = new byte[member.length * 2];
+          System.arraycopy(member, 0, larger, 0, size);
+          member = larger;
+        }
+        size += deflater.deflate(member, size, member.length - TRAILER_SIZE - size);
+      }
+      int compressed = size - HEADER_SIZE;
+      System.arraycopy(HEADER, 0, member, 0, HEADER.length);
+      writeInt(member, HEADER.length, compressed);
+
+      CRC32 crc = new CRC32();
+      crc.update(data, 0, length);
+      writeInt(member, size, (int)crc.getValue());
+      writeInt(member, size + 4, length);
+      size += TRAILER_SIZE;
+
+      if (size == member.length) {
+        return member;
+      }
+      byte[] trimmed = new byte[size];
+      System.arraycopy(member, 0, trimmed, 0, size);
+      return trimmed;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Writes the integer in little-endian order, as all gzip integers are.
+   */
+  static void writeInt(byte[] b, int offset, int value) {
+    b[offset] = (byte)value;
+    b[offset + 1] = (byte)(value >>> 8);
+    b[offset + 2] = (byte)(value >>> 16);
+    b[offset + 3] = (byte)(value >>> 24);
+  }
+
+  /**
+   * The default size of the blocks compressed independently: 128 KB, as in pigz.
+   */
+  static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+  /**
+   * The first two bytes of the identifier of the extra field holding the size of the
+   * compressed data of a member.
+   */
+  static final byte SI1 = 'L', SI2 = 'S';
+
+  /**
+   * The header of a member up to the size of its compressed data: the gzip magic
+   * number, the deflate compression method, the FEXTRA flag, no modification time,
+   * no extra flags, an unknown OS, then an extra field of 8 bytes holding a single
+   * subfield of 4 bytes.
+   */
+  private static final byte[] HEADER = {
+      0x1f, (byte)0x8b, 8, 4, 0, 0, 0, 0, 0, (byte)255,
+      8, 0,
+      SI1, SI2, 4, 0
+  };
+
+  static final int HEADER_SIZE = HEADER.length + 4;
+  static final int TRAILER_SIZE = 8;
+
+  private final OutputStream out;
+  private final int level;
+  private final ForkJoinPool pool;
+  private final int maxPending;
+  private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+
+  private byte[] block;
+  private int size;
+  private boolean written;
+  private boolean finished;
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of the byte buffers used by the UTF-8 writers and readers of the
+ * serializers, and of the character buffers of their text emitters, so that writing or
+ * reading many small maps does not allocate new buffers every time. A buffer which is
+ * not returned to the pool, such as when a write fails, is simply garbage-collected.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class BufferPool {
+  /**
+   * Takes a buffer of {@link #BUFFER_SIZE} bytes from the pool, or creates one if the
+   * pool is empty.
+   */
+  static byte[] acquire() {
+    byte[] buffer = pool.poll();
+    return buffer == null ? new byte[BUFFER_SIZE] : buffer;
+  }
+
+  /**
+   * Returns the buffer to the pool, unless the pool is full.
+   */
+  static void release(byte[] buffer) {
+    if (buffer != null && buffer.length == BUFFER_SIZE) {
+      pool.offer(buffer);
+    }
+  }
+
+  /**
+   * Takes a buffer of {@link #CHAR_BUFFER_SIZE} characters from the pool, or creates
+   * one if the pool is empty.
+   */
+  static char[] acquireChars() {
+    char[] buffer = charPool.poll();
+    return buffer == null ? new char[CHAR_BUFFER_SIZE] : buffer;
+  }
+
+  /**
+   * Returns the character buffer to the pool, unless the pool is full.
+   */
+  static void releaseChars(char[] buffer) {
+    if (buffer != null && buffer.length == CHAR_BUFFER_SIZE) {
+      charPool.offer(buffer);
+    }
+  }
+
+  private BufferPool() {
+  }
+
+  /**
+   * The size of the buffers in the pool: 32 KB.
+   */
+  static final int BUFFER_SIZE = 32 * 1024;
+
+  /**
+   * The size of the character buffers in the pool: 8 K characters.
+   */
+  static final int CHAR_BUFFER_SIZE = 8 * 1024;
+
+  private static final ArrayBlockingQueue<byte[]> pool =
+      new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
+  private static final ArrayBlockingQueue<char[]> charPool =
+      new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * An output stream writing bytes into a byte buffer from its position, failing with
+ * a {@link BufferOverflowException} if the buffer has not enough space left.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class ByteBufferOutputStream extends OutputStream {
+  ByteBufferOutputStream(ByteBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  @Override
+  public void write(int b) {
+    buffer.put((byte)b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    buffer.put(b, off, len);
+  }
+
+  private final ByteBuffer buffer;
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * The CBOR serializer, writing maps in the Concise Binary Object Representation
+ * (RFC 8949) with the same structure as {@link JsonSerializer}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class CborSerializer extends AbstractJacksonSerializer {
+  @Override
+  JsonFactory factory() {
+    return factory;
+  }
+
+  private static CBORFactory newFactory() {
+    CBORFactory factory = new CBORFactory();
+    factory.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    factory.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    return factory;
+  }
+
+  /**
+   * CBOR factories are thread-safe and shared by all CBOR serializers.
+   */
+  private static final CBORFactory factory = newFactory();
+}
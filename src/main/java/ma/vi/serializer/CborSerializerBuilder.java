@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+/**
+ * A builder for {@link CborSerializer} providing a simple method for
+ * overriding the latter's defaults. Usage scenario:
+ *
+ * <pre>
+ *  CborSerializer cbor =
+ *      CborSerializerBuilder.newBuilder()
+ *          .inlineSingleRefObjects(false)  // do not inline singly-referenced objects
+ *          .build();
+ *  </pre>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class CborSerializerBuilder extends AbstractJacksonSerializerBuilder<CborSerializer, CborSerializerBuilder> {
+  /**
+   * Creates a new builder.
+   */
+  public static CborSerializerBuilder newBuilder() {
+    return new CborSerializerBuilder();
+  }
+
+  @Override
+  public CborSerializer build() {
+    CborSerializer cbor = new CborSerializer();
+    cbor.inlineSingleRefObjects = inlineSingleRefObjects;
+    cbor.namingStrategy = namingStrategy;
+    cbor.symbolTable = symbolTable;
+    cbor.compression = compression;
+    return cbor;
+  }
+
+  private CborSerializerBuilder() {
+  }
+}
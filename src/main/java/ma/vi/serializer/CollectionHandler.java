@@ -0,0 +1,590 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import static ma.vi.base.lang.Errors.unchecked;
+import static ma.vi.base.reflect.Classes.typeOf;
+import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
+
+/**
+ * Maps and reconstructs the common collections of the JDK (lists, sets, maps, deques,
+ * enum sets and maps and the immutable collections produced by List.of, Set.of and
+ * Map.of) through their size and elements only. Without such handlers, as these
+ * collections implement their own serialization protocol, their internal structure
+ * (such as the node table of a HashMap, or the unused capacity of an ArrayList)
+ * would be mapped instead, tying the mapped form to the implementation of the JDK.
+ *
+ * <p>
+ * A collection is mapped to a 'size' entry, followed by an entry for each element
+ * named 'i0', 'i1', ..., or, for maps, 'k0', 'v0', 'k1', 'v1', ... for the key and
+ * value of each entry. Mutable collections are reconstructed pre-sized, and filled
+ * only once all other objects have been populated, since adding objects to hashed
+ * collections requires their hash codes. Immutable collections are built from their
+ * elements when first referred to and thus cannot be part of a cycle; they are mapped
+ * under the type of their interface (e.g. java.util.List) rather than that of their
+ * internal implementation.
+ *
+ * <p>
+ * Only the exact classes listed are handled; subclasses of these collections, which
+ * may have fields of their own, are mapped as any other object. The access order of
+ * a LinkedHashMap is not kept: it is reconstructed in insertion order. Collections
+ * mapped through their fields, before their classes were handled, are still
+ * reconstructed through their fields (see {@link #handles(Map)}).
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+abstract class CollectionHandler {
+  CollectionHandler(boolean keyed) {
+    this.keyed = keyed;
+  }
+
+  /**
+   * Returns the handler for the class, or null if objects of the class are not
+   * handled as collections.
+   */
+  static CollectionHandler of(Class<?> cls) {
+    return handlers.get(cls);
+  }
+
+  /**
+   * Returns the handler for the class of a mapped collection if the collection was
+   * mapped through it, or null if it was mapped through the fields of its class
+   * (see {@link #handles(Map)}) or if the class is not handled.
+   */
+  static CollectionHandler of(Class<?> cls, Map<String, String> map) {
+    CollectionHandler handler = handlers.get(cls);
+    return handler != null && handler.handles(map) ? handler : null;
+  }
+
+  /**
+   * True if the mapped collection has the layout written by this handler: a size entry
+   * and, unless the collection is empty, an entry for its first element. Collections
+   * mapped before their classes were handled were mapped through the internal fields of
+   * their classes (such as the 'table' and 'size' of a HashMap, the 'elementData' and
+   * 'size' of an ArrayList or the 'map' of a HashSet), some of which are named like the
+   * entries of handlers but never both; such collections are reconstructed through
+   * their fields, as they were then.
+   */
+  boolean handles(Map<String, String> map) {
+    String size = map.get(SIZE);
+    return size != null && (size.equals("0") || map.containsKey(elementKey(0)));
+  }
+
+  /**
+   * The type string of the collection in mapped form.
+   */
+  String type(Object collection) {
+    return typeOf(collection);
+  }
+
+  /**
+   * Adds the entries describing the collection itself, before its elements, to its map.
+   */
+  void mapHeader(Object collection, Map<String, String> objMap) {
+    objMap.put(SIZE, Integer.toString(size(collection)));
+  }
+
+  /**
+   * The number of elements, or entries for maps, in the collection.
+   */
+  int size(Object collection) {
+    return keyed ? ((Map<?, ?>)collection).size() : ((Collection<?>)collection).size();
+  }
+
+  /**
+   * The number of entries in the map of the collection, including those describing
+   * the collection itself.
+   */
+  int entryCount(Object collection) {
+    int size = size(collection);
+    return (keyed ? size * 2 : size) + 2;
+  }
+
+  /**
+   * The elements of the collection in the order in which they are mapped; for maps,
+   * the keys and values of the entries alternate.
+   */
+  Object[] elements(Object collection) {
+    if (!keyed) {
+      return ((Collection<?>)collection).toArray();
+    }
+    Map<?, ?> m = (Map<?, ?>)collection;
+    Object[] elements = new Object[m.size() * 2];
+    int i = 0;
+    for (Map.Entry<?, ?> e : m.entrySet()) {
+      elements[i++] = e.getKey();
+      elements[i++] = e.getValue();
+    }
+    return elements;
+  }
+
+  /**
+   * The name of the entry of the i<sup>th</sup> element in the mapped collection.
+   */
+  String elementKey(int i) {
+    return keyed ? entryKeys.get(i) : indexKeys.get(i);
+  }
+
+  /**
+   * The name of the entry of the i<sup>th</sup> element of arrays and collections: 'i'
+   * followed by the index. The names of the first elements are shared by all arrays
+   * and collections instead of being produced for each.
+   */
+  static String indexKey(int i) {
+    return indexKeys.get(i);
+  }
+
+  /**
+   * The number of elements in the mapped collection.
+   */
+  int elementCount(Map<String, String> map) {
+    int size = size(map);
+    return keyed ? size * 2 : size;
+  }
+
+  /**
+   * True if the i<sup>th</sup> element is mapped to its literal text by a
+   * {@link LiteralElements} handler, instead of as a reference to a mapped object.
+   */
+  boolean isLiteral(int i) {
+    return false;
+  }
+
+  /**
+   * Returns the elements of the mapped collection, in order, obtaining referred objects
+   * by name from the resolver.
+   */
+  Object[] elements(Map<String, String> map, Function<String, Object> resolver) {
+    Object[] elements = new Object[elementCount(map)];
+    for (int i = 0; i < elements.length; i++) {
+      String value = map.get(elementKey(i));
+      if (value != null) {
+        elements[i] = resolver.apply(value);
+      }
+    }
+    return elements;
+  }
+
+  /**
+   * True if the collection is {@link Immutable}, built from its elements, instead
+   * of being {@link Mutable}, allocated and later filled.
+   */
+  boolean immutable() {
+    return false;
+  }
+
+  /**
+   * The size of the mapped collection.
+   */
+  static int size(Map<String, String> map) {
+    return Integer.parseInt(map.get(SIZE));
+  }
+
+  /**
+   * The initial capacity of a hashed collection which will hold size elements
+   * without being resized.
+   */
+  static int capacity(int size) {
+    return size < 3 ? size + 1 : (int)(size / 0.75f) + 1;
+  }
+
+  /**
+   * The entry holding the size of the mapped collection.
+   */
+  static final String SIZE = "size";
+
+  /**
+   * True for maps, whose keys and values are mapped alternately, false for lists,
+   * sets and deques.
+   */
+  final boolean keyed;
+
+  /**
+   * Handles mutable collections, which are created pre-sized and filled with their
+   * elements after all other objects have been populated.
+   */
+  static class Mutable extends CollectionHandler {
+    Mutable(boolean keyed, IntFunction<?> factory) {
+      super(keyed);
+      this.factory = factory;
+    }
+
+    /**
+     * Creates a new empty collection of the class, pre-sized for the mapped collection.
+     */
+    Object allocate(Class<?> cls, Map<String, String> map) {
+      return factory.apply(size(map));
+    }
+
+    /**
+     * Adds the reconstructed elements to the collection created by {@link #allocate}.
+     */
+    @SuppressWarnings("unchecked")
+    void fill(Object collection, Object[] elements) {
+      if (keyed) {
+        Map<Object, Object> m = (Map<Object, Object>)collection;
+        for (int i = 0; i < elements.length; i += 2) {
+          m.put(elements[i], elements[i + 1]);
+        }
+      } else {
+        Collection<Object> c = (Collection<Object>)collection;
+        for (Object element : elements) {
+          c.add(element);
+        }
+      }
+    }
+
+    private final IntFunction<?> factory;
+  }
+
+  /**
+   * Handles mutable collections some of whose elements are mapped to their literal
+   * text instead of as references to mapped objects.
+   */
+  abstract static class LiteralElements extends Mutable {
+    LiteralElements(boolean keyed) {
+      super(keyed, null);
+    }
+
+    @Override
+    abstract boolean isLiteral(int i);
+
+    /**
+     * The literal text of a non-null literal element.
+     */
+    abstract String toText(Object element);
+
+    /**
+     * The value of a literal element of the mapped collection from its text.
+     */
+    abstract Object toValue(Map<String, String> map, String text);
+
+    @Override
+    abstract Object allocate(Class<?> cls, Map<String, String> map);
+
+    @Override
+    Object[] elements(Map<String, String> map, Function<String, Object> resolver) {
+      Object[] elements = new Object[elementCount(map)];
+      for (int i = 0; i < elements.length; i++) {
+        String value = map.get(elementKey(i));
+        if (value != null) {
+          elements[i] = isLiteral(i) ? toValue(map, value) : resolver.apply(value);
+        }
+      }
+      return elements;
+    }
+  }
+
+  /**
+   * Handles immutable collections, which are built from their elements when first
+   * referred to.
+   */
+  abstract static class Immutable extends CollectionHandler {
+    Immutable(boolean keyed) {
+      super(keyed);
+    }
+
+    @Override
+    boolean immutable() {
+      return true;
+    }
+
+    /**
+     * Builds an immutable collection from its reconstructed elements.
+     */
+    abstract Object build(Map<String, String> map, Object[] elements);
+  }
+
+  /**
+   * Enum sets, whose elements are mapped to their names, with the enum class in
+   * an 'elementType' entry.
+   */
+  private static class EnumSetOf extends LiteralElements {
+    EnumSetOf() {
+      super(false);
+    }
+
+    @Override
+    String type(Object collection) {
+      return EnumSet.class.getName();
+    }
+
+    @Override
+    void mapHeader(Object collection, Map<String, String> objMap) {
+      super.mapHeader(collection, objMap);
+      objMap.put(ELEMENT_TYPE, elementType((EnumSet<?>)collection).getName());
+    }
+
+    @Override
+    boolean isLiteral(int i) {
+      return true;
+    }
+
+    @Override
+    String toText(Object element) {
+      return ((Enum<?>)element).name();
+    }
+
+    @Override
+    Object toValue(Map<String, String> map, String text) {
+      return Enum.valueOf(enumType(map.get(ELEMENT_TYPE)), text);
+    }
+
+    @Override
+    Object allocate(Class<?> cls, Map<String, String> map) {
+      return EnumSet.noneOf(enumType(map.get(ELEMENT_TYPE)));
+    }
+
+    /**
+     * The enum class of the set, obtained from the complement of the set when it is
+     * empty (which contains all the constants of the enum).
+     */
+    private static Class<?> elementType(EnumSet<?> set) {
+      EnumSet<?> nonEmpty = set.isEmpty() ? EnumSet.complementOf(set) : set;
+      if (nonEmpty.isEmpty()) {
+        return declaredField(EnumSet.class, "elementType", set);
+      }
+      return nonEmpty.iterator().next().getDeclaringClass();
+    }
+
+    private static final String ELEMENT_TYPE = "elementType";
+  }
+
+  /**
+   * Enum maps, whose keys are mapped to their names, with the enum class in
+   * a 'keyType' entry.
+   */
+  private static class EnumMapOf extends LiteralElements {
+    EnumMapOf() {
+      super(true);
+    }
+
+    @Override
+    void mapHeader(Object collection, Map<String, String> objMap) {
+      super.mapHeader(collection, objMap);
+      objMap.put(KEY_TYPE, keyType((EnumMap<?, ?>)collection).getName());
+    }
+
+    /**
+     * Also checks that the key type is the name of the enum class: an empty enum map
+     * mapped through its fields refers to the class object in its 'keyType' field.
+     */
+    @Override
+    boolean handles(Map<String, String> map) {
+      String keyType = map.get(KEY_TYPE);
+      return super.handles(map) && keyType != null && !keyType.startsWith(OBJ_NAME_PREFIX);
+    }
+
+    @Override
+    boolean isLiteral(int i) {
+      return (i & 1) == 0;
+    }
+
+    @Override
+    String toText(Object element) {
+      return ((Enum<?>)element).name();
+    }
+
+    @Override
+    Object toValue(Map<String, String> map, String text) {
+      return Enum.valueOf(enumType(map.get(KEY_TYPE)), text);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Object allocate(Class<?> cls, Map<String, String> map) {
+      return new EnumMap(enumType(map.get(KEY_TYPE)));
+    }
+
+    /**
+     * The enum class of the keys of the map, read from the map itself when it is empty.
+     */
+    private static Class<?> keyType(EnumMap<?, ?> map) {
+      return map.isEmpty()
+             ? declaredField(EnumMap.class, "keyType", map)
+             : map.keySet().iterator().next().getDeclaringClass();
+    }
+
+    private static final String KEY_TYPE = "keyType";
+  }
+
+  /**
+   * Immutable lists, mapped as java.util.List and built with List.of. The lists
+   * returned by Stream.toList share the class of the lists of List.of but may hold
+   * nulls, which List.of rejects; a list with a null element is rebuilt as an
+   * unmodifiable view of its elements instead.
+   */
+  private static class ImmutableList extends Immutable {
+    ImmutableList() {
+      super(false);
+    }
+
+    @Override
+    String type(Object collection) {
+      return List.class.getName();
+    }
+
+    @Override
+    Object build(Map<String, String> map, Object[] elements) {
+      for (Object element : elements) {
+        if (element == null) {
+          return Collections.unmodifiableList(Arrays.asList(elements));
+        }
+      }
+      return List.of(elements);
+    }
+  }
+
+  /**
+   * Immutable sets, mapped as java.util.Set and built with Set.of.
+   */
+  private static class ImmutableSet extends Immutable {
+    ImmutableSet() {
+      super(false);
+    }
+
+    @Override
+    String type(Object collection) {
+      return Set.class.getName();
+    }
+
+    @Override
+    Object build(Map<String, String> map, Object[] elements) {
+      return Set.of(elements);
+    }
+  }
+
+  /**
+   * Immutable maps, mapped as java.util.Map and built with Map.ofEntries.
+   */
+  private static class ImmutableMap extends Immutable {
+    ImmutableMap() {
+      super(true);
+    }
+
+    @Override
+    String type(Object collection) {
+      return Map.class.getName();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    Object build(Map<String, String> map, Object[] elements) {
+      Map.Entry<Object, Object>[] entries = new Map.Entry[elements.length / 2];
+      for (int i = 0; i < entries.length; i++) {
+        entries[i] = Map.entry(elements[2 * i], elements[2 * i + 1]);
+      }
+      return Map.ofEntries(entries);
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static Class<? extends Enum> enumType(String name) {
+    return TypeDescriptor.of(name).type().asSubclass(Enum.class);
+  }
+
+  /**
+   * Reads the value of a declared field of a JDK class, used only when the value
+   * cannot be determined through the public API of the class.
+   */
+  private static Class<?> declaredField(Class<?> cls, String name, Object object) {
+    try {
+      Field field = cls.getDeclaredField(name);
+      field.setAccessible(true);
+      return (Class<?>)field.get(object);
+    } catch (Exception e) {
+      throw unchecked(e);
+    }
+  }
+
+  /**
+   * A table of the element keys produced by a function of their index, extended on
+   * demand, for the indices up to {@link #MAX_KEYS}, by copying it to a larger table
+   * published through a volatile field; keys at larger indices are produced on each
+   * request.
+   */
+  private static final class Keys {
+    Keys(IntFunction<String> key) {
+      this.key = key;
+    }
+
+    String get(int i) {
+      String[] keys = this.keys;
+      if (i < keys.length) {
+        return keys[i];
+      }
+      return i < MAX_KEYS ? grow(i)[i] : key.apply(i);
+    }
+
+    private synchronized String[] grow(int i) {
+      String[] keys = this.keys;
+      if (i >= keys.length) {
+        int length = Math.min(MAX_KEYS, Math.max(16, Math.max(keys.length * 2, Integer.highestOneBit(i) << 1)));
+        String[] grown = Arrays.copyOf(keys, length);
+        for (int k = keys.length; k < length; k++) {
+          grown[k] = key.apply(k);
+        }
+        this.keys = keys = grown;
+      }
+      return keys;
+    }
+
+    private final IntFunction<String> key;
+    private volatile String[] keys = new String[0];
+
+    private static final int MAX_KEYS = 1 << 16;
+  }
+
+  /**
+   * The keys of the elements of arrays and collections other than maps.
+   */
+  private static final Keys indexKeys = new Keys(i -> "i" + i);
+
+  /**
+   * The keys of the keys and values of the entries of maps.
+   */
+  private static final Keys entryKeys = new Keys(i -> ((i & 1) == 0 ? "k" : "v") + (i >> 1));
+
+  /**
+   * The classes of the immutable collections of the JDK; some of the collections of
+   * different sizes share the same class.
+   */
+  private static final Set<Class<?>> immutableLists = new HashSet<>(Arrays.asList(
+      List.of().getClass(), List.of(0).getClass(), List.of(0, 1, 2).getClass()));
+
+  private static final Set<Class<?>> immutableSets = new HashSet<>(Arrays.asList(
+      Set.of().getClass(), Set.of(0).getClass(), Set.of(0, 1, 2).getClass()));
+
+  private static final Set<Class<?>> immutableMaps = new HashSet<>(Arrays.asList(
+      Map.of().getClass(), Map.of(0, 0).getClass(), Map.of(0, 0, 1, 1).getClass()));
+
+  /**
+   * The handler of each class, if any. The interfaces List, Set and Map are handled
+   * as the immutable collections mapped under their names.
+   */
+  private static final ClassValue<CollectionHandler> handlers = new ClassValue<>() {
+    @Override
+    protected CollectionHandler computeValue(Class<?> cls) {
+      if      (cls == ArrayList.class)      return new Mutable(false, ArrayList::new);
+      else if (cls == LinkedList.class)     return new Mutable(false, size -> new LinkedList<>());
+      else if (cls == ArrayDeque.class)     return new Mutable(false, ArrayDeque::new);
+      else if (cls == HashSet.class)        return new Mutable(false, size -> new HashSet<>(capacity(size)));
+      else if (cls == LinkedHashSet.class)  return new Mutable(false, size -> new LinkedHashSet<>(capacity(size)));
+      else if (cls == HashMap.class)        return new Mutable(true, size -> new HashMap<>(capacity(size)));
+      else if (cls == LinkedHashMap.class)  return new Mutable(true, size -> new LinkedHashMap<>(capacity(size)));
+      else if (cls == EnumMap.class)        return new EnumMapOf();
+      else if (EnumSet.class.isAssignableFrom(cls)) return new EnumSetOf();
+      else if (cls == List.class || immutableLists.contains(cls)) return new ImmutableList();
+      else if (cls == Set.class  || immutableSets.contains(cls))  return new ImmutableSet();
+      else if (cls == Map.class  || immutableMaps.contains(cls))  return new ImmutableMap();
+      else return null;
+    }
+  };
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The gzip compression of the streams written and read by a serializer, in blocks
+ * compressed and decompressed in parallel (see {@link BlockGzipOutputStream}).
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class Compression {
+  Compression(int level, int blockSize, ForkJoinPool pool) {
+    checkArgument(level == Deflater.DEFAULT_COMPRESSION || (level >= 1 && level <= 9),
+                  "compression level must be between 1 and 9, or the default compression level");
+    checkArgument(blockSize >= 1024, "block size must be at least 1 KB");
+    checkNotNull(pool, "pool cannot be null");
+    this.level = level;
+    this.blockSize = blockSize;
+    this.pool = pool;
+  }
+
+  /**
+   * Wraps the output stream in one compressing the bytes written to it.
+   */
+  BlockGzipOutputStream compress(OutputStream out) {
+    return new BlockGzipOutputStream(out, level, blockSize, pool);
+  }
+
+  /**
+   * Wraps the input stream in one decompressing the bytes read from it.
+   */
+  InputStream decompress(InputStream in) {
+    return new BlockGzipInputStream(in, pool);
+  }
+
+  final int level;
+  final int blockSize;
+  final ForkJoinPool pool;
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static ma.vi.serializer.Mapper.objectName;
+
+/**
+ * The namer of the {@link NamingStrategy#COUNTER} strategy, keeping a counter
+ * for each distinct name prefix.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class CounterNamer implements NamingStrategy.Namer {
+  CounterNamer(Set<String> existingNames) {
+    this.existingNames = existingNames;
+  }
+
+  @Override
+  public String name(Object object, String potentialName) {
+    Counter counter = byPotentialName.get(potentialName);
+    if (counter == null) {
+      // potential names with and without the object name prefix share the same counter
+      String prefix = objectName(object, potentialName) + '_';
+      counter = byPrefix.computeIfAbsent(prefix, Counter::new);
+      byPotentialName.put(potentialName, counter);
+    }
+    String name = counter.prefix + ++counter.count;
+    if (existingNames != null) {
+      while (existingNames.contains(name)) {
+        name = counter.prefix + ++counter.count;
+      }
+    }
+    return name;
+  }
+
+  /**
+   * Names in use, if any.
+   */
+  private final Set<String> existingNames;
+
+  private final Map<String, Counter> byPotentialName = new HashMap<>();
+  private final Map<String, Counter> byPrefix = new HashMap<>();
+
+  private static class Counter {
+    Counter(String prefix) {
+      this.prefix = prefix;
+    }
+
+    final String prefix;
+    int count;
+  }
+
+  /**
+   * A namer of the {@link NamingStrategy#COUNTER} strategy which can be shared by
+   * several threads without locking, the counter of each prefix being atomic. The
+   * names produced do not depend on any existing names.
+   */
+  static final class Shared implements NamingStrategy.Namer {
+    @Override
+    public String name(Object object, String potentialName) {
+      String key = potentialName == null ? objectName(object, null) : potentialName;
+      SharedCounter counter = byPotentialName.get(key);
+      if (counter == null) {
+        String prefix = objectName(object, potentialName) + '_';
+        counter = byPotentialName.computeIfAbsent(key, k -> byPrefix.computeIfAbsent(prefix, SharedCounter::new));
+      }
+      return counter.prefix + counter.count.incrementAndGet();
+    }
+
+    private final Map<String, SharedCounter> byPotentialName = new ConcurrentHashMap<>();
+    private final Map<String, SharedCounter> byPrefix = new ConcurrentHashMap<>();
+  }
+
+  private static class SharedCounter {
+    SharedCounter(String prefix) {
+      this.prefix = prefix;
+    }
+
+    final String prefix;
+    final AtomicInteger count = new AtomicInteger();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.lang.reflect.Field;
+
+import static java.lang.reflect.Modifier.isStatic;
+import static ma.vi.base.lang.Literal.isLiteral;
+import static ma.vi.base.lang.Literal.toText;
+import static ma.vi.base.lang.Literal.toValue;
+
+/**
+ * Reads and writes the value of a single field of objects. Accessors are
+ * created once per field, according to an {@link AccessStrategy}, and reused
+ * for all instances of the class declaring the field.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+abstract class FieldAccessor {
+  FieldAccessor(Field field, boolean primitive, Mapper.RegisteredAdapter adapter) {
+    this.field = field;
+    this.name = field.getName();
+    this.type = field.getType();
+    this.primitive = primitive;
+    this.adapter = adapter == null ? null : adapter.adapter;
+    this.adaptsSubtypes = adapter != null && adapter.subtypes;
+    this.kind = primitive         ? Kind.PRIMITIVE
+              : type.isEnum()     ? Kind.ENUM
+              : isLiteral(type)   ? Kind.LITERAL
+              : adapter != null   ? Kind.ADAPTED
+              :                     Kind.REFERENCE;
+  }
+
+  /**
+   * The kinds of field, according to which their values are mapped.
+   */
+  enum Kind {
+    /**
+     * Primitive fields read and written in textual form without boxing.
+     */
+    PRIMITIVE,
+
+    /**
+     * Enum fields, mapped to the names of their constants.
+     */
+    ENUM,
+
+    /**
+     * Fields of other literal types (including boxed primitives read reflectively
+     * and arrays of literals), mapped to their literal text.
+     */
+    LITERAL,
+
+    /**
+     * Fields whose declared type has a {@link TypeAdapter}.
+     */
+    ADAPTED,
+
+    /**
+     * Fields referring to other mapped objects.
+     */
+    REFERENCE
+  }
+
+  /**
+   * Creates an accessor for the field using the supplied strategy, with the adapter
+   * of the declared type of the field, if any. The field must have already been made
+   * accessible. Static fields are always accessed through reflection, as the handles
+   * of static fields take no object and cannot be adapted to those of instance fields,
+   * as are the fields whose accessors could not be compiled.
+   */
+  static FieldAccessor of(Field field, AccessStrategy strategy, Mapper.RegisteredAdapter adapter) {
+    if (strategy == AccessStrategy.GENERATED && !isStatic(field.getModifiers())) {
+      FieldAccessor accessor = AccessorCompiler.accessor(field, adapter);
+      if (accessor != null) {
+        return accessor;
+      }
+    }
+    return new Reflective(field, adapter);
+  }
+
+  /**
+   * Returns the value of the field in the object.
+   */
+  abstract Object get(Object object);
+
+  /**
+   * Sets the value of the field in the object.
+   */
+  abstract void set(Object object, Object value);
+
+  /**
+   * Returns the textual form of the value of the field in the object. Accessors of
+   * {@link #primitive} fields format the value without boxing it.
+   */
+  String getText(Object object) {
+    return toText(type, get(object));
+  }
+
+  /**
+   * Sets the value of the field in the object from its textual form. Accessors of
+   * {@link #primitive} fields parse and set the value without boxing it.
+   */
+  void setText(Object object, String text) {
+    set(object, toValue(type, text));
+  }
+
+  /**
+   * The field accessed.
+   */
+  final Field field;
+
+  /**
+   * The name of the field.
+   */
+  final String name;
+
+  /**
+   * The declared type of the field.
+   */
+  final Class<?> type;
+
+  /**
+   * True if the field is of a primitive type and its value is read and written in
+   * textual form through {@link #getText(Object)} and {@link #setText(Object, String)}
+   * without being boxed.
+   */
+  final boolean primitive;
+
+  /**
+   * The adapter of the declared type of the field, mapping the values of the field
+   * to and from text; null if there is none.
+   */
+  final TypeAdapter<Object> adapter;
+
+  /**
+   * True if the adapter also applies to the values of the field which are of a
+   * subtype of its declared type.
+   */
+  final boolean adaptsSubtypes;
+
+  /**
+   * The kind of the field, resolved once with the accessor.
+   */
+  final Kind kind;
+
+  /**
+   * Field access through {@link Field#get(Object)} and {@link Field#set(Object, Object)}.
+   */
+  private static class Reflective extends FieldAccessor {
+    Reflective(Field field, Mapper.RegisteredAdapter adapter) {
+      super(field, false, adapter);
+    }
+
+    @Override
+    Object get(Object object) {
+      try {
+        return field.get(object);
+      } catch (IllegalAccessException iae) {
+        throw new RuntimeException("Could not access field " + field, iae);
+      }
+    }
+
+    @Override
+    void set(Object object, Object value) {
+      try {
+        field.set(object, value);
+      } catch (IllegalAccessException iae) {
+        throw new RuntimeException("Could not access field " + field, iae);
+      }
+    }
+  }
+
+  /**
+   * The superclass of the accessors compiled by the {@link AccessorCompiler}, each
+   * reading and writing its field through constant method handles. Accessors of
+   * primitive fields (except char fields, whose textual form is left to
+   * {@link ma.vi.base.lang.Literal}) also convert their values to and from text
+   * without boxing them.
+   */
+  abstract static class Generated extends FieldAccessor {
+    Generated(Field field, boolean primitive, Mapper.RegisteredAdapter adapter) {
+      super(field, primitive, adapter);
+    }
+  }
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.util.*;
+
+/**
+ * The compact, immutable storage of a frozen {@link Mapped} (see {@link Mapped#freeze()}).
+ * The objects of the same type with the same fields, in the same order, share a single
+ * {@link Shape} holding their type and field names; the values of all objects are
+ * held in a single flat array, each object occupying the range of the array starting
+ * at its offset with one value for every field of its shape. Objects are found by
+ * name through an open-addressing hash table of their positions, and the set of
+ * objects referred to once is a bit set. The maps of the frozen {@link Mapped} are
+ * read-only views over this storage which, once built, is never modified and can
+ * thus be read from several threads.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class FrozenMapped {
+  FrozenMapped(Mapped mapped) {
+    int size = mapped.objects.size();
+    names = new String[size];
+    shapes = new Shape[size];
+    offsets = new int[size + 1];
+    singleRef = new long[(size + 63) >>> 6];
+
+    int valueCount = 0;
+    for (Map<String, String> object : mapped.objects.values()) {
+      valueCount += object.size();
+    }
+    values = new String[valueCount];
+
+    Map<Shape, Shape> interned = new HashMap<>();
+    int i = 0;
+    int offset = 0;
+    for (Map.Entry<String, Map<String, String>> entry : mapped.objects.entrySet()) {
+      String name = entry.getKey();
+      Map<String, String> object = entry.getValue();
+      String[] fieldNames = new String[object.size()];
+      int f = 0;
+      for (Map.Entry<String, String> field : object.entrySet()) {
+        fieldNames[f++] = field.getKey();
+        values[offset++] = field.getValue();
+      }
+      Shape shape = new Shape(mapped.types.get(name), fieldNames);
+      Shape existing = interned.putIfAbsent(shape, shape);
+      names[i] = name;
+      shapes[i] = existing == null ? shape : existing;
+      if (mapped.singleRefObjects.contains(name)) {
+        singleRef[i >>> 6] |= 1L << i;
+      }
+      offsets[++i] = offset;
+    }
+    shapeCount = interned.size();
+
+    // open-addressing table of positions, at most half full
+    table = new int[Integer.highestOneBit(Math.max(size, 2) * 2 - 1) << 1];
+    for (i = 0; i < size; i++) {
+      int mask = table.length - 1;
+      int slot = hash(names[i]) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+  }
+
+  /**
+   * The position of the named object, or -1 if there is no such object.
+   */
+  int position(Object name) {
+    if (name == null) {
+      return -1;
+    }
+    int mask = table.length - 1;
+    for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+      int entry = table[slot];
+      if (entry == 0) {
+        return -1;
+      } else if (names[entry - 1].equals(name)) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /**
+   * The number of distinct shapes of the objects.
+   */
+  int shapeCount() {
+    return shapeCount;
+  }
+
+  private static int hash(Object name) {
+    int h = name.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Read-only view of the objects, by name, in their original order.
+   */
+  final Map<String, Map<String, String>> objects = new AbstractMap<>() {
+    @Override
+    public Map<String, String> get(Object key) {
+      int position = position(key);
+      return position == -1 ? null : new ObjectView(position);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return position(key) != -1;
+    }
+
+    @Override
+    public int size() {
+      return names.length;
+    }
+
+    @Override
+    public Set<Entry<String, Map<String, String>>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, Map<String, String>>> iterator() {
+          return new Positions<>() {
+            @Override
+            Entry<String, Map<String, String>> at(int position) {
+              return new SimpleImmutableEntry<>(names[position], new ObjectView(position));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return names.length;
+        }
+      };
+    }
+  };
+
+  /**
+   * Read-only view of the types of the objects, by name.
+   */
+  final Map<String, String> types = new AbstractMap<>() {
+    @Override
+    public String get(Object key) {
+      int position = position(key);
+      return position == -1 ? null : shapes[position].type;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      int position = position(key);
+      return position != -1 && shapes[position].type != null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, String>> iterator() {
+          return new Positions<>() {
+            @Override
+            Entry<String, String> at(int position) {
+              return new SimpleImmutableEntry<>(names[position], shapes[position].type);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return names.length;
+        }
+      };
+    }
+  };
+
+  /**
+   * Read-only view of the names of the objects referred to once.
+   */
+  final Set<String> singleRefObjects = new AbstractSet<>() {
+    @Override
+    public boolean contains(Object o) {
+      int position = position(o);
+      return position != -1 && isSingleRef(position);
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return next < names.length;
+        }
+
+        @Override
+        public String next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          String name = names[next];
+          next = nextSingleRef(next + 1);
+          return name;
+        }
+
+        private int next = nextSingleRef(0);
+      };
+    }
+
+    @Override
+    public int size() {
+      int size = 0;
+      for (long bits : singleRef) {
+        size += Long.bitCount(bits);
+      }
+      return size;
+    }
+  };
+
+  private boolean isSingleRef(int position) {
+    return (singleRef[position >>> 6] & (1L << position)) != 0;
+  }
+
+  private int nextSingleRef(int position) {
+    while (position < names.length && !isSingleRef(position)) {
+      position++;
+    }
+    return position;
+  }
+
+  /**
+   * Read-only view of the fields of the object at a position.
+   */
+  private class ObjectView extends AbstractMap<String, String> {
+    ObjectView(int position) {
+      this.shape = shapes[position];
+      this.offset = offsets[position];
+    }
+
+    @Override
+    public String get(Object key) {
+      int field = shape.field(key);
+      return field == -1 ? null : values[offset + field];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return shape.field(key) != -1;
+    }
+
+    @Override
+    public int size() {
+      return shape.fieldNames.length;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, String>> iterator() {
+          return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+              return field < shape.fieldNames.length;
+            }
+
+            @Override
+            public Entry<String, String> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              int f = field++;
+              return new SimpleImmutableEntry<>(shape.fieldNames[f], values[offset + f]);
+            }
+
+            private int field;
+          };
+        }
+
+        @Override
+        public int size() {
+          return shape.fieldNames.length;
+        }
+      };
+    }
+
+    private final Shape shape;
+    private final int offset;
+  }
+
+  /**
+   * Iterates over the objects by position.
+   */
+  private abstract class Positions<T> implements Iterator<T> {
+    @Override
+    public boolean hasNext() {
+      return position < names.length;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return at(position++);
+    }
+
+    abstract T at(int position);
+
+    private int position;
+  }
+
+  /**
+   * The type and field names, in order, shared by objects of the same type.
+   */
+  private static final class Shape {
+    Shape(String type, String[] fieldNames) {
+      this.type = type;
+      this.fieldNames = fieldNames;
+    }
+
+    /**
+     * The position of the field in the shape, or -1 if the shape has no such field.
+     * Fields are searched sequentially in small shapes and through an index built on
+     * first use in larger ones (such as those of arrays and collections).
+     */
+    int field(Object name) {
+      if (fieldNames.length <= INDEXED_SHAPE_SIZE) {
+        for (int i = 0; i < fieldNames.length; i++) {
+          if (fieldNames[i].equals(name)) {
+            return i;
+          }
+        }
+        return -1;
+      }
+      Map<String, Integer> index = this.index;
+      if (index == null) {
+        index = new HashMap<>(CollectionHandler.capacity(fieldNames.length));
+        for (int i = 0; i < fieldNames.length; i++) {
+          index.put(fieldNames[i], i);
+        }
+        this.index = index;
+      }
+      Integer field = index.get(name);
+      return field == null ? -1 : field;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Shape)) return false;
+      Shape shape = (Shape)o;
+      return Objects.equals(type, shape.type) && Arrays.equals(fieldNames, shape.fieldNames);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Objects.hashCode(type) + Arrays.hashCode(fieldNames);
+    }
+
+    final String type;
+    final String[] fieldNames;
+
+    /**
+     * The positions of the fields by name, for large shapes. Built lazily and published
+     * through a volatile field as it is immutable once built.
+     */
+    private volatile Map<String, Integer> index;
+  }
+
+  /**
+   * The size of the largest shapes whose fields are searched sequentially.
+   */
+  private static final int INDEXED_SHAPE_SIZE = 8;
+
+  private final String[] names;
+  private final Shape[] shapes;
+
+  /**
+   * The offset of the values of each object in the values array, followed by the
+   * total number of values.
+   */
+  private final int[] offsets;
+  private final String[] values;
+  private final long[] singleRef;
+
+  /**
+   * The hash table of positions, offset by one so that 0 marks an empty slot.
+   */
+  private final int[] table;
+
+  private final int shapeCount;
+}
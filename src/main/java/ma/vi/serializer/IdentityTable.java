@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * The table of the objects met while traversing an object graph, giving each object,
+ * compared by identity, an integer id (its position in the order in which objects
+ * were added), and keeping its name and the number of references to it. The table
+ * is an open-addressing hash table with linear probing holding the ids of the objects;
+ * the objects, names and reference counts are held in arrays indexed by id, so that
+ * an object costs a slot in the hash table and an entry in each array, without any
+ * entry object.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class IdentityTable {
+  IdentityTable() {
+    this(16);
+  }
+
+  /**
+   * Creates a table which can hold the expected number of objects without growing.
+   */
+  IdentityTable(int expected) {
+    int capacity = Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) << 1;
+    table = new int[capacity];
+    objects = new Object[capacity >> 1];
+    names = new String[capacity >> 1];
+    counts = new int[capacity >> 1];
+  }
+
+  /**
+   * Returns the id of the object, or -1 if it is not in the table.
+   */
+  int id(Object object) {
+    int mask = table.length - 1;
+    for (int i = hash(object) & mask; ; i = (i + 1) & mask) {
+      int entry = table[i];
+      if (entry == 0) {
+        return -1;
+      } else if (objects[entry - 1] == object) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /**
+   * Adds the object, which must not be in the table, with its name and a single
+   * reference, returning its id.
+   */
+  int add(Object object, String name) {
+    int id = size++;
+    if (id == objects.length) {
+      grow();
+    }
+    objects[id] = object;
+    names[id] = name;
+    counts[id] = 1;
+    insert(object, id);
+    return id;
+  }
+
+  /**
+   * Records another reference to the object with the id.
+   */
+  void reference(int id) {
+    counts[id]++;
+  }
+
+  Object object(int id) {
+    return objects[id];
+  }
+
+  String name(int id) {
+    return names[id];
+  }
+
+  /**
+   * The number of references to the object with the id, the first being the one
+   * through which it was added.
+   */
+  int count(int id) {
+    return counts[id];
+  }
+
+  /**
+   * The number of objects in the table.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Adds the names of the objects referred to once to the set.
+   */
+  void singleRefNames(Set<String> singleRefNames) {
+    for (int id = 0; id < size; id++) {
+      if (counts[id] == 1) {
+        singleRefNames.add(names[id]);
+      }
+    }
+  }
+
+  /**
+   * Removes all objects from the table, keeping its capacity.
+   */
+  void clear() {
+    Arrays.fill(table, 0);
+    Arrays.fill(objects, 0, size, null);
+    Arrays.fill(names, 0, size, null);
+    size = 0;
+  }
+
+  private void insert(Object object, int id) {
+    int mask = table.length - 1;
+    int i = hash(object) & mask;
+    while (table[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    table[i] = id + 1;
+  }
+
+  /**
+   * Doubles the capacity of the table, which is kept at most half full.
+   */
+  private void grow() {
+    int capacity = objects.length * 2;
+    objects = Arrays.copyOf(objects, capacity);
+    names = Arrays.copyOf(names, capacity);
+    counts = Arrays.copyOf(counts, capacity);
+    table = new int[capacity * 2];
+    for (int id = 0; id < size - 1; id++) {
+      insert(objects[id], id);
+    }
+  }
+
+  /**
+   * Spreads the identity hash code of the object over the low bits used as index.
+   */
+  private static int hash(Object object) {
+    int h = System.identityHashCode(object);
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * The hash table of ids, offset by one so that 0 marks an empty slot.
+   */
+  private int[] table;
+
+  /**
+   * The objects, their names and their reference counts, indexed by id.
+   */
+  private Object[] objects;
+  private String[] names;
+  private int[] counts;
+
+  private int size;
+}
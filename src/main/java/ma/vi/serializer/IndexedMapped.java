@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.util.*;
+
+import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
+
+/**
+ * A representation of a mapped object graph, equivalent to {@link Mapped}, where the
+ * objects are identified by an integer id (their position in the graph, the first
+ * object being the root) instead of their names, and where the fields referring to
+ * other objects are tagged as references and hold the id of the object referred to.
+ * References are thus told apart from literal text, and resolved, without looking
+ * up names. Names are produced lazily, only when a textual format needs them, from
+ * the potential name of the object and its id.
+ *
+ * <p>
+ * An indexed map is produced by {@link Mapper#toIndexedMap(Object)}, or converted
+ * from a {@link Mapped} with {@link #of(Mapped)}, and can be written by all the
+ * serializers and reconstructed by {@link Mapper#fromMap(IndexedMapped)}.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class IndexedMapped {
+  /**
+   * The number of objects in the graph.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The type, in string form, of the object.
+   */
+  public String type(int id) {
+    return records[id].type;
+  }
+
+  /**
+   * The number of fields (or elements and entries describing the collection, for
+   * arrays and collections) of the object.
+   */
+  public int fieldCount(int id) {
+    return records[id].size;
+  }
+
+  public String fieldName(int id, int field) {
+    return records[id].fieldNames[field];
+  }
+
+  /**
+   * True if the field refers to another object, whose id is then returned by
+   * {@link #reference(int, int)}; otherwise the field holds the (possibly null)
+   * text returned by {@link #text(int, int)}.
+   */
+  public boolean isReference(int id, int field) {
+    return records[id].references[field] != NO_REFERENCE;
+  }
+
+  /**
+   * The id of the object referred to by the field.
+   */
+  public int reference(int id, int field) {
+    return records[id].references[field];
+  }
+
+  /**
+   * The text of a field which does not refer to another object.
+   */
+  public String text(int id, int field) {
+    return records[id].texts[field];
+  }
+
+  /**
+   * The number of references to the object in the graph, the root counting as
+   * referred to once. Objects referred to once can be inlined where they are
+   * referred to.
+   */
+  public int referenceCount(int id) {
+    return records[id].referenceCount;
+  }
+
+  /**
+   * The name of the object, produced on first request when the map was not converted
+   * from a {@link Mapped}.
+   */
+  public String name(int id) {
+    Record record = records[id];
+    if (record.name == null) {
+      record.name = OBJ_NAME_PREFIX + record.potentialName + '_' + id;
+    }
+    return record.name;
+  }
+
+  /**
+   * Converts this map to a {@link Mapped}, naming its objects.
+   */
+  public Mapped toMapped() {
+    Mapped mapped = Mapped.of(new LinkedHashMap<>(CollectionHandler.capacity(size)),
+                              new HashMap<>(CollectionHandler.capacity(size)),
+                              new HashSet<>());
+    for (int id = 0; id < size; id++) {
+      Record record = records[id];
+      String name = name(id);
+      Map<String, String> object = new LinkedHashMap<>(CollectionHandler.capacity(record.size));
+      for (int field = 0; field < record.size; field++) {
+        int reference = record.references[field];
+        object.put(record.fieldNames[field], reference == NO_REFERENCE ? record.texts[field] : name(reference));
+      }
+      mapped.objects.put(name, object);
+      mapped.types.put(name, record.type);
+      if (record.referenceCount == 1) {
+        mapped.singleRefObjects.add(name);
+      }
+    }
+    return mapped;
+  }
+
+  /**
+   * Converts the mapped object graph to an indexed map, keeping the names of its
+   * objects. Values which are the names of objects in the map are converted to
+   * references; the first object in the map is the root.
+   */
+  public static IndexedMapped of(Mapped mapped) {
+    IndexedMapped indexed = new IndexedMapped();
+    Map<String, Integer> ids = new HashMap<>(CollectionHandler.capacity(mapped.objects.size()));
+    for (Map.Entry<String, Map<String, String>> object : mapped.objects.entrySet()) {
+      String name = object.getKey();
+      int id = indexed.add(mapped.types.get(name), null, object.getValue().size());
+      indexed.records[id].name = name;
+      ids.put(name, id);
+    }
+    if (indexed.size > 0) {
+      indexed.records[0].referenceCount = 1;
+    }
+
+    int id = 0;
+    for (Map<String, String> object : mapped.objects.values()) {
+      for (Map.Entry<String, String> field : object.entrySet()) {
+        String value = field.getValue();
+        Integer reference = value != null && value.startsWith(OBJ_NAME_PREFIX) ? ids.get(value) : null;
+        if (reference == null) {
+          indexed.put(id, field.getKey(), value);
+        } else {
+          indexed.putReference(id, field.getKey(), reference);
+          indexed.records[reference].referenceCount++;
+        }
+      }
+      id++;
+    }
+    return indexed;
+  }
+
+  /**
+   * Adds an object of the type, expected to have the given number of fields,
+   * returning its id. The name of the object is produced from the potential name.
+   */
+  int add(String type, String potentialName, int fieldCount) {
+    if (size == records.length) {
+      records = Arrays.copyOf(records, size * 2);
+    }
+    records[size] = new Record(type, potentialName, fieldCount);
+    return size++;
+  }
+
+  /**
+   * Adds a field holding text to the object.
+   */
+  void put(int id, String fieldName, String text) {
+    records[id].add(fieldName, text, NO_REFERENCE);
+  }
+
+  /**
+   * Adds a field referring to another object to the object.
+   */
+  void putReference(int id, String fieldName, int reference) {
+    records[id].add(fieldName, null, reference);
+  }
+
+  /**
+   * Sets the number of references to the object.
+   */
+  void referenceCount(int id, int count) {
+    records[id].referenceCount = count;
+  }
+
+  /**
+   * Returns a read-only view of the fields of the object as a map from field
+   * names to text, with references shown as the names of the objects referred to.
+   */
+  Map<String, String> asMap(int id) {
+    return new AbstractMap<>() {
+      @Override
+      public String get(Object key) {
+        Record record = records[id];
+        for (int field = 0; field < record.size; field++) {
+          if (record.fieldNames[field].equals(key)) {
+            return value(id, field);
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public int size() {
+        return records[id].size;
+      }
+
+      @Override
+      public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+          @Override
+          public Iterator<Entry<String, String>> iterator() {
+            return new Iterator<>() {
+              @Override
+              public boolean hasNext() {
+                return field < records[id].size;
+              }
+
+              @Override
+              public Entry<String, String> next() {
+                if (!hasNext()) {
+                  throw new NoSuchElementException();
+                }
+                int f = field++;
+                return new SimpleImmutableEntry<>(records[id].fieldNames[f], value(id, f));
+              }
+
+              private int field;
+            };
+          }
+
+          @Override
+          public int size() {
+            return records[id].size;
+          }
+        };
+      }
+    };
+  }
+
+  private String value(int id, int field) {
+    int reference = records[id].references[field];
+    return reference == NO_REFERENCE ? records[id].texts[field] : name(reference);
+  }
+
+  /**
+   * The type, names and fields of an object.
+   */
+  private static class Record {
+    Record(String type, String potentialName, int fieldCount) {
+      this.type = type;
+      this.potentialName = potentialName;
+      this.fieldNames = new String[fieldCount];
+      this.texts = new String[fieldCount];
+      this.references = new int[fieldCount];
+    }
+
+    void add(String fieldName, String text, int reference) {
+      if (size == fieldNames.length) {
+        int capacity = Math.max(4, size * 2);
+        fieldNames = Arrays.copyOf(fieldNames, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+        references = Arrays.copyOf(references, capacity);
+      }
+      fieldNames[size] = fieldName;
+      texts[size] = text;
+      references[size] = reference;
+      size++;
+    }
+
+    final String type;
+    final String potentialName;
+    String name;
+
+    String[] fieldNames;
+    String[] texts;
+
+    /**
+     * The id of the object referred to by each field, or {@link #NO_REFERENCE}.
+     */
+    int[] references;
+
+    int size;
+    int referenceCount;
+  }
+
+  /**
+   * Marks the fields which do not refer to other objects.
+   */
+  private static final int NO_REFERENCE = -1;
+
+  private Record[] records = new Record[16];
+  private int size;
+}
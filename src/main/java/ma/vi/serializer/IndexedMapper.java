@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.serializer.Mapper.MappingPlan;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+import static java.util.Collections.emptySet;
+import static ma.vi.base.lang.Literal.isLiteral;
+import static ma.vi.base.lang.Literal.toText;
+import static ma.vi.base.reflect.Classes.typeOf;
+import static ma.vi.serializer.Mapper.*;
+
+/**
+ * Maps an object graph to an {@link IndexedMapped}. The graph is traversed depth-first,
+ * in the same order as {@link Mapper#toMap(Object)}, with an explicit stack; objects
+ * are given, in the order in which they are met, the ids of the {@link IdentityTable}
+ * recording them, which are also their ids in the indexed map.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class IndexedMapper {
+  IndexedMapper(AccessStrategy strategy) {
+    this.strategy = strategy;
+  }
+
+  IndexedMapped toMap(Object object) {
+    if (object != null) {
+      reference(object);
+      while (!stack.isEmpty()) {
+        mapNext();
+      }
+      for (int id = 0; id < mapped.size(); id++) {
+        map.referenceCount(id, mapped.count(id));
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Maps the next field (or element) of the object (or array or collection) at the
+   * top of the stack, popping it once all of its fields have been mapped.
+   */
+  private void mapNext() {
+    Frame frame = stack.peek();
+    if (frame.fields == null) {
+      // map next element of array or collection
+      if (frame.position == frame.elements.length) {
+        stack.pop();
+      } else {
+        int i = frame.position++;
+        Object v = frame.elements[i];
+        CollectionHandler handler = frame.handler;
+        String key = handler == null ? CollectionHandler.indexKey(i) : handler.elementKey(i);
+        if (v == null) {
+          map.put(frame.id, key, null);
+        } else if (handler != null && handler.isLiteral(i)) {
+          map.put(frame.id, key, ((CollectionHandler.LiteralElements)handler).toText(v));
+        } else {
+          map.putReference(frame.id, key, reference(v));
+        }
+      }
+    } else {
+      // map next field of object
+      if (frame.position == frame.fields.length) {
+        stack.pop();
+      } else {
+        FieldAccessor field = frame.fields[frame.position++];
+        if (field.kind == FieldAccessor.Kind.PRIMITIVE) {
+          map.put(frame.id, field.name, field.getText(frame.object));
+        } else {
+          Object value = field.get(frame.object);
+          if (value == null) {
+            map.put(frame.id, field.name, null);
+          } else if (isReference(field, value)) {
+            map.putReference(frame.id, field.name, reference(value));
+          } else {
+            map.put(frame.id, field.name, text(field, value));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the id of a non-null object referred to in the object graph, adding it to
+   * the map if it has not been mapped yet and, unless it is mapped to a single text,
+   * pushing it on the stack for its fields or elements to be mapped.
+   */
+  private int reference(Object object) {
+    int id = mapped.id(object);
+    if (id != -1) {
+      mapped.reference(id);
+      return id;
+    }
+    Class cls = object.getClass();
+    CollectionHandler handler = CollectionHandler.of(cls);
+    String potentialName = potentialNames.get(cls);
+    MappingPlan plan = isLiteral(cls) || cls.isArray() || handler != null ? null : plan(cls, strategy);
+    boolean single = isLiteral(cls) || plan != null && plan.adapter != null;
+
+    id = mapped.add(object, null);
+    map.add(handler == null ? typeOf(object) : handler.type(object),
+            potentialName,
+            single ? 1 : entryCount(object, handler, plan));
+
+    if (isLiteral(cls)) {
+      // a literal is mapped to a single field
+      map.put(id, potentialName, toText(cls, object));
+
+    } else if (plan != null && plan.adapter != null) {
+      // an adapted object is mapped, like a literal, to a single field
+      map.put(id, potentialName, plan.adapter.toMapped(object));
+
+    } else if (plan != null) {
+      stack.push(new Frame(object, id, plan.slots, null, null));
+
+    } else if (handler != null) {
+      header.id = id;
+      handler.mapHeader(object, header);
+      stack.push(new Frame(object, id, null, handler.elements(object), handler));
+
+    } else {
+      stack.push(new Frame(object, id, null, (Object[])object, null));
+    }
+    return id;
+  }
+
+  /**
+   * An object (or array or collection) whose fields (or elements) are being mapped.
+   */
+  private static class Frame {
+    Frame(Object object, int id, FieldAccessor[] fields, Object[] elements, CollectionHandler handler) {
+      this.object = object;
+      this.id = id;
+      this.fields = fields;
+      this.elements = elements;
+      this.handler = handler;
+    }
+
+    final Object object;
+    final int id;
+
+    /**
+     * The slots of the fields of an object; null for arrays and collections.
+     */
+    final FieldAccessor[] fields;
+
+    /**
+     * The elements of an array or collection; null for other objects.
+     */
+    final Object[] elements;
+
+    /**
+     * The handler of a collection; null for arrays and other objects.
+     */
+    final CollectionHandler handler;
+
+    int position;
+  }
+
+  /**
+   * Adds the entries describing a collection, written by its handler, as fields
+   * of the collection in the map.
+   */
+  private class Header extends AbstractMap<String, String> {
+    @Override
+    public String put(String key, String value) {
+      map.put(id, key, value);
+      return null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      return emptySet();
+    }
+
+    int id;
+  }
+
+  private final AccessStrategy strategy;
+  private final IndexedMapped map = new IndexedMapped();
+  private final IdentityTable mapped = new IdentityTable();
+  private final Deque<Frame> stack = new ArrayDeque<>();
+  private final Header header = new Header();
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.serializer.Mapper.MappingPlan;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.lang.Integer.parseInt;
+import static ma.vi.base.lang.Errors.unchecked;
+import static ma.vi.serializer.Mapper.*;
+
+/**
+ * Reconstructs an object graph from an {@link IndexedMapped}, resolving references
+ * by id in an array of the objects created. All objects are created first, then
+ * their fields are set and, finally, the handled collections are filled in reverse
+ * order of their ids (the order in which they were met when the graph was mapped)
+ * so that collections contained in others are filled before the latter. Immutable
+ * collections are built from their elements in the same pass, and the fields
+ * referring to them set once they are built.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class IndexedUnmapper {
+  IndexedUnmapper(IndexedMapped mapped, AccessStrategy strategy) {
+    this.mapped = mapped;
+    this.strategy = strategy;
+    int size = mapped.size();
+    this.types = new TypeDescriptor[size];
+    this.handlers = new CollectionHandler[size];
+    this.instances = new Object[size];
+  }
+
+  Object fromMap() {
+    int size = mapped.size();
+    if (size == 0) {
+      return null;
+    }
+
+    // create all objects, except immutable collections
+    for (int id = 0; id < size; id++) {
+      TypeDescriptor type = TypeDescriptor.of(mapped.type(id));
+      CollectionHandler handler = type.isArray() ? null : CollectionHandler.of(type.type(), mapped.asMap(id));
+      types[id] = type;
+      handlers[id] = handler;
+      if (handler == null || !handler.immutable()) {
+        instances[id] = allocate(type, mapped.asMap(id), strategy);
+      }
+    }
+
+    // set the fields of arrays and objects
+    for (int id = 0; id < size; id++) {
+      TypeDescriptor type = types[id];
+      if (handlers[id] == null && !type.isLiteral()) {
+        if (type.isArray()) {
+          populateArray(id);
+        } else {
+          MappingPlan plan = plan(type.type(), strategy);
+          if (plan.adapter == null) {
+            populate(id, plan);
+          }
+        }
+      }
+    }
+
+    // fill collections in reverse order, then set the fields referring to immutable
+    // collections, which are built only once all the objects they contain are populated
+    for (int id = size - 1; id >= 0; id--) {
+      CollectionHandler handler = handlers[id];
+      if (handler != null) {
+        if (handler.immutable()) {
+          instance(id);
+        } else {
+          ((CollectionHandler.Mutable)handler).fill(instances[id], elements(id));
+        }
+      }
+    }
+    for (Deferred deferred : this.deferred) {
+      if (deferred.field == null) {
+        Array.set(deferred.instance, deferred.index, instance(deferred.reference));
+      } else {
+        deferred.field.set(deferred.instance, instance(deferred.reference));
+      }
+    }
+    return instance(0);
+  }
+
+  /**
+   * Returns the object with the id, building it first if it is an immutable
+   * collection which has not been built yet.
+   */
+  private Object instance(int id) {
+    Object instance = instances[id];
+    if (instance == UNDER_CONSTRUCTION) {
+      throw new IllegalStateException("Immutable collection " + mapped.name(id) + " is part of a cycle " +
+                                      "and cannot be reconstructed");
+    } else if (instance == null && handlers[id] != null && handlers[id].immutable()) {
+      instances[id] = UNDER_CONSTRUCTION;
+      instance = ((CollectionHandler.Immutable)handlers[id]).build(mapped.asMap(id), elements(id));
+      instances[id] = instance;
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the elements of the collection, which follow the entries describing the
+   * collection itself in its fields.
+   */
+  private Object[] elements(int id) {
+    CollectionHandler handler = handlers[id];
+    int fieldCount = mapped.fieldCount(id);
+    Object[] elements = new Object[handler.elementCount(mapped.asMap(id))];
+    int first = fieldCount - elements.length;
+    for (int i = 0; i < elements.length; i++) {
+      int field = first + i;
+      if (mapped.isReference(id, field)) {
+        elements[i] = instance(mapped.reference(id, field));
+      } else {
+        String text = mapped.text(id, field);
+        if (text != null) {
+          elements[i] = ((CollectionHandler.LiteralElements)handler).toValue(mapped.asMap(id), text);
+        }
+      }
+    }
+    return elements;
+  }
+
+  /**
+   * Sets the elements of the array, whose fields are named 'i' followed by the index
+   * of the element. Elements referring to immutable collections are deferred.
+   */
+  private void populateArray(int id) {
+    Object array = instances[id];
+    int fieldCount = mapped.fieldCount(id);
+    for (int field = 0; field < fieldCount; field++) {
+      String key = mapped.fieldName(id, field);
+      int index = parseInt(key, 1, key.length(), 10);
+      if (!mapped.isReference(id, field)) {
+        Array.set(array, index, null);
+      } else if (isImmutable(mapped.reference(id, field))) {
+        deferred.add(new Deferred(array, null, index, mapped.reference(id, field)));
+      } else {
+        Array.set(array, index, instances[mapped.reference(id, field)]);
+      }
+    }
+  }
+
+  /**
+   * Sets the fields of the object, which are usually in the order of the slots of
+   * its plan, which is tried before looking up the field by name. Fields referring
+   * to immutable collections are deferred.
+   */
+  private void populate(int id, MappingPlan plan) {
+    Object instance = instances[id];
+    FieldAccessor[] slots = plan.slots;
+    int slot = 0;
+    int fieldCount = mapped.fieldCount(id);
+    try {
+      for (int f = 0; f < fieldCount; f++) {
+        String fieldName = mapped.fieldName(id, f);
+        FieldAccessor field;
+        if (slot < slots.length && slots[slot].name.equals(fieldName)) {
+          field = slots[slot++];
+        } else {
+          field = plan.setters.get(fieldName);
+        }
+        if (field == null) {
+          // no such field in class: discard
+          unknownField();
+        } else if (mapped.isReference(id, f)) {
+          int reference = mapped.reference(id, f);
+          if (isImmutable(reference)) {
+            deferred.add(new Deferred(instance, field, -1, reference));
+          } else {
+            field.set(instance, instances[reference]);
+          }
+        } else {
+          String text = mapped.text(id, f);
+          if (text == null) {
+            field.set(instance, null);
+          } else {
+            setText(instance, field, text, UNRESOLVED);
+          }
+        }
+      }
+    } catch (Exception e) {
+      throw unchecked(e);
+    }
+  }
+
+  private boolean isImmutable(int id) {
+    return handlers[id] != null && handlers[id].immutable();
+  }
+
+  /**
+   * A field (or array element) referring to an immutable collection, set once the
+   * collection is built.
+   */
+  private static class Deferred {
+    Deferred(Object instance, FieldAccessor field, int index, int reference) {
+      this.instance = instance;
+      this.field = field;
+      this.index = index;
+      this.reference = reference;
+    }
+
+    final Object instance;
+
+    /**
+     * The field to set; null when the instance is an array.
+     */
+    final FieldAccessor field;
+
+    /**
+     * The index of the element to set in the array.
+     */
+    final int index;
+
+    /**
+     * The id of the collection.
+     */
+    final int reference;
+  }
+
+  /**
+   * Text in reference fields does not name any object in an indexed map.
+   */
+  private static final Function<String, Object> UNRESOLVED = name -> null;
+
+  /**
+   * Marks the immutable collections whose elements are being reconstructed.
+   */
+  private static final Object UNDER_CONSTRUCTION = new Object();
+
+  private final IndexedMapped mapped;
+  private final AccessStrategy strategy;
+  private final TypeDescriptor[] types;
+  private final CollectionHandler[] handlers;
+  private final Object[] instances;
+  private final List<Deferred> deferred = new ArrayList<>();
+}
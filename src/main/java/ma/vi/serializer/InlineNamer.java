@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Names the objects inlined in the fields of other objects as serialized text is read
+ * into a {@link Mapped}. As the names of the objects defined or referred to further in
+ * the text are not known when an inlined object is named, the name given to the latter
+ * can turn out to be the name of one of the former; the inlined object is then renamed,
+ * which only requires updating the field it was inlined in, the only reference to it.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class InlineNamer {
+  InlineNamer(Mapped map, NamingStrategy naming) {
+    this.map = map;
+    this.namer = naming.newNamer(map.objects.keySet());
+  }
+
+  /**
+   * Names the object inlined in the field of the parent object, which must be set to
+   * the name returned before any other object is read, and adds it to the objects
+   * referred to once.
+   */
+  String name(Map<String, String> parent, String fieldName) {
+    String name = namer.name(parent, fieldName);
+    parents.put(name, parent);
+    map.singleRefObjects.add(name);
+    return name;
+  }
+
+  /**
+   * Renames the inlined object with the given name, if any. Called with the name of each
+   * object defined at the top level of the text before reading its definition, and with
+   * each name referred to in a field before counting the reference.
+   */
+  void claim(String objectName) {
+    Map<String, String> parent = parents.remove(objectName);
+    if (parent != null) {
+      for (Map.Entry<String, String> field : parent.entrySet()) {
+        if (objectName.equals(field.getValue())) {
+          String name = name(parent, field.getKey());
+          field.setValue(name);
+          map.objects.put(name, map.objects.remove(objectName));
+          map.types.put(name, map.types.remove(objectName));
+          map.singleRefObjects.remove(objectName);
+          break;
+        }
+      }
+    }
+  }
+
+  private final Mapped map;
+  private final NamingStrategy.Namer namer;
+
+  /**
+   * The objects in which the objects named by this namer were inlined, by their names.
+   */
+  private final Map<String, Map<String, String>> parents = new HashMap<>();
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.lang.reflect.Constructor;
+
+import static java.lang.reflect.Modifier.isAbstract;
+import static ma.vi.base.lang.Errors.unchecked;
+import static ma.vi.base.lang.UnsafeLoader.unsafe;
+
+/**
+ * Creates new uninitialized instances of a class during reconstruction. Like
+ * Java serialization, instances are created without running any of the constructors
+ * of the class, its fields being set afterwards from their mapped values.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@FunctionalInterface
+interface Instantiator {
+  /**
+   * Returns a new instance of the class of this instantiator.
+   */
+  Object newInstance();
+
+  /**
+   * Creates an instantiator for the class using the supplied strategy.
+   */
+  static Instantiator of(Class<?> cls, AccessStrategy strategy) {
+    if (strategy == AccessStrategy.GENERATED && !cls.isInterface() && !isAbstract(cls.getModifiers())) {
+      try {
+        // a serialization constructor allocates an instance of the class and
+        // only runs the no-arg constructor of Object; it is generated once and,
+        // called from a compiled instantiator, thereafter costs the same as a
+        // normal constructor call.
+        Constructor<?> constructor = serializationConstructor(cls);
+        constructor.setAccessible(true);
+        Instantiator compiled = AccessorCompiler.instantiator(constructor);
+        if (compiled != null) {
+          return compiled;
+        }
+        return () -> {
+          try {
+            return constructor.newInstance();
+          } catch (Exception e) {
+            throw unchecked(e);
+          }
+        };
+      } catch (Exception e) {
+        // fallback to unsafe allocation
+      }
+    }
+    return () -> {
+      try {
+        return unsafe().allocateInstance(cls);
+      } catch (InstantiationException e) {
+        throw unchecked(e);
+      }
+    };
+  }
+
+  /**
+   * Returns a serialization constructor for the class from sun.reflect.ReflectionFactory,
+   * which is looked up reflectively as it is an internal API of the JDK.
+   */
+  private static Constructor<?> serializationConstructor(Class<?> cls) throws ReflectiveOperationException {
+    Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+    Object factory = factoryClass.getMethod("getReflectionFactory").invoke(null);
+    return (Constructor<?>)factoryClass.getMethod("newConstructorForSerialization", Class.class, Constructor.class)
+                                       .invoke(factory, cls, Object.class.getDeclaredConstructor());
+  }
+}
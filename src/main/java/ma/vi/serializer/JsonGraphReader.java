@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import com.fasterxml.jackson.core.JsonParser;
+import ma.vi.serializer.Mapper.MappingPlan;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.function.Function;
+
+import static com.fasterxml.jackson.core.JsonToken.*;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.Integer.parseInt;
+import static ma.vi.serializer.Mapper.*;
+import static ma.vi.serializer.TypeDescriptor.canonical;
+
+/**
+ * Reconstructs an object graph directly from the JSON produced by {@link JsonSerializer}
+ * without first reading it into a {@link Mapped}. Objects are created as soon as their
+ * definition has been read and their fields set from it; fields referring to objects
+ * defined further in the text are recorded and set once the objects they refer to
+ * are defined. Handled collections are filled (and immutable collections built) once
+ * the whole text has been read, in reverse order of the start of their definitions
+ * so that, as in {@link Mapper#fromMap(Mapped)}, collections contained in others are
+ * usually filled before the latter. Only the table of objects by name, the pending
+ * references and the maps of the collections are kept until the end of the text.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class JsonGraphReader {
+  JsonGraphReader(AccessStrategy strategy) {
+    this.strategy = strategy;
+  }
+
+  Object read(JsonParser json) throws IOException {
+    // read start of json object
+    checkState(json.nextToken() == START_OBJECT,
+        "JSON object data must start with a root object");
+
+    String root = null;
+    while (json.nextToken() != END_OBJECT) {
+      String objectName = json.getCurrentName();
+      checkState(json.nextToken() == START_OBJECT,
+          "Object definition could not be found for object " + objectName);
+      if (root == null) {
+        root = objectName;
+      }
+      readObject(objectName, readType(json), json);
+    }
+
+    // fill (or build) collections, then return the root
+    for (int i = collections.size() - 1; i >= 0; i--) {
+      HandledCollection collection = collections.get(i);
+      if (collection == null) {
+        // mapped through the fields of its class and already populated
+      } else if (collection.handler.immutable()) {
+        build(collection);
+      } else {
+        ((CollectionHandler.Mutable)collection.handler)
+            .fill(collection.instance, collection.handler.elements(collection.map, this::resolve));
+      }
+    }
+    return root == null ? null : resolve(root);
+  }
+
+  /**
+   * Reads the definition of an object, after its type, including the objects inlined
+   * in its fields which are defined before it, as their definitions end before its own.
+   */
+  private void readObject(String objectName, String type, JsonParser json) throws IOException {
+    Deque<Definition> stack = new ArrayDeque<>();
+    stack.push(start(objectName, type));
+    while (!stack.isEmpty()) {
+      Definition definition = stack.peek();
+      if (json.nextToken() == END_OBJECT) {
+        stack.pop();
+        define(definition);
+      } else {
+        String fieldName = json.getCurrentName();
+        if (json.nextToken() == START_OBJECT) {
+          String valueObjectName = INLINED_PREFIX + ++inlined;
+          definition.map.put(fieldName, valueObjectName);
+          stack.push(start(valueObjectName, readType(json)));
+        } else {
+          definition.map.put(fieldName, json.getText());
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the type of an object, which must be its first field named 'class'.
+   */
+  private static String readType(JsonParser json) throws IOException {
+    // first field name must be class and contains the type of the object
+    checkState(json.nextToken() == FIELD_NAME,
+        "No field found inside object definition; it must have at " +
+            "least one containing its type name");
+
+    String fieldName = json.getCurrentName();
+    checkState(fieldName.equals("class"),
+        "The first expected field must be named 'class' and contains " +
+            "the type of the object; instead it is named '" + fieldName + '\'');
+
+    json.nextToken();
+    return json.getText();
+  }
+
+  /**
+   * Starts the definition of the named object, reserving its name and, for collections,
+   * its position in the order in which collections are filled.
+   */
+  private Definition start(String objectName, String type) {
+    instances.put(objectName, UNDEFINED);
+    TypeDescriptor descriptor = TypeDescriptor.of(canonical(type));
+    CollectionHandler handler = descriptor.isArray() ? null : CollectionHandler.of(descriptor.type());
+    int position = -1;
+    if (handler != null) {
+      position = collections.size();
+      collections.add(null);
+    }
+    return new Definition(objectName, descriptor, handler, position);
+  }
+
+  /**
+   * Creates the object from its complete definition and sets its fields, recording
+   * those referring to objects not defined yet, then sets the fields of the objects
+   * defined earlier which were waiting for it.
+   */
+  private void define(Definition definition) {
+    String name = definition.name;
+    TypeDescriptor type = definition.type;
+    Map<String, String> map = definition.map;
+    // a collection mapped through the fields of its class is populated as any object
+    CollectionHandler handler = definition.handler != null && definition.handler.handles(map)
+                              ? definition.handler : null;
+    if (handler != null && handler.immutable()) {
+      // built once all objects are defined
+      HandledCollection collection = new HandledCollection(name, null, map, handler);
+      collections.set(definition.position, collection);
+      instances.put(name, collection);
+
+    } else {
+      Object instance = allocate(type, map, strategy);
+      instances.put(name, instance);
+      if (handler != null) {
+        collections.set(definition.position, new HandledCollection(name, instance, map, handler));
+      } else if (type.isArray()) {
+        if (!type.isLiteral()) {
+          populate(instance, map, null, type, resolver);
+          defer(instance, map, null, type);
+        }
+      } else if (!type.isLiteral()) {
+        MappingPlan plan = plan(type.type(), strategy);
+        if (plan.adapter == null) {
+          populate(instance, map, plan, null, resolver);
+          defer(instance, map, plan, null);
+        }
+      }
+      patch(name, instance);
+    }
+  }
+
+  /**
+   * Records the fields (or elements) of the object (or array) just populated which
+   * refer to objects not defined yet.
+   */
+  private void defer(Object instance, Map<String, String> map, MappingPlan plan, TypeDescriptor arrayType) {
+    if (!missing.isEmpty()) {
+      boolean references = plan != null || arrayType.dimensions > 1 || !arrayType.isLiteral();
+      for (Map.Entry<String, String> entry : map.entrySet()) {
+        String value = entry.getValue();
+        if (value != null && references && missing.contains(value)) {
+          if (plan == null) {
+            pending(value).add(new Reference(instance, null, parseInt(entry.getKey().substring(1))));
+          } else {
+            FieldAccessor field = plan.setters.get(entry.getKey());
+            if (field != null && (field.kind == FieldAccessor.Kind.REFERENCE ||
+                                  field.kind == FieldAccessor.Kind.ADAPTED && !field.adaptsSubtypes)) {
+              pending(value).add(new Reference(instance, field, -1));
+            }
+          }
+        }
+      }
+      missing.clear();
+    }
+  }
+
+  private List<Reference> pending(String name) {
+    return pending.computeIfAbsent(name, n -> new ArrayList<>());
+  }
+
+  /**
+   * Sets the fields (or elements) waiting for the named object.
+   */
+  private void patch(String name, Object instance) {
+    List<Reference> references = pending.remove(name);
+    if (references != null) {
+      for (Reference reference : references) {
+        if (reference.field == null) {
+          Array.set(reference.instance, reference.index, instance);
+        } else {
+          reference.field.set(reference.instance, instance);
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds the immutable collection from its elements, building first those of its
+   * elements which are immutable collections themselves.
+   */
+  private Object build(HandledCollection collection) {
+    if (collection.instance == null) {
+      if (collection.building) {
+        throw new IllegalStateException("Immutable collection " + collection.name + " is part of a cycle " +
+                                        "and cannot be reconstructed");
+      }
+      collection.building = true;
+      Object instance = ((CollectionHandler.Immutable)collection.handler)
+          .build(collection.map, collection.handler.elements(collection.map, this::resolve));
+      collection.instance = instance;
+      instances.put(collection.name, instance);
+      patch(collection.name, instance);
+    }
+    return collection.instance;
+  }
+
+  /**
+   * Returns the named object once the whole text has been read, building it if it is
+   * an immutable collection; null if the object has not been defined.
+   */
+  private Object resolve(String name) {
+    Object instance = instances.get(name);
+    if (instance instanceof HandledCollection) {
+      return build((HandledCollection)instance);
+    }
+    return instance == UNDEFINED ? null : instance;
+  }
+
+  /**
+   * An object whose definition is being read.
+   */
+  private static class Definition {
+    Definition(String name, TypeDescriptor type, CollectionHandler handler, int position) {
+      this.name = name;
+      this.type = type;
+      this.handler = handler;
+      this.position = position;
+    }
+
+    final String name;
+    final TypeDescriptor type;
+    final CollectionHandler handler;
+
+    /**
+     * The position of the collection in the order in which collections are filled;
+     * -1 for other objects.
+     */
+    final int position;
+
+    final Map<String, String> map = new LinkedHashMap<>();
+  }
+
+  /**
+   * A handled collection waiting to be filled or, if immutable, built.
+   */
+  private static class HandledCollection {
+    HandledCollection(String name, Object instance, Map<String, String> map, CollectionHandler handler) {
+      this.name = name;
+      this.instance = instance;
+      this.map = map;
+      this.handler = handler;
+    }
+
+    final String name;
+    final Map<String, String> map;
+    final CollectionHandler handler;
+
+    /**
+     * The collection; null for an immutable collection until it is built.
+     */
+    Object instance;
+
+    boolean building;
+  }
+
+  /**
+   * A field (or array element) waiting for the object it refers to to be defined.
+   */
+  private static class Reference {
+    Reference(Object instance, FieldAccessor field, int index) {
+      this.instance = instance;
+      this.field = field;
+      this.index = index;
+    }
+
+    final Object instance;
+
+    /**
+     * The field to set; null when the instance is an array.
+     */
+    final FieldAccessor field;
+
+    /**
+     * The index of the element to set in the array.
+     */
+    final int index;
+  }
+
+  /**
+   * Marks the objects whose definition has started but which have not been created yet.
+   */
+  private static final Object UNDEFINED = new Object();
+
+  private final AccessStrategy strategy;
+
+  /**
+   * The objects by name: the object once created, {@link #UNDEFINED} before that
+   * and the {@link HandledCollection} for immutable collections until they are built.
+   */
+  private final Map<String, Object> instances = new HashMap<>();
+
+  /**
+   * The handled collections by order of the start of their definitions.
+   */
+  private final List<HandledCollection> collections = new ArrayList<>();
+
+  /**
+   * The fields waiting for objects not defined yet, by the name of those objects.
+   */
+  private final Map<String, List<Reference>> pending = new HashMap<>();
+
+  /**
+   * The names of the objects not defined yet referred to by the object being populated.
+   */
+  private final Set<String> missing = new HashSet<>();
+
+  /**
+   * Resolves the objects referred to while populating an object, returning null and
+   * noting the name for the objects not created yet.
+   */
+  private final Function<String, Object> resolver = name -> {
+    Object instance = instances.get(name);
+    if (instance == null || instance == UNDEFINED || instance instanceof HandledCollection) {
+      missing.add(name);
+      return null;
+    }
+    return instance;
+  };
+
+  /**
+   * The prefix of the names given to the objects inlined in the fields of others, which
+   * are never exposed. As these names are not identifiers, they cannot clash with the
+   * names of the objects in the text, which are not all known when an object is inlined.
+   */
+  private static final String INLINED_PREFIX = OBJ_NAME_PREFIX + '#';
+
+  /**
+   * The number of objects inlined so far.
+   */
+  private int inlined;
+}
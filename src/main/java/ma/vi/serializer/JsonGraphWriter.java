@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.serializer.Mapper.MapFrame;
+import ma.vi.serializer.Mapper.MappingPlan;
+import ma.vi.serializer.NamingStrategy.Namer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.function.Function;
+
+import static com.google.common.base.Strings.repeat;
+import static java.util.Collections.singletonMap;
+import static ma.vi.base.lang.Literal.isLiteral;
+import static ma.vi.base.lang.Literal.toText;
+import static ma.vi.base.reflect.Classes.typeOf;
+import static ma.vi.serializer.Mapper.*;
+
+/**
+ * Writes an object graph directly as JSON without first mapping it to a {@link Mapped}.
+ * The graph is traversed twice: the first pass names the objects in the same order
+ * as {@link Mapper#toMap(Object)} does and counts the references to each of them; the
+ * second pass maps the objects one at a time, in the order in which they were named,
+ * writing them out as they are mapped and inlining the objects referred to once. Only
+ * the table of references and the maps of the objects being written (one for every
+ * level of inlining) are kept in memory, instead of the map of the whole graph.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class JsonGraphWriter {
+  JsonGraphWriter(JsonSerializer json, AccessStrategy strategy, NamingStrategy naming) {
+    this.json = json;
+    this.strategy = strategy;
+    this.naming = naming;
+  }
+
+  void write(Object root, Writer writer) throws IOException {
+    TextEmitter out = new TextEmitter(writer);
+    if (root != null) {
+      name(root);
+    }
+    String indent = repeat(" ", json.indentSpaces);
+    json.writeHeader(out);
+    boolean first = true;
+    Deque<WriteFrame> stack = new ArrayDeque<>();
+    for (Ref ref : named) {
+      if (!ref.written) {
+        ref.written = true;
+        json.writeObjectStart(out, ref.name, type(ref.object), indent, first);
+        stack.push(new WriteFrame(ref, 2, null));
+        while (!stack.isEmpty()) {
+          writeNext(stack, out, indent);
+        }
+        json.writeObjectEnd(out, ref.name, indent);
+        first = false;
+      }
+    }
+    json.writeFooter(out);
+    out.release();
+  }
+
+  /**
+   * Names every object in the graph in the same order as {@link Mapper#toMap(Object)},
+   * counting the references to each object (the naming of the root counting as one).
+   * Objects are mapped to maps discarding their entries, only to discover the objects
+   * that they refer to.
+   */
+  private void name(Object root) {
+    Namer namer = naming.newNamer(null);
+    Deque<MapFrame> stack = new ArrayDeque<>();
+    Function<Object, String> referencer = object -> {
+      Ref ref = refs.get(object);
+      if (ref == null) {
+        Class cls = object.getClass();
+        ref = new Ref(object, namer.name(object, potentialNames.get(cls)));
+        refs.put(object, ref);
+        named.add(ref);
+        if (!isLiteral(cls)) {
+          CollectionHandler handler = CollectionHandler.of(cls);
+          MappingPlan plan = cls.isArray() || handler != null ? null : plan(cls, strategy);
+          if (plan == null || plan.adapter == null) {
+            stack.push(frame(object, handler, plan, DISCARD));
+          }
+        }
+      }
+      ref.count++;
+      return ref.name;
+    };
+    referencer.apply(root);
+    while (!stack.isEmpty()) {
+      mapNext(stack, referencer);
+    }
+  }
+
+  /**
+   * Writes the next field of the object at the top of the stack, pushing the object it
+   * refers to when that object is to be inlined, and popping the object once all of
+   * its fields have been written.
+   */
+  private void writeNext(Deque<WriteFrame> stack, Writer out, String indent) throws IOException {
+    WriteFrame frame = stack.peek();
+    if (!frame.fields.hasNext()) {
+      stack.pop();
+      if (frame.fieldName != null) {
+        json.writeInlineEnd(out, frame.fieldName, indent, json.indentation(indent, frame.level - 1));
+      }
+    } else {
+      Map.Entry<String, String> field = frame.fields.next();
+      String value = field.getValue();
+      String indentation = json.indentation(indent, frame.level);
+
+      // references are the name strings themselves, in the order of the fields
+      Ref ref = value != null && value == frame.nextRefName() ? frame.referred.poll() : null;
+      if (ref != null && json.inlineSingleRefObjects && ref.count == 1 && !ref.written) {
+        ref.written = true;
+        json.writeInlineStart(out, field.getKey(), type(ref.object), indent, indentation);
+        stack.push(new WriteFrame(ref, frame.level + 1, field.getKey()));
+      } else {
+        json.writeField(out, field.getKey(), value, indent, indentation);
+      }
+    }
+  }
+
+  /**
+   * Returns the map of the object, as it would be found in the {@link Mapped} of the
+   * graph, adding the references to other objects that it contains, in order, to the
+   * supplied queue.
+   */
+  private Map<String, String> map(Object object, Queue<Ref> referred) {
+    Class cls = object.getClass();
+    String potentialName = potentialNames.get(cls);
+    if (isLiteral(cls)) {
+      return singletonMap(potentialName, toText(cls, object));
+    }
+    CollectionHandler handler = CollectionHandler.of(cls);
+    MappingPlan plan = cls.isArray() || handler != null ? null : plan(cls, strategy);
+    if (plan != null && plan.adapter != null) {
+      return singletonMap(potentialName, plan.adapter.toMapped(object));
+    }
+    Map<String, String> objMap = new LinkedHashMap<>();
+    Deque<MapFrame> stack = new ArrayDeque<>(1);
+    stack.push(frame(object, handler, plan, objMap));
+    Function<Object, String> referencer = o -> {
+      Ref ref = refs.get(o);
+      referred.add(ref);
+      return ref.name;
+    };
+    while (!stack.isEmpty()) {
+      mapNext(stack, referencer);
+    }
+    return objMap;
+  }
+
+  private static String type(Object object) {
+    CollectionHandler handler = CollectionHandler.of(object.getClass());
+    return handler == null ? typeOf(object) : handler.type(object);
+  }
+
+  /**
+   * An object being written with its fields remaining to be written and the references
+   * in those fields.
+   */
+  private class WriteFrame {
+    WriteFrame(Ref ref, int level, String fieldName) {
+      this.fields = map(ref.object, referred).entrySet().iterator();
+      this.level = level;
+      this.fieldName = fieldName;
+    }
+
+    String nextRefName() {
+      Ref ref = referred.peek();
+      return ref == null ? null : ref.name;
+    }
+
+    final Queue<Ref> referred = new ArrayDeque<>();
+    final Iterator<Map.Entry<String, String>> fields;
+    final int level;
+
+    /**
+     * The field in which the object is inlined; null for top-level objects.
+     */
+    final String fieldName;
+  }
+
+  /**
+   * An object in the graph with its name and the number of references to it.
+   */
+  private static class Ref {
+    Ref(Object object, String name) {
+      this.object = object;
+      this.name = name;
+    }
+
+    final Object object;
+    final String name;
+    int count;
+    boolean written;
+  }
+
+  /**
+   * A map which discards its entries, used to discover the objects referred to by an
+   * object while naming the graph.
+   */
+  private static final Map<String, String> DISCARD = new AbstractMap<>() {
+    @Override
+    public String put(String key, String value) {
+      return null;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+      return Collections.emptySet();
+    }
+  };
+
+  private final JsonSerializer json;
+  private final AccessStrategy strategy;
+  private final NamingStrategy naming;
+  private final IdentityHashMap<Object, Ref> refs = new IdentityHashMap<>();
+  private final List<Ref> named = new ArrayList<>();
+}
@@ -6,11 +6,9 @@ package ma.vi.serializer;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
-import com.google.common.base.CharMatcher;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -18,10 +16,8 @@ import java.util.Set;
 
 import static com.fasterxml.jackson.core.JsonToken.*;
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.base.Strings.repeat;
-import static java.util.Map.Entry;
 import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
-import static ma.vi.serializer.Mapper.uniqueObjectName;
+import static ma.vi.serializer.TypeDescriptor.canonical;
 
 /**
  * The JSON serializer.
@@ -32,50 +28,75 @@ public class JsonSerializer extends AbstractSerializerWriter {
   @Override
   public Mapped toMap(Reader in) throws IOException {
     try (JsonParser json = new JsonFactory().createParser(in)) {
-      Mapped map = new Mapped();
+      return toMap(json, namingStrategy, symbols());
+    }
+  }
 
-      // read start of json object
-      checkState(json.nextToken() == START_OBJECT,
-          "JSON object data must start with a root object");
+  /**
+   * Reads the map from its JSON text in the input stream, which is not closed. Text in
+   * UTF-8 is parsed directly from its bytes.
+   */
+  @Override
+  public Mapped toMap(InputStream in) throws IOException {
+    if (!encoding.equals(StandardCharsets.UTF_8)) {
+      return super.toMap(in);
+    }
+    try (JsonParser json = parser(in)) {
+      return toMap(json, namingStrategy, symbols());
+    }
+  }
 
-      // Iterate over object fields:
-      Set<String> multiRefObjects = null;
-      while (json.nextToken() != END_OBJECT) {
-        String objectName = json.getCurrentName();
+  /**
+   * Reads a map from the JSON structure produced by the parser, which can be of any of
+   * the formats supported by Jackson, such as Smile and CBOR, as long as it has the same
+   * structure as the JSON text written by this serializer.
+   */
+  static Mapped toMap(JsonParser json, NamingStrategy namingStrategy, SymbolTable symbols) throws IOException {
+    Mapped map = new Mapped();
+    InlineNamer namer = new InlineNamer(map, namingStrategy);
 
-        checkState(json.nextToken() == START_OBJECT,
-            "Object definition could not be found for object " + objectName);
+    // read start of json object
+    checkState(json.nextToken() == START_OBJECT,
+        "JSON object data must start with a root object");
 
-        // first field name must be class and contains the type of the object
-        checkState(json.nextToken() == FIELD_NAME,
-            "No field found inside object definition; it must have at " +
-                "least one containing its type name");
+    // Iterate over object fields:
+    Set<String> multiRefObjects = null;
+    while (json.nextToken() != END_OBJECT) {
+      String objectName = json.getCurrentName();
 
-        String fieldName = json.getCurrentName();
-        checkState(fieldName.equals("class"),
-            "The first expected field must be named 'class' and contains " +
-                "the type of the object; instead it is named '" + fieldName + '\'');
+      checkState(json.nextToken() == START_OBJECT,
+          "Object definition could not be found for object " + objectName);
 
-        json.nextToken();
-        String type = json.getText();
+      // first field name must be class and contains the type of the object
+      checkState(json.nextToken() == FIELD_NAME,
+          "No field found inside object definition; it must have at " +
+              "least one containing its type name");
 
-        if (multiRefObjects == null) {
-          multiRefObjects = new HashSet<>();
-          map.singleRefObjects.add(objectName);
-        }
-        readObject(map, objectName, type, multiRefObjects, json);
+      String fieldName = json.getCurrentName();
+      checkState(fieldName.equals("class"),
+          "The first expected field must be named 'class' and contains " +
+              "the type of the object; instead it is named '" + fieldName + '\'');
+
+      json.nextToken();
+      String type = json.getText();
+
+      namer.claim(objectName);
+      if (multiRefObjects == null) {
+        multiRefObjects = new HashSet<>();
+        map.singleRefObjects.add(objectName);
       }
-      return map;
+      readObject(map, objectName, type, multiRefObjects, namer, symbols, json);
     }
+    return map;
   }
 
-  private void readObject(Mapped map, String objectName, String type, Set<String> multiRefObjects, JsonParser json) throws IOException {
-    map.types.put(objectName, type);
+  private static void readObject(Mapped map, String objectName, String type, Set<String> multiRefObjects, InlineNamer namer, SymbolTable symbols, JsonParser json) throws IOException {
+    map.types.put(objectName, symbols.intern(canonical(type)));
     Map<String, String> object = new LinkedHashMap<>();
     map.objects.put(objectName, object);
 
     while (json.nextToken() != END_OBJECT) {
-      String fieldName = json.getCurrentName();
+      String fieldName = symbols.intern(json.getCurrentName());
       if (json.nextToken() == START_OBJECT) {
         // first field name must be class and contains the type of the object
         checkState(json.nextToken() == FIELD_NAME,
@@ -90,10 +111,9 @@ public class JsonSerializer extends AbstractSerializerWriter {
         json.nextToken();
         String valueType = json.getText();
 
-        String valueObjectName = uniqueObjectName(object, fieldName, map.objects.keySet());
-        map.singleRefObjects.add(valueObjectName);
-        readObject(map, valueObjectName, valueType, multiRefObjects, json);
+        String valueObjectName = namer.name(object, fieldName);
         object.put(fieldName, valueObjectName);
+        readObject(map, valueObjectName, valueType, multiRefObjects, namer, symbols, json);
 
       } else {
         // read the element contents
@@ -105,6 +125,7 @@ public class JsonSerializer extends AbstractSerializerWriter {
 
           // if refers to another object, update referencing sets.
           if (text.startsWith(OBJ_NAME_PREFIX)) {
+            namer.claim(text);
             if (map.singleRefObjects.contains(text)) {
               multiRefObjects.add(text);
               map.singleRefObjects.remove(text);
@@ -119,74 +140,192 @@ public class JsonSerializer extends AbstractSerializerWriter {
   }
 
   @Override
-  protected void writeHeader(Mapped map, Writer out) throws IOException {
+  protected void writeHeader(Writer out) throws IOException {
     out.write('{');
   }
 
   @Override
-  protected void writeFooter(Mapped map, Writer out) throws IOException {
+  protected void writeFooter(Writer out) throws IOException {
     out.write(lineSeparator + '}');
   }
 
+  /**
+   * Writes the object graph rooted at the object directly as JSON, producing the same
+   * text as {@link #toText(Mapped)} on the map of the object produced by
+   * {@link Mapper#toMap(Object)}, without building that map.
+   */
+  public void write(Object root, Writer out) throws IOException {
+    write(root, out, Mapper.DEFAULT_ACCESS_STRATEGY, Mapper.DEFAULT_NAMING_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #write(Object, Writer)} but reading the fields of the objects with
+   * the supplied access strategy and naming them with the supplied naming strategy.
+   * The text produced is the same as the one produced from the map of the object
+   * graph produced with the same strategies, provided that names are deterministic,
+   * as with {@link NamingStrategy#COUNTER}.
+   */
+  public void write(Object root, Writer out, AccessStrategy strategy, NamingStrategy naming) throws IOException {
+    new JsonGraphWriter(this, strategy, naming).write(root, out);
+  }
+
+  /**
+   * Same as {@link #write(Object, Writer)} but writing the JSON text to the output
+   * stream in the encoding of this serializer, compressed if compression was enabled.
+   */
+  public void write(Object root, OutputStream out) throws IOException {
+    write(root, out, Mapper.DEFAULT_ACCESS_STRATEGY, Mapper.DEFAULT_NAMING_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #write(Object, OutputStream)} but reading the fields of the objects
+   * with the supplied access strategy and naming them with the supplied naming
+   * strategy, as {@link #write(Object, Writer, AccessStrategy, NamingStrategy)}.
+   */
+  public void write(Object root, OutputStream out, AccessStrategy strategy, NamingStrategy naming) throws IOException {
+    OutputStream stream = compress(out);
+    Writer writer = writer(stream);
+    write(root, writer, strategy, naming);
+    release(writer);
+    finish(stream);
+  }
+
+  /**
+   * Reconstructs the object graph directly from the JSON text produced by this
+   * serializer, producing the same graph as {@link Mapper#fromMap(Mapped)} on the map
+   * read by {@link #toMap(Reader)}, without building that map. Objects are created
+   * as their definitions are read and references to objects defined further in the
+   * text are set once these are defined.
+   */
+  public Object read(Reader in) throws IOException {
+    return read(in, Mapper.DEFAULT_ACCESS_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #read(Reader)} but creating the objects and writing their fields
+   * with the supplied access strategy.
+   */
+  public Object read(Reader in, AccessStrategy strategy) throws IOException {
+    try (JsonParser json = new JsonFactory().createParser(in)) {
+      return new JsonGraphReader(strategy).read(json);
+    }
+  }
+
+  /**
+   * Same as {@link #read(Reader)} but reading the JSON text from the input stream in
+   * the encoding of this serializer, decompressing it if compression was enabled.
+   * Text in UTF-8 is parsed directly from its bytes.
+   */
+  public Object read(InputStream in) throws IOException {
+    return read(in, Mapper.DEFAULT_ACCESS_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #read(InputStream)} but creating the objects and writing their
+   * fields with the supplied access strategy.
+   */
+  public Object read(InputStream in, AccessStrategy strategy) throws IOException {
+    if (!encoding.equals(StandardCharsets.UTF_8)) {
+      Reader reader = reader(in);
+      Object root = read(reader, strategy);
+      release(reader);
+      return root;
+    }
+    try (JsonParser json = parser(in)) {
+      return new JsonGraphReader(strategy).read(json);
+    }
+  }
+
+  /**
+   * A parser of the JSON text in UTF-8 in the input stream, decompressing it if
+   * compression was enabled, which does not close the stream.
+   */
+  private JsonParser parser(InputStream in) throws IOException {
+    return new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+                            .createParser(compression == null ? in : compression.decompress(in));
+  }
+
   @Override
-  protected void writeObjectStart(Mapped map, Writer out,
-                                  String name, String type,
-                                  String indent, Map<String, String> object,
-                                  boolean first) throws IOException {
+  protected void writeObjectStart(Writer out, String name, String type, String indent, boolean first) throws IOException {
     if (!first) {
       out.write(',');
     }
-    out.write(lineSeparator + indent + '"' + name + "\": {" + lineSeparator);
-    out.write(indent + indent + "\"class\": \"" + type + '"');
+    out.write(lineSeparator);
+    out.write(indent);
+    out.write('"');
+    out.write(name);
+    out.write("\": {");
+    out.write(lineSeparator);
+    out.write(indentation(indent, 2));
+    out.write("\"class\": \"");
+    out.write(type);
+    out.write('"');
   }
 
   @Override
-  protected void writeObjectEnd(Mapped map, Writer out,
-                                String name, String type,
-                                String indent, Map<String, String> object,
-                                boolean first) throws IOException {
-    out.write(lineSeparator + indent + '}');
+  protected void writeObjectEnd(Writer out, String name, String indent) throws IOException {
+    out.write(lineSeparator);
+    out.write(indent);
+    out.write('}');
   }
 
   @Override
-  protected void writeObject(Mapped map,
-                             Writer out,
-                             String name,
-                             String type,
-                             String indent,
-                             Map<String, String> object,
-                             boolean first,
-                             Set<String> written,
-                             int level) throws IOException {
-    written.add(name);
-    String indentation = repeat(indent, level);
-    for (Entry<String, String> field : object.entrySet()) {
-      String fieldName = field.getKey();
-      String value = field.getValue();
-      out.write(',' + lineSeparator);
-      if (value == null) {
-        out.write(indentation + '"' + fieldName + "\": null");
-
-      } else if (inlineSingleRefObjects && value.startsWith(OBJ_NAME_PREFIX) &&
-          map.singleRefObjects.contains(value) && map.objects.containsKey(value)) {
-
-        out.write(indentation + '"' + fieldName + "\": {" + lineSeparator);
-        out.write(indentation + indent + "\"class\": \"" + map.types.get(value) + '"');
-        writeObject(map, out, value, map.types.get(value), indent, map.objects.get(value), false, written, level + 1);
-        out.write(lineSeparator + indentation + '}');
-
-      } else {
-        out.write(indentation + '"' + fieldName + "\": \"" + escapeText(value) + '"');
-      }
+  protected void writeField(Writer out, String fieldName, String value,
+                            String indent, String indentation) throws IOException {
+    out.write(',');
+    out.write(lineSeparator);
+    out.write(indentation);
+    out.write('"');
+    out.write(fieldName);
+    if (value == null) {
+      out.write("\": null");
+    } else {
+      out.write("\": \"");
+      writeEscaped(out, value);
+      out.write('"');
     }
   }
 
-  static String escapeText(String text) {
-    return backSlash.replaceFrom(
-        doubleQuote.replaceFrom(text, "\\\""),
-        "\\\\");
+  @Override
+  protected void writeInlineStart(Writer out, String fieldName, String type,
+                                  String indent, String indentation) throws IOException {
+    out.write(',');
+    out.write(lineSeparator);
+    out.write(indentation);
+    out.write('"');
+    out.write(fieldName);
+    out.write("\": {");
+    out.write(lineSeparator);
+    out.write(indentation);
+    out.write(indent);
+    out.write("\"class\": \"");
+    out.write(type);
+    out.write('"');
   }
 
-  private static final CharMatcher doubleQuote = CharMatcher.is('"');
-  private static final CharMatcher backSlash = CharMatcher.is('\\');
-}
\ No newline at end of file
+  @Override
+  protected void writeInlineEnd(Writer out, String fieldName,
+                                String indent, String indentation) throws IOException {
+    out.write(lineSeparator);
+    out.write(indentation);
+    out.write('}');
+  }
+
+  /**
+   * Writes the text with its double quotes and backslashes escaped, copying the runs of
+   * characters between them directly to the writer.
+   */
+  static void writeEscaped(Writer out, String text) throws IOException {
+    int start = 0;
+    for (int i = 0, length = text.length(); i < length; i++) {
+      char c = text.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.write(text, start, i - start);
+        out.write('\\');
+        out.write(c);
+        start = i + 1;
+      }
+    }
+    out.write(text, start, text.length() - start);
+  }
+}
@@ -34,6 +34,9 @@ public class JsonSerializerBuilder extends AbstractSerializerBuilder<JsonSeriali
     json.lineSeparator = lineSeparator;
     json.encoding = encoding;
     json.inlineSingleRefObjects = inlineSingleRefObjects;
+    json.namingStrategy = namingStrategy;
+    json.symbolTable = symbolTable;
+    json.compression = compression;
     return json;
   }
 
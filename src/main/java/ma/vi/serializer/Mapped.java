@@ -50,6 +50,17 @@ public class Mapped {
     this.types = types;
     this.objects = objects;
     this.singleRefObjects = singleRefObjects;
+    this.frozen = null;
+  }
+
+  /**
+   * Internal constructor of a frozen map, whose maps are views of the frozen storage.
+   */
+  private Mapped(FrozenMapped frozen) {
+    this.types = frozen.types;
+    this.objects = frozen.objects;
+    this.singleRefObjects = frozen.singleRefObjects;
+    this.frozen = frozen;
   }
 
   /**
@@ -61,6 +72,34 @@ public class Mapped {
     return new Mapped(objects, types, singleRefObjects);
   }
 
+  /**
+   * Adds an object without fields, returning the map to which its fields are added;
+   * each field is put once.
+   */
+  Map<String, String> newObject(String name, int fieldCount) {
+    Map<String, String> object = new LinkedHashMap<>(CollectionHandler.capacity(fieldCount));
+    objects.put(name, object);
+    return object;
+  }
+
+  /**
+   * Returns an immutable copy of this map in a compact form where the objects of the
+   * same type, with the same fields, share a single array of field names and the
+   * values of all objects are held in a single flat array. The maps of the frozen copy
+   * cannot be modified and can be read concurrently from several threads. Returns this
+   * map if it is already frozen.
+   */
+  public Mapped freeze() {
+    return frozen == null ? new Mapped(new FrozenMapped(this)) : this;
+  }
+
+  /**
+   * True if this map was produced by {@link #freeze()}.
+   */
+  public boolean isFrozen() {
+    return frozen != null;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -89,4 +128,9 @@ public class Mapped {
         ", singleRefObjects=" + singleRefObjects +
         '}';
   }
+
+  /**
+   * The compact storage of a frozen map, or null if this map is mutable.
+   */
+  private final FrozenMapped frozen;
 }
@@ -4,11 +4,10 @@
 
 package ma.vi.serializer;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.collect.MapMaker;
 import ma.vi.base.reflect.Dissector;
 import ma.vi.base.tuple.T2;
+import ma.vi.serializer.NamingStrategy.Namer;
 
 import java.io.Externalizable;
 import java.io.ObjectInputStream;
@@ -16,18 +15,22 @@ import java.io.ObjectOutputStream;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
-import static java.lang.Integer.parseInt;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.reflect.Modifier.*;
 import static java.util.Collections.singletonMap;
 import static ma.vi.base.lang.Errors.unchecked;
 import static ma.vi.base.lang.Literal.*;
 import static ma.vi.base.lang.Names.toIdentifier;
 import static ma.vi.base.lang.Names.uniqueRandomName;
-import static ma.vi.base.lang.UnsafeLoader.unsafe;
 import static ma.vi.base.reflect.Classes.*;
 import static ma.vi.base.string.Strings.uncapFirst;
-import static org.apache.commons.lang3.StringUtils.countMatches;
 
 /**
  * <p>
@@ -224,11 +227,90 @@ public class Mapper {
    * map for each object mapped to its name.
    */
   public static Mapped toMap(Object object) {
+    return toMap(object, DEFAULT_ACCESS_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #toMap(Object)} but reading the fields of the objects in the graph
+   * with the supplied access strategy.
+   */
+  public static Mapped toMap(Object object, AccessStrategy strategy) {
+    return toMap(object, strategy, DEFAULT_NAMING_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #toMap(Object, AccessStrategy)} but naming the objects in the graph
+   * with the supplied naming strategy.
+   */
+  public static Mapped toMap(Object object, AccessStrategy strategy, NamingStrategy naming) {
     Mapped map = new Mapped();
-    _toMap(object, new HashSet<>(), map, new IdentityHashMap<>());
+    _toMap(object, newNamer(naming, map), map, new IdentityTable(), SymbolTable.unshared(), strategy);
+    return map;
+  }
+
+  /**
+   * Same as {@link #toMap(Object)} but mapping the object graph into the supplied empty
+   * map, such as an {@link OffHeapMapped}, which is returned.
+   */
+  public static <M extends Mapped> M toMap(Object object, M map) {
+    return toMap(object, map, DEFAULT_ACCESS_STRATEGY, DEFAULT_NAMING_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #toMap(Object, Mapped)} but using the supplied access and naming
+   * strategies.
+   */
+  public static <M extends Mapped> M toMap(Object object, M map, AccessStrategy strategy, NamingStrategy naming) {
+    checkArgument(map.objects.isEmpty(), "Object graph must be mapped into an empty map");
+    _toMap(object, newNamer(naming, map), map, new IdentityTable(), SymbolTable.unshared(), strategy);
     return map;
   }
 
+  /**
+   * Same as {@link #toMap(Object)} but traversing independent parts of the object graph
+   * in parallel on the supplied pool, which sets the parallelism of the mapping. A task
+   * splits its pending objects with a new task after mapping at least minSubgraphSize
+   * objects; graphs smaller than this are thus mapped by a single task. The objects
+   * are named by the naming strategy in the order in which the tasks reach them, which
+   * varies between runs: the root object is named first and is the first in the
+   * resulting map, but the names of the other objects (including the values of the
+   * counters of the COUNTER strategy) and their order in the map are not deterministic.
+   */
+  public static Mapped toMap(Object object, ForkJoinPool pool, int minSubgraphSize) {
+    return toMap(object, DEFAULT_ACCESS_STRATEGY, DEFAULT_NAMING_STRATEGY, pool, minSubgraphSize);
+  }
+
+  /**
+   * Same as {@link #toMap(Object, ForkJoinPool, int)} but using the supplied access
+   * and naming strategies.
+   */
+  public static Mapped toMap(Object object,
+                             AccessStrategy strategy,
+                             NamingStrategy naming,
+                             ForkJoinPool pool,
+                             int minSubgraphSize) {
+    checkNotNull(pool, "Fork/join pool must not be null");
+    checkArgument(minSubgraphSize > 0, "Minimum subgraph size must be positive");
+    return new ParallelMapper(strategy, naming, pool, minSubgraphSize).toMap(object);
+  }
+
+  /**
+   * Maps the object graph to an {@link IndexedMapped}, where objects are identified
+   * by their position in the graph and references are held as such, instead of
+   * as names.
+   */
+  public static IndexedMapped toIndexedMap(Object object) {
+    return toIndexedMap(object, DEFAULT_ACCESS_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #toIndexedMap(Object)} but reading the fields of the objects in the
+   * graph with the supplied access strategy.
+   */
+  public static IndexedMapped toIndexedMap(Object object, AccessStrategy strategy) {
+    return new IndexedMapper(strategy).toMap(object);
+  }
+
   /**
    * Reconstruct an object graph from the types and flattened map produced by the
    * {@link #toMap(Object)} methods.
@@ -243,10 +325,126 @@ public class Mapper {
    * map is reconstructed.
    */
   public static Object fromMap(String objectName, Mapped mapped) {
+    return fromMap(objectName, mapped, DEFAULT_ACCESS_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #fromMap(String, Mapped)} but creating the objects and writing their
+   * fields with the supplied access strategy.
+   */
+  public static Object fromMap(String objectName, Mapped mapped, AccessStrategy strategy) {
     if (objectName == null) {
       objectName = mapped.objects.isEmpty() ? "unknown" : mapped.objects.keySet().iterator().next();
     }
-    return _fromMap(objectName, mapped, new IdentityHashMap<>());
+    return _fromMap(objectName, mapped, new HashMap<>(), strategy);
+  }
+
+  /**
+   * Same as {@link #fromMap(Mapped)} but reconstructing the objects in parallel on the
+   * supplied pool, which sets the parallelism of the reconstruction. All the objects in
+   * the map are first created, and then their fields set, in partitions of at least
+   * minPartitionSize objects each, references between objects being resolved from the
+   * instances created in the first phase. The graph reconstructed, including shared
+   * references and cycles, is the same as the one reconstructed sequentially.
+   *
+   * <p>
+   * Immutable collections, such as those created by {@link List#of}, {@link Set#of}
+   * and {@link Map#of}, can only be built once their elements have been reconstructed,
+   * before the objects referring to them. A graph containing any of them is therefore
+   * reconstructed entirely sequentially, on the calling thread, as by
+   * {@link #fromMap(String, Mapped, AccessStrategy)}.
+   */
+  public static Object fromMap(Mapped mapped, ForkJoinPool pool, int minPartitionSize) {
+    return fromMap(null, mapped, DEFAULT_ACCESS_STRATEGY, pool, minPartitionSize);
+  }
+
+  /**
+   * Reconstructs the object graph from its indexed map, whose first object is the root,
+   * resolving references by id.
+   */
+  public static Object fromMap(IndexedMapped mapped) {
+    return fromMap(mapped, DEFAULT_ACCESS_STRATEGY);
+  }
+
+  /**
+   * Same as {@link #fromMap(IndexedMapped)} but creating the objects and writing their
+   * fields with the supplied access strategy.
+   */
+  public static Object fromMap(IndexedMapped mapped, AccessStrategy strategy) {
+    return new IndexedUnmapper(mapped, strategy).fromMap();
+  }
+
+  /**
+   * Same as {@link #fromMap(Mapped, ForkJoinPool, int)} but using an explicit name for
+   * the first object of the graph and the supplied access strategy.
+   */
+  public static Object fromMap(String objectName,
+                               Mapped mapped,
+                               AccessStrategy strategy,
+                               ForkJoinPool pool,
+                               int minPartitionSize) {
+    checkNotNull(pool, "Fork/join pool must not be null");
+    checkArgument(minPartitionSize > 0, "Minimum partition size must be positive");
+    if (objectName == null) {
+      objectName = mapped.objects.isEmpty() ? "unknown" : mapped.objects.keySet().iterator().next();
+    }
+    return new ParallelUnmapper(mapped, strategy, pool, minPartitionSize).fromMap(objectName);
+  }
+
+  /**
+   * Registers the adapter for mapping the objects of exactly the class supplied to and
+   * from a single compact text, instead of through their fields.
+   */
+  public static <T> void registerAdapter(Class<T> cls, TypeAdapter<T> adapter) {
+    registerAdapter(cls, adapter, false);
+  }
+
+  /**
+   * Registers the adapter for mapping the objects of the class to and from a single
+   * compact text, instead of through their fields. If subtypes is true, the adapter is
+   * also used for the subclasses (or implementations) of the class which do not have
+   * an adapter of their own, and must thus produce a text from which the exact class
+   * of the value can be reconstructed. The adapter of each class is resolved once,
+   * with its mapping plan; as the plans of all classes are discarded when
+   * an adapter is registered, adapters should be registered before mapping.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> void registerAdapter(Class<T> cls, TypeAdapter<? super T> adapter, boolean subtypes) {
+    checkNotNull(cls, "Class to adapt must not be null");
+    checkNotNull(adapter, "Type adapter must not be null");
+    adapters.put(cls, new RegisteredAdapter((TypeAdapter<Object>)adapter, subtypes));
+    invalidatePlans();
+  }
+
+  /**
+   * Discards the mapping plans of the classes of the class loader, and the
+   * adapters registered for them, so that the mapper keeps no reference to the loader
+   * or its classes. Mapping plans are not otherwise kept beyond the lifetime
+   * of their classes; this is provided for releasing them explicitly, such as when
+   * an application is undeployed.
+   */
+  public static void evict(ClassLoader loader) {
+    checkNotNull(loader, "Class loader must not be null");
+    Set<Class<?>> classes = plannedClasses.remove(loader);
+    if (classes != null) {
+      for (ClassValue<MappingPlan> plans : classPlans) {
+        for (Class<?> cls : classes) {
+          plans.remove(cls);
+        }
+      }
+    }
+    if (adapters.keySet().removeIf(cls -> cls.getClassLoader() == loader)) {
+      invalidatePlans();
+    }
+  }
+
+  /**
+   * Removes the adapter registered for the class, if any.
+   */
+  public static void unregisterAdapter(Class<?> cls) {
+    if (adapters.remove(cls) != null) {
+      invalidatePlans();
+    }
   }
 
   /**
@@ -296,195 +494,843 @@ public class Mapper {
   public static final String OBJ_NAME_PREFIX = "obj_ref_";
 
   /**
-   * Internal method which does the mapping
+   * The access strategy used when none is specified.
+   */
+  public static final AccessStrategy DEFAULT_ACCESS_STRATEGY = AccessStrategy.GENERATED;
+
+  /**
+   * The naming strategy used when none is specified.
+   */
+  public static final NamingStrategy DEFAULT_NAMING_STRATEGY = NamingStrategy.RANDOM;
+
+  /**
+   * Returns the number of entries in mapped objects, since the program started or
+   * the count was last reset, which did not correspond to any field of the class
+   * of their object and were discarded during reconstruction.
+   */
+  public static long unknownFieldHits() {
+    return unknownFields.sum();
+  }
+
+  /**
+   * Resets the count of unknown field entries to zero.
+   */
+  public static void resetUnknownFieldHits() {
+    unknownFields.reset();
+  }
+
+  /**
+   * Returns a namer of the strategy for mapping an object graph into the (empty) map.
+   * Names are checked against the objects mapped instead of a separate set of names,
+   * except under the COUNTER strategy, whose names are unique without being checked.
+   */
+  static Namer newNamer(NamingStrategy naming, Mapped map) {
+    return naming.newNamer(naming == NamingStrategy.COUNTER ? null : map.objects.keySet());
+  }
+
+  /**
+   * Internal method which does the mapping. The object graph is traversed depth-first
+   * using an explicit stack of the objects whose fields are being mapped, so that the
+   * depth of the graph is bounded only by the available heap. The objects met are
+   * recorded, with their names and the number of references to them, in the identity
+   * table, from which the objects referred to once are derived at the end. Type strings
+   * are replaced by their canonical instances in the symbol table.
    */
   private static String _toMap(Object object,
-                               Set<String> names,
+                               Namer namer,
                                Mapped map,
-                               IdentityHashMap<Object, String> mapped) {
+                               IdentityTable mapped,
+                               SymbolTable symbols,
+                               AccessStrategy strategy) {
+    return _toMap(object, namer, map, mapped, new ArrayDeque<>(), symbols, strategy);
+  }
+
+  /**
+   * Same as {@link #_toMap(Object, Namer, Mapped, IdentityTable, SymbolTable, AccessStrategy)}
+   * but using the supplied (empty) stack, which is empty again on return.
+   */
+  static String _toMap(Object object,
+                       Namer namer,
+                       Mapped map,
+                       IdentityTable mapped,
+                       Deque<MapFrame> stack,
+                       SymbolTable symbols,
+                       AccessStrategy strategy) {
     if (object == null) {
       return null;
     } else {
-      String name = mapped.get(object);
-      if (name == null) {
-        Class cls = object.getClass();
-        String potentialName = uncapFirst(toIdentifier(cls.getSimpleName()));
-        name = uniqueObjectName(object, potentialName, names);
-        names.add(name);
-        map.singleRefObjects.add(name);
-        map.types.put(name, typeOf(object));
-        mapped.put(object, name);
-
-        if (isLiteral(cls)) {
-          // a literal is mapped to a single-entry map
-          map.objects.put(name, singletonMap(potentialName, toText(cls, object)));
-
-        } else if (cls.isArray()) {
-          // map array
-          Object[] array = (Object[]) object;
-          int length = array.length;
-          Map<String, String> objMap = new LinkedHashMap<>();
-          map.objects.put(name, objMap);
-          for (int i = 0; i < length; i++) {
-            Object v = array[i];
-            objMap.put("i" + i, v == null ? null : _toMap(v, names, map, mapped));
-          }
+      Function<Object, String> referencer = o -> reference(o, namer, map, mapped, symbols, strategy, stack);
+      String name = referencer.apply(object);
+      while (!stack.isEmpty()) {
+        mapNext(stack, referencer);
+      }
+      mapped.singleRefNames(map.singleRefObjects);
+      return name;
+    }
+  }
+
+  /**
+   * Maps the next field (or element) of the object (or array) at the top of the stack,
+   * popping it once all of its fields have been mapped. Objects referred to are named
+   * through the referencer which pushes newly discovered objects on the stack.
+   */
+  static void mapNext(Deque<MapFrame> stack, Function<Object, String> referencer) {
+    MapFrame frame = stack.peek();
+    if (frame.fields == null) {
+      // map next element of array or collection
+      Object[] elements = frame.elements;
+      if (frame.position == elements.length) {
+        stack.pop();
+      } else {
+        int i = frame.position++;
+        Object v = elements[i];
+        CollectionHandler handler = frame.handler;
+        if (handler == null) {
+          frame.objMap.put(CollectionHandler.indexKey(i), v == null ? null : referencer.apply(v));
         } else {
-          // map object
-          Map<String, String> objMap = new LinkedHashMap<>();
-          map.objects.put(name, objMap);
-
-          // map fields
-          Structure structure = classStructure.getUnchecked(cls);
-          for (Field field : structure.mappedFields)
-            try {
-              Object value = field.get(object);
-              String fName = field.getName();
-              Class fType = field.getType();
-
-              if (value == null) {
-                objMap.put(fName, null);
-              } else if (isLiteral(fType)) {
-                objMap.put(fName, toText(fType, value));
-              } else {
-                objMap.put(fName, _toMap(value, names, map, mapped));
-              }
-
-            } catch (IllegalAccessException iae) {
-              throw new RuntimeException("Could not access field " + field, iae);
-            }
+          frame.objMap.put(handler.elementKey(i),
+                           v == null ? null
+                                     : handler.isLiteral(i) ? ((CollectionHandler.LiteralElements)handler).toText(v)
+                                                            : referencer.apply(v));
         }
+      }
+    } else {
+      // map next field of object
+      if (frame.position == frame.fields.length) {
+        stack.pop();
       } else {
-        map.singleRefObjects.remove(name);
+        FieldAccessor field = frame.fields[frame.position++];
+        if (field.kind == FieldAccessor.Kind.PRIMITIVE) {
+          frame.objMap.put(field.name, field.getText(frame.object));
+        } else {
+          Object value = field.get(frame.object);
+          frame.objMap.put(field.name, value == null ? null : valueText(field, value, referencer));
+        }
       }
-      return name;
     }
   }
 
+  /**
+   * Returns the text of the non-null value of a non-primitive field according to the
+   * kind of the field: the literal text of literals, the text produced by the adapter
+   * for adapted values and the name of the object referred to for references.
+   */
+  private static String valueText(FieldAccessor field, Object value, Function<Object, String> referencer) {
+    return isReference(field, value) ? referencer.apply(value) : text(field, value);
+  }
+
+  /**
+   * True if the non-null value of a non-primitive field is mapped as a reference to
+   * another object, instead of as text.
+   */
+  static boolean isReference(FieldAccessor field, Object value) {
+    switch (field.kind) {
+      case ENUM:
+      case LITERAL:
+        return false;
+      case ADAPTED:
+        // a value of a subtype not adapted is a reference
+        return !field.adaptsSubtypes && value.getClass() != field.type;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * The text of the non-null value of a non-primitive field which is not mapped as a
+   * reference: the name of enums, the literal text of literals and the text produced
+   * by the adapter for adapted values.
+   */
+  static String text(FieldAccessor field, Object value) {
+    switch (field.kind) {
+      case ENUM:
+        return ((Enum<?>)value).name();
+      case LITERAL:
+        return toText(field.type, value);
+      default:
+        return field.adapter.toMapped(value);
+    }
+  }
+
+  /**
+   * Returns the name of a non-null object referred to in the object graph. If the
+   * object has not been mapped yet, it is named and added to the map, and, unless it
+   * is a literal, pushed on the stack for its fields or elements to be mapped.
+   * Collections with a {@link CollectionHandler} are mapped through the latter, and
+   * objects with a {@link TypeAdapter} to a single text, as literals.
+   */
+  private static String reference(Object object,
+                                  Namer namer,
+                                  Mapped map,
+                                  IdentityTable mapped,
+                                  SymbolTable symbols,
+                                  AccessStrategy strategy,
+                                  Deque<MapFrame> stack) {
+    int id = mapped.id(object);
+    String name;
+    if (id == -1) {
+      Class cls = object.getClass();
+      CollectionHandler handler = CollectionHandler.of(cls);
+      String potentialName = potentialNames.get(cls);
+      name = namer.name(object, potentialName);
+      map.types.put(name, symbols.intern(handler == null ? typeOf(object) : handler.type(object)));
+      mapped.add(object, name);
+
+      if (isLiteral(cls)) {
+        // a literal is mapped to a single-entry map
+        map.objects.put(name, singletonMap(potentialName, toText(cls, object)));
+
+      } else {
+        MappingPlan plan = cls.isArray() || handler != null ? null : plan(cls, strategy);
+        if (plan != null && plan.adapter != null) {
+          // an adapted object is mapped, like a literal, to a single-entry map
+          map.objects.put(name, singletonMap(potentialName, plan.adapter.toMapped(object)));
+
+        } else {
+          // map array, collection or object
+          Map<String, String> objMap = map.newObject(name, entryCount(object, handler, plan));
+          stack.push(frame(object, handler, plan, objMap));
+        }
+      }
+    } else {
+      mapped.reference(id);
+      name = mapped.name(id);
+    }
+    return name;
+  }
+
+  /**
+   * Returns the number of entries in the map of a non-literal object (or array or
+   * collection), used to size the map beforehand.
+   */
+  static int entryCount(Object object, CollectionHandler handler, MappingPlan plan) {
+    return plan != null    ? plan.slots.length
+         : handler != null ? handler.entryCount(object)
+         :                   Array.getLength(object);
+  }
+
+  /**
+   * Returns the frame for mapping the fields (or elements) of a non-literal object
+   * (or array or handled collection) to its map. The plan of the class of the
+   * object is supplied for objects, and the handler for collections; both are null
+   * for arrays. The entries describing a collection itself, such as its size, are
+   * added to its map before its elements.
+   */
+  static MapFrame frame(Object object,
+                        CollectionHandler handler,
+                        MappingPlan plan,
+                        Map<String, String> objMap) {
+    if (plan != null) {
+      return new MapFrame(object, objMap, plan.slots);
+    } else if (handler != null) {
+      handler.mapHeader(object, objMap);
+      return new MapFrame(object, objMap, handler.elements(object), handler);
+    } else {
+      return new MapFrame(object, objMap, (Object[])object, null);
+    }
+  }
+
+  /**
+   * An object (or array or collection) on the mapping stack with the position of
+   * the next field (or element) to map.
+   */
+  static class MapFrame {
+    MapFrame(Object object, Map<String, String> objMap, FieldAccessor[] fields) {
+      this.object = object;
+      this.objMap = objMap;
+      this.fields = fields;
+      this.elements = null;
+      this.handler = null;
+    }
+
+    MapFrame(Object object, Map<String, String> objMap, Object[] elements, CollectionHandler handler) {
+      this.object = object;
+      this.objMap = objMap;
+      this.fields = null;
+      this.elements = elements;
+      this.handler = handler;
+    }
+
+    final Object object;
+    final Map<String, String> objMap;
+
+    /**
+     * The fields to map; null when the object is an array or a collection.
+     */
+    final FieldAccessor[] fields;
+
+    /**
+     * The elements to map of an array or collection; null for other objects.
+     */
+    final Object[] elements;
+
+    /**
+     * The handler of the collection; null for arrays and other objects.
+     */
+    final CollectionHandler handler;
+
+    int position;
+  }
+
   /**
    * Internal map method which reconstructs object from its map and types information.
+   * Objects are created as soon as they are first referred to and pushed on an explicit
+   * stack from which they are taken, in turn, for their fields to be set, thus the
+   * depth of the reconstructed graph is bounded only by the available heap. Handled
+   * collections are filled once all other objects have been populated.
+   * <p>
+   * Immutable collections can only be built once their elements have been fully
+   * reconstructed. An immutable collection referred to before it is built is thus
+   * reconstructed in a scope of its own, stacked on the current one, with a stack of
+   * its own for its elements and the objects they refer to; it is built when that
+   * stack is exhausted and its collections filled, after which the object which
+   * referred to it is populated again.
    */
-  private static Object _fromMap(String objectName, Mapped mapped, Map<String, Object> unmapped) {
-    Object instance = unmapped.get(objectName);
-    if (instance == null) {
-      Map<String, String> map = mapped.objects.get(objectName);
-      if (map != null) try {
-        String type = mapped.types.get(objectName);
-        int pos = type.indexOf('[');
-        if (pos != -1) {
-          // for array types, the type will be in the form type[x][][].... where type is
-          // component type and x is the length of the first dimension. The length of the
-          // other dimensions are not specified.
-          Class<?> componentType = classOf(type.substring(0, pos));
-          if (isLiteral(componentType)) {
-            String value = map.values().iterator().next();
-            instance = toValue(classOf(type), value);
-            unmapped.put(objectName, instance);
+  private static Object _fromMap(String objectName,
+                                 Mapped mapped,
+                                 Map<String, Object> unmapped,
+                                 AccessStrategy strategy) {
+    Deque<UnmapScope> scopes = new ArrayDeque<>();
+    scopes.push(new UnmapScope(null, null));
+    Function<String, Object> resolver = name -> instance(name, mapped, unmapped, strategy, scopes.peek());
+    resolver.apply(objectName);
+    while (!scopes.isEmpty()) {
+      UnmapScope scope = scopes.peek();
+      if (scope.pending != null) {
+        UnmapScope collection = scope.pending;
+        scope.pending = null;
+        unmapped.put(collection.name, UNDER_CONSTRUCTION);
+        collection.stack.push(collection.collection);
+        scopes.push(collection);
+
+      } else if (!scope.stack.isEmpty()) {
+        UnmapFrame frame = scope.stack.pop();
+        if (frame.handler == null) {
+          populate(frame.instance, frame.map, frame.plan, frame.arrayType, resolver);
+        } else if (frame.handler.immutable()) {
+          // the immutable collection of the scope: reconstruct its elements
+          frame.handler.elements(frame.map, resolver);
+        } else {
+          // resolve the elements of collections now but add them to the collection
+          // only once all objects have been populated, as they could be hashed.
+          frame.elements = frame.handler.elements(frame.map, resolver);
+          if (scope.pending == null) {
+            scope.collections.add(frame);
+          }
+        }
+        if (scope.pending != null) {
+          // referred to an immutable collection not built yet: process again once built
+          scope.stack.push(frame);
+        }
+
+      } else {
+        // fill collections in reverse order of discovery so that collections contained
+        // in others are filled before the latter.
+        for (int i = scope.collections.size() - 1; i >= 0; i--) {
+          UnmapFrame frame = scope.collections.get(i);
+          ((CollectionHandler.Mutable)frame.handler).fill(frame.instance, frame.elements);
+        }
+        scopes.pop();
+        if (scope.collection != null) {
+          UnmapFrame frame = scope.collection;
+          unmapped.put(scope.name, ((CollectionHandler.Immutable)frame.handler).build(
+              frame.map, frame.handler.elements(frame.map, resolver)));
+        }
+      }
+    }
+    return unmapped.get(objectName);
+  }
 
+  /**
+   * Sets the fields (or elements) of the object (or array) created by {@link #allocate}
+   * from its map. The plan is that of the class of the object, and is null when
+   * the instance is an array, in which case the array type must be supplied. Objects
+   * referred to are obtained by name from the resolver.
+   */
+  static void populate(Object instance,
+                       Map<String, String> map,
+                       MappingPlan plan,
+                       TypeDescriptor arrayType,
+                       Function<String, Object> resolver) {
+    try {
+      if (plan == null) {
+        // populate array
+        int length = Array.getLength(instance);
+        for (int i = 0; i < length; i++) {
+          String value = map.get(CollectionHandler.indexKey(i));
+          if (value == null) {
+            Array.set(instance, i, null);
+          } else if (arrayType.dimensions > 1 || !arrayType.isLiteral()) {
+            Array.set(instance, i, resolver.apply(value));
           } else {
-            int dimensions = countMatches(type, '[');
-            int length = parseInt(type.substring(pos + 1, type.indexOf(']', pos + 1)));
-            int[] lengths = new int[dimensions];
-            lengths[0] = length;
-            instance = Array.newInstance(componentType, lengths);
-            unmapped.put(objectName, instance);
-
-            // map array
-            boolean literalComponentType = isLiteral(componentType);
-            for (int i = 0; i < length; i++) {
-              String value = map.get("i" + i);
-              if (value == null) {
-                Array.set(instance, i, null);
-              } else if (dimensions > 1 || !literalComponentType) {
-                Array.set(instance, i, _fromMap(value, mapped, unmapped));
-              } else {
-                Array.set(instance, i, instanceOf(componentType, T2.of(value, String.class)));
-              }
-            }
+            Array.set(instance, i, instanceOf(arrayType.componentType(), T2.of(value, String.class)));
           }
-        } else {
-          Class<?> cls = classOf(type);
-          if (isLiteral(cls)) {
-            // literal are constructed using their default constructor taking a string value
-            instance = toValue(cls, map.values().iterator().next());
-            unmapped.put(objectName, instance);
+        }
+      } else {
+        // populate object: entries are usually in the order of the slots of the plan,
+        // which is tried before looking up the field by name.
+        FieldAccessor[] slots = plan.slots;
+        int slot = 0;
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+          String fieldName = entry.getKey();
+          String value = entry.getValue();
 
+          FieldAccessor field;
+          if (slot < slots.length && slots[slot].name.equals(fieldName)) {
+            field = slots[slot++];
+          } else {
+            field = plan.setters.get(fieldName);
+          }
+          if (field == null) {
+            // no such field in class: discard
+            unknownFields.increment();
+          } else if (value == null) {
+            field.set(instance, null);
           } else {
-            instance = unsafe().allocateInstance(cls);
-            unmapped.put(objectName, instance);
-            for (Map.Entry<String, String> entry : map.entrySet()) {
-              String fieldName = entry.getKey();
-              String value = entry.getValue();
-
-              Optional<Field> f = Dissector.field(cls, fieldName);
-              if (f.isPresent()) {
-                Field field = f.get();
-                field.setAccessible(true);
-                Class fieldType = field.getType();
-
-                if (value == null) {
-                  field.set(instance, null);
-                } else if (isLiteral(fieldType)) {
-                  field.set(instance, toValue(fieldType, value));
-                } else {
-                  field.set(instance, _fromMap(value, mapped, unmapped));
-                }
-              }
+            setText(instance, field, value, resolver);
+          }
+        }
+      }
+    } catch (Exception e) {
+      throw unchecked(e);
+    }
+  }
+
+  /**
+   * True if the non-null text of the value of the field is the name of the object
+   * it refers to, as resolved by {@link #setText}.
+   */
+  static boolean isReference(FieldAccessor field, String value) {
+    switch (field.kind) {
+      case PRIMITIVE:
+      case ENUM:
+      case LITERAL:
+        return false;
+      case ADAPTED:
+        return !field.adaptsSubtypes && value.startsWith(OBJ_NAME_PREFIX);
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * Sets the field of the object from the non-null text of its value according to
+   * the kind of the field, obtaining referred objects by name from the resolver.
+   */
+  static void setText(Object instance,
+                      FieldAccessor field,
+                      String value,
+                      Function<String, Object> resolver) throws Exception {
+    switch (field.kind) {
+      case PRIMITIVE:
+        field.setText(instance, value);
+        break;
+      case ENUM:
+        field.set(instance, Enum.valueOf((Class)field.type, value));
+        break;
+      case LITERAL:
+        field.set(instance, toValue(field.type, value));
+        break;
+      case ADAPTED:
+        if (field.adaptsSubtypes || !value.startsWith(OBJ_NAME_PREFIX)) {
+          field.set(instance, field.adapter.fromMapped(value));
+          break;
+        }
+        // a value of a subtype not adapted is a reference
+      default:
+        field.set(instance, resolver.apply(value));
+    }
+  }
+
+  /**
+   * Counts an entry of a mapped object not corresponding to any field of its class.
+   */
+  static void unknownField() {
+    unknownFields.increment();
+  }
+
+  /**
+   * Returns the instance for the named object, creating it if it has not been
+   * created yet. New arrays, collections and objects are pushed on the stack of the
+   * scope for their elements and fields to be set. Immutable collections which have
+   * not been built yet are instead set as pending in the scope, to be built in a
+   * scope of their own, and null is returned for them.
+   */
+  private static Object instance(String objectName,
+                                 Mapped mapped,
+                                 Map<String, Object> unmapped,
+                                 AccessStrategy strategy,
+                                 UnmapScope scope) {
+    Object instance = unmapped.get(objectName);
+    if (instance == UNDER_CONSTRUCTION) {
+      throw new IllegalStateException("Immutable collection " + objectName + " is part of a cycle " +
+                                      "and cannot be reconstructed");
+    } else if (instance == null) {
+      Map<String, String> map = mapped.objects.get(objectName);
+      if (map != null) {
+        TypeDescriptor type = TypeDescriptor.of(mapped.types.get(objectName));
+        CollectionHandler handler = type.isArray() ? null : CollectionHandler.of(type.type(), map);
+        if (handler != null && handler.immutable()) {
+          if (scope.pending == null) {
+            scope.pending = new UnmapScope(objectName, new UnmapFrame(null, map, handler));
+          }
+        } else {
+          instance = allocate(type, map, strategy);
+          unmapped.put(objectName, instance);
+          Deque<UnmapFrame> stack = scope.stack;
+          if (handler != null) {
+            stack.push(new UnmapFrame(instance, map, handler));
+          } else if (type.isArray()) {
+            if (!type.isLiteral()) {
+              stack.push(new UnmapFrame(instance, map, type));
+            }
+          } else if (!type.isLiteral()) {
+            MappingPlan plan = plan(type.type(), strategy);
+            if (plan.adapter == null) {
+              stack.push(new UnmapFrame(instance, map, plan));
             }
           }
         }
-      } catch (Exception e) {
-        throw unchecked(e);
       }
     }
     return instance;
   }
 
   /**
-   * Structure holding the fields to map for every class.
+   * Creates the instance of a mapped object of the given type. Literals (including
+   * arrays of literals) are created with their value; arrays are created with the
+   * length of their first dimension, handled collections empty but pre-sized and
+   * objects without running their constructors, to be populated afterwards by
+   * {@link #populate} (or filled, for collections, by their handler). Objects with
+   * a {@link TypeAdapter} are created by the latter from their text.
+   */
+  static Object allocate(TypeDescriptor type, Map<String, String> map, AccessStrategy strategy) {
+    try {
+      if (type.isLiteral()) {
+        // literal are constructed using their default constructor taking a string value
+        return type.toValue(map.values().iterator().next());
+
+      } else if (type.isArray()) {
+        // for array types, the type will be in the form type[x][][].... where type is
+        // component type and x is the length of the first dimension. The length of the
+        // other dimensions are not specified.
+        int[] lengths = new int[type.dimensions];
+        lengths[0] = type.length;
+        return Array.newInstance(type.componentType(), lengths);
+
+      } else {
+        Class<?> cls = type.type();
+        CollectionHandler handler = CollectionHandler.of(cls, map);
+        if (handler != null) {
+          return ((CollectionHandler.Mutable)handler).allocate(cls, map);
+        } else {
+          MappingPlan plan = plan(cls, strategy);
+          return plan.adapter != null
+                 ? plan.adapter.fromMapped(map.values().iterator().next())
+                 : plan.instantiator.newInstance();
+        }
+      }
+    } catch (Exception e) {
+      throw unchecked(e);
+    }
+  }
+
+  /**
+   * Marks, in the table of reconstructed objects, the immutable collections whose
+   * elements are being reconstructed.
+   */
+  private static final Object UNDER_CONSTRUCTION = new Object();
+
+  /**
+   * A created object (or array or collection) on the reconstruction stack waiting
+   * for its fields (or elements) to be set.
+   */
+  private static class UnmapFrame {
+    UnmapFrame(Object instance, Map<String, String> map, MappingPlan plan) {
+      this.instance = instance;
+      this.map = map;
+      this.plan = plan;
+      this.arrayType = null;
+      this.handler = null;
+    }
+
+    UnmapFrame(Object instance, Map<String, String> map, TypeDescriptor arrayType) {
+      this.instance = instance;
+      this.map = map;
+      this.plan = null;
+      this.arrayType = arrayType;
+      this.handler = null;
+    }
+
+    UnmapFrame(Object instance, Map<String, String> map, CollectionHandler handler) {
+      this.instance = instance;
+      this.map = map;
+      this.plan = null;
+      this.arrayType = null;
+      this.handler = handler;
+    }
+
+    final Object instance;
+    final Map<String, String> map;
+
+    /**
+     * The plan of the object; null when the instance is an array.
+     */
+    final MappingPlan plan;
+
+    /**
+     * The type of the array; null when the instance is not an array.
+     */
+    final TypeDescriptor arrayType;
+
+    /**
+     * The handler of the collection; null when the instance is not a handled collection.
+     */
+    final CollectionHandler handler;
+
+    /**
+     * The reconstructed elements of the collection, waiting to be added to it.
+     */
+    Object[] elements;
+  }
+
+  /**
+   * The objects being reconstructed for the root object or, in a scope of its own,
+   * for an immutable collection whose elements must be fully reconstructed before
+   * it is built.
+   */
+  private static class UnmapScope {
+    UnmapScope(String name, UnmapFrame collection) {
+      this.name = name;
+      this.collection = collection;
+    }
+
+    /**
+     * The name of the immutable collection; null for the scope of the root object.
+     */
+    final String name;
+
+    /**
+     * The frame of the immutable collection, reconstructing its elements; null for
+     * the scope of the root object.
+     */
+    final UnmapFrame collection;
+
+    final Deque<UnmapFrame> stack = new ArrayDeque<>();
+    final List<UnmapFrame> collections = new ArrayList<>();
+
+    /**
+     * The scope of an immutable collection referred to before it was built, to be
+     * reconstructed before the frame referring to it is processed again.
+     */
+    UnmapScope pending;
+  }
+
+  /**
+   * The plan for mapping the objects of a class, compiled once per class and access
+   * strategy: the slots of the fields to map, in order, each with its accessor and the
+   * {@link FieldAccessor.Kind} of its values resolved beforehand, the instantiator
+   * for the class and the adapter of the class, if any.
    */
-  private static class Structure {
-    Structure(Class<?> cls, Field[] mappedFields) {
+  static class MappingPlan {
+    MappingPlan(Class<?> cls,
+                FieldAccessor[] slots,
+                Map<String, FieldAccessor> setters,
+                Instantiator instantiator,
+                TypeAdapter<Object> adapter) {
       this.cls = cls;
-      this.mappedFields = mappedFields;
+      this.slots = slots;
+      this.setters = setters;
+      this.instantiator = instantiator;
+      this.adapter = adapter;
     }
 
     final Class<?> cls;
-    final Field[] mappedFields;
-  }
-
-  /**
-   * Cache of class mapping structures.
-   */
-  private static final LoadingCache<Class<?>, Structure> classStructure =
-      CacheBuilder.newBuilder().build(new CacheLoader<>() {
-        @Override
-        public Structure load(Class<?> cls) {
-          // check if object implements its own Java serialization protocol. For those
-          // objects which do, we need to serialize transients as not serializing them
-          // makes it impossible to reconstruct certain objects such as HashMaps. HashMaps,
-          // for example, uses a transient array which it serializes outside of the
-          // serialization protocol using the writeObject method. Since we are aiming for
-          // independence from the serialization format, we cannot support such a custom
-          // method at this level (at least not in its current form). Instead, we just
-          // serialize everything and hope for the best.
-          boolean bypassProtocol =
-              Dissector.method(cls, "writeObject", ObjectOutputStream.class).isPresent() ||
-                  Dissector.method(cls, "readObject", ObjectInputStream.class).isPresent() ||
-                  Externalizable.class.isAssignableFrom(cls);
-
-          // get all fields to mapped
-          List<Field> fields = new ArrayList<>();
-          for (Field field : Dissector.fields(cls).values()) {
-            int fieldModifiers = field.getModifiers();
-            if ((bypassProtocol && !(isFinal(fieldModifiers) && isStatic(fieldModifiers))) ||
-                (!isTransient(fieldModifiers) &&
-                    !(isFinal(fieldModifiers) && isStatic(fieldModifiers)))) {
-              field.setAccessible(true);
-              fields.add(field);
-            }
+
+    /**
+     * The slots of the fields to map, in order.
+     */
+    final FieldAccessor[] slots;
+
+    /**
+     * Accessors of all the fields which can be set during reconstruction, by name.
+     * This includes the mapped fields as well as the others (such as transients)
+     * which could be set from a mapped representation modified externally.
+     */
+    final Map<String, FieldAccessor> setters;
+
+    final Instantiator instantiator;
+
+    /**
+     * The adapter mapping the objects of the class to and from text; null if the
+     * objects are mapped through their fields.
+     */
+    final TypeAdapter<Object> adapter;
+  }
+
+  /**
+   * Returns the mapping plan of the class for the access strategy.
+   */
+  static MappingPlan plan(Class<?> cls, AccessStrategy strategy) {
+    return classPlans[strategy.ordinal()].get(cls);
+  }
+
+  /**
+   * The name, derived from the simple class name, proposed for the objects of each class.
+   */
+  static final ClassValue<String> potentialNames = new ClassValue<>() {
+    @Override
+    protected String computeValue(Class<?> cls) {
+      return uncapFirst(toIdentifier(cls.getSimpleName()));
+    }
+  };
+
+  /**
+   * A type adapter registered for a class, and possibly its subtypes.
+   */
+  static class RegisteredAdapter {
+    RegisteredAdapter(TypeAdapter<Object> adapter, boolean subtypes) {
+      this.adapter = adapter;
+      this.subtypes = subtypes;
+    }
+
+    final TypeAdapter<Object> adapter;
+    final boolean subtypes;
+  }
+
+  /**
+   * Returns the adapter registered for the class or, failing that, the one registered
+   * for the subtypes of its nearest superclass or interface; null if there is none.
+   */
+  static RegisteredAdapter adapterOf(Class<?> cls) {
+    if (adapters.isEmpty()) {
+      return null;
+    }
+    RegisteredAdapter adapter = adapters.get(cls);
+    if (adapter == null) {
+      Deque<Class<?>> supertypes = new ArrayDeque<>();
+      Set<Class<?>> visited = new HashSet<>();
+      supertypes.add(cls);
+      while (!supertypes.isEmpty()) {
+        Class<?> type = supertypes.poll();
+        if (visited.add(type)) {
+          RegisteredAdapter registered = adapters.get(type);
+          if (registered != null && registered.subtypes) {
+            return registered;
+          }
+          if (type.getSuperclass() != null) {
+            supertypes.add(type.getSuperclass());
           }
-          return new Structure(cls, fields.toArray(new Field[0]));
+          supertypes.addAll(Arrays.asList(type.getInterfaces()));
         }
-      });
+      }
+    }
+    return adapter;
+  }
+
+  /**
+   * Discards the mapping plans of all classes, replacing the class values holding
+   * them with new ones from which they are recomputed when next needed.
+   */
+  private static void invalidatePlans() {
+    classPlans = newClassPlans();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ClassValue<MappingPlan>[] newClassPlans() {
+    AccessStrategy[] strategies = AccessStrategy.values();
+    ClassValue<MappingPlan>[] plans = new ClassValue[strategies.length];
+    for (AccessStrategy strategy : strategies) {
+      plans[strategy.ordinal()] = new PlanCompiler(strategy);
+    }
+    return plans;
+  }
+
+  /**
+   * The adapters registered, by class.
+   */
+  private static final Map<Class<?>, RegisteredAdapter> adapters = new ConcurrentHashMap<>();
+
+  /**
+   * Count of the entries of mapped objects not corresponding to any field.
+   */
+  private static final LongAdder unknownFields = new LongAdder();
+
+  /**
+   * The mapping plans of classes for each access strategy, by ordinal of the
+   * strategy. Plans are attached to their classes through class values, which
+   * are read without locking and do not prevent classes and their loaders from being
+   * unloaded.
+   */
+  private static volatile ClassValue<MappingPlan>[] classPlans = newClassPlans();
+
+  /**
+   * The classes, by class loader, for which plans have been computed. Both are
+   * weakly referenced so that they can be unloaded; this is only used to evict the
+   * plans of the classes of a loader explicitly.
+   */
+  private static final ConcurrentMap<ClassLoader, Set<Class<?>>> plannedClasses =
+      new MapMaker().weakKeys().makeMap();
+
+  /**
+   * Loads the mapping plan of classes.
+   */
+  private static class PlanCompiler extends ClassValue<MappingPlan> {
+    PlanCompiler(AccessStrategy strategy) {
+      this.strategy = strategy;
+    }
+
+    @Override
+    protected MappingPlan computeValue(Class<?> cls) {
+      ClassLoader loader = cls.getClassLoader();
+      if (loader != null) {
+        plannedClasses.computeIfAbsent(loader, l -> Collections.newSetFromMap(new MapMaker().weakKeys().makeMap()))
+                         .add(cls);
+      }
+
+      // check if object implements its own Java serialization protocol. For those
+      // objects which do, we need to serialize transients as not serializing them
+      // makes it impossible to reconstruct certain objects such as HashMaps. HashMaps,
+      // for example, uses a transient array which it serializes outside of the
+      // serialization protocol using the writeObject method. Since we are aiming for
+      // independence from the serialization format, we cannot support such a custom
+      // method at this level (at least not in its current form). Instead, we just
+      // serialize everything and hope for the best.
+      boolean bypassProtocol =
+          Dissector.method(cls, "writeObject", ObjectOutputStream.class).isPresent() ||
+              Dissector.method(cls, "readObject", ObjectInputStream.class).isPresent() ||
+              Externalizable.class.isAssignableFrom(cls);
+
+      // get all fields to mapped, and all fields which can be set
+      List<FieldAccessor> fields = new ArrayList<>();
+      Map<String, FieldAccessor> setters = new HashMap<>();
+      for (Field field : Dissector.fields(cls).values()) {
+        int fieldModifiers = field.getModifiers();
+        if ((bypassProtocol && !(isFinal(fieldModifiers) && isStatic(fieldModifiers))) ||
+            (!isTransient(fieldModifiers) &&
+                !(isFinal(fieldModifiers) && isStatic(fieldModifiers)))) {
+          field.setAccessible(true);
+          FieldAccessor accessor = FieldAccessor.of(field, strategy, adapterOf(field.getType()));
+          fields.add(accessor);
+          setters.put(accessor.name, accessor);
+
+        } else if (!(isFinal(fieldModifiers) && isStatic(fieldModifiers))) {
+          try {
+            field.setAccessible(true);
+            setters.put(field.getName(), FieldAccessor.of(field, strategy, adapterOf(field.getType())));
+          } catch (RuntimeException e) {
+            // field cannot be made accessible: treat as unknown when reconstructing
+          }
+        }
+      }
+      RegisteredAdapter adapter = adapterOf(cls);
+      return new MappingPlan(cls,
+                           fields.toArray(new FieldAccessor[0]),
+                           setters,
+                           Instantiator.of(cls, strategy),
+                           adapter == null ? null : adapter.adapter);
+    }
+
+    private final AccessStrategy strategy;
+  }
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static ma.vi.serializer.Mapper.uniqueObjectName;
+
+/**
+ * A strategy for naming the objects of a mapped object graph, used by the
+ * {@link Mapper} when mapping objects, and by the serializers when reading
+ * objects which were inlined in the serialized form (and thus not named).
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+@FunctionalInterface
+public interface NamingStrategy {
+  /**
+   * Returns a new namer for naming the objects of a single mapping or reading operation.
+   * If existingNames is not null, it is the (live) set of names already in use, which
+   * the names produced must not clash with; otherwise the namer is the only source
+   * of names for the operation.
+   */
+  Namer newNamer(Set<String> existingNames);
+
+  /**
+   * Produces the names of the objects of a single mapping or reading operation.
+   */
+  @FunctionalInterface
+  interface Namer {
+    /**
+     * Returns a new unique name for the object, built from the potential name,
+     * with the {@link Mapper#OBJ_NAME_PREFIX} prefix.
+     */
+    String name(Object object, String potentialName);
+  }
+
+  /**
+   * Names are built from the potential name to which a random suffix is added when
+   * the name is already in use. The names produced depend on the order of the objects
+   * and on chance, and are thus not reproducible.
+   */
+  NamingStrategy RANDOM = existingNames -> {
+    if (existingNames == null) {
+      Set<String> names = new HashSet<>();
+      return (object, potentialName) -> {
+        String name = uniqueObjectName(object, potentialName, names);
+        names.add(name);
+        return name;
+      };
+    } else {
+      return (object, potentialName) -> uniqueObjectName(object, potentialName, existingNames);
+    }
+  };
+
+  /**
+   * Names are built from the potential name (such as the name of the class of the
+   * object) followed by the value of a counter kept for each potential name (e.g.
+   * obj_ref_foo_17). Names are unique without checking them against the names in
+   * use and are stable across runs for the same object graph. When existing names
+   * are supplied, the counter is advanced past the names which are already in use.
+   * <p>
+   * Names are not deterministic when mapping in parallel, with
+   * {@link Mapper#toMap(Object, ForkJoinPool, int)}: the counters are shared by the
+   * tasks and take their values in the order in which the tasks reach the objects,
+   * which varies between runs. Only the root is always named first.
+   */
+  NamingStrategy COUNTER = CounterNamer::new;
+}
@@ -0,0 +1,861 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A {@link Mapped} whose objects, types and values are stored outside the heap, in
+ * direct byte buffers allocated in large chunks from an arena, for object graphs whose
+ * map does not fit in the heap. The heap holds only the list of chunks and a bounded
+ * cache of the field names and types, which are stored once each.
+ *
+ * <p>
+ * An off-heap map is filled by {@link Mapper#toMap(Object, Mapped)}, which adds the
+ * fields of objects to the off-heap storage as they are mapped, and can be written by
+ * all serializers and reconstructed by {@link Mapper#fromMap(Mapped)} as any other
+ * map: its maps are views of the off-heap storage, producing the names and values of
+ * objects as strings on request. The map returned for an object can be added to, and
+ * the value of its fields replaced, but objects and fields cannot be removed. Storage
+ * is appended to and never reclaimed until the map is closed, which releases all of its
+ * memory at once; the map cannot be used once closed. Off-heap maps are not
+ * thread-safe.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class OffHeapMapped extends Mapped implements AutoCloseable {
+  /**
+   * Creates an empty map allocating its memory in chunks of {@link #DEFAULT_CHUNK_SIZE}
+   * bytes.
+   */
+  public OffHeapMapped() {
+    this(DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Creates an empty map allocating its memory in chunks of the given number of bytes;
+   * strings larger than a chunk are allocated in a chunk of their own.
+   */
+  public OffHeapMapped(int chunkSize) {
+    this(new Storage(chunkSize));
+  }
+
+  private OffHeapMapped(Storage storage) {
+    super(storage.objects, storage.types, storage.singleRefObjects);
+    this.storage = storage;
+  }
+
+  /**
+   * The number of bytes of off-heap memory allocated by this map.
+   */
+  public long offHeapBytes() {
+    return storage.allocated();
+  }
+
+  /**
+   * Releases the off-heap memory of this map, which cannot be used afterwards.
+   */
+  @Override
+  public void close() {
+    storage.close();
+  }
+
+  @Override
+  Map<String, String> newObject(String name, int fieldCount) {
+    return storage.newObject(name);
+  }
+
+  private final Storage storage;
+
+  /**
+   * The off-heap storage of the map, made of the records of the objects, chained in
+   * the order in which they were added, the entries of their fields, chained from the
+   * record of their object, and the strings of the names and values. The records of
+   * the objects are found by name through an open-addressing hash table, itself held
+   * in a direct buffer.
+   *
+   * <p>
+   * Locations in the storage are longs made of the index of the chunk, in the high 32
+   * bits, and the offset in the chunk; {@link #NULL} marks the absence of a location
+   * (such as the null value of a field).
+   */
+  private static final class Storage {
+    Storage(int chunkSize) {
+      checkArgument(chunkSize >= RECORD_SIZE, "chunk size must be at least " + RECORD_SIZE + " bytes");
+      this.chunkSize = chunkSize;
+      this.index = ByteBuffer.allocateDirect(INITIAL_INDEX_SLOTS * 8);
+    }
+
+    /**
+     * Adds an object, without fields, returning the view to which its fields are
+     * appended.
+     */
+    Map<String, String> newObject(String name) {
+      long record = record(name, true);
+      if ((getInt(record + FLAGS) & HAS_OBJECT) == 0) {
+        setFlag(record, HAS_OBJECT, true);
+        objectCount++;
+      } else {
+        clearFields(record);
+      }
+      return new NewObjectView(record);
+    }
+
+    /**
+     * Returns the record of the named object. If there is none, the record is added
+     * when create is true, and {@link #NULL} returned otherwise.
+     */
+    long record(Object name, boolean create) {
+      checkOpen();
+      if (!(name instanceof String)) {
+        return NULL;
+      }
+      String key = (String)name;
+      int h = hash(key);
+      int mask = indexSlots - 1;
+      for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+        long entry = index.getLong(slot * 8);
+        if (entry == 0) {
+          if (!create) {
+            return NULL;
+          }
+          long record = allocate(RECORD_SIZE);
+          putLong(record + NAME, string(key));
+          putLong(record + TYPE, NULL);
+          putLong(record + FIRST_FIELD, NULL);
+          putLong(record + LAST_FIELD, NULL);
+          putLong(record + NEXT_RECORD, NULL);
+          putInt(record + FIELD_COUNT, 0);
+          putInt(record + FLAGS, 0);
+          putInt(record + HASH, h);
+          if (lastRecord == NULL) {
+            firstRecord = record;
+          } else {
+            putLong(lastRecord + NEXT_RECORD, record);
+          }
+          lastRecord = record;
+          index.putLong(slot * 8, record + 1);
+          if (++recordCount * 2 > indexSlots) {
+            growIndex();
+          }
+          return record;
+        }
+        long record = entry - 1;
+        if (getInt(record + HASH) == h && stringEquals(getLong(record + NAME), key)) {
+          return record;
+        }
+      }
+    }
+
+    /**
+     * Doubles the number of slots of the hash table of records, which is kept at most
+     * half full.
+     */
+    private void growIndex() {
+      int slots = indexSlots * 2;
+      checkState(slots <= MAX_INDEX_SLOTS, "Too many objects in off-heap map");
+      ByteBuffer grown = ByteBuffer.allocateDirect(slots * 8);
+      int mask = slots - 1;
+      for (long record = firstRecord; record != NULL; record = getLong(record + NEXT_RECORD)) {
+        int slot = getInt(record + HASH) & mask;
+        while (grown.getLong(slot * 8) != 0) {
+          slot = (slot + 1) & mask;
+        }
+        grown.putLong(slot * 8, record + 1);
+      }
+      release(index);
+      index = grown;
+      indexSlots = slots;
+    }
+
+    private void setFlag(long record, int flag, boolean set) {
+      int flags = getInt(record + FLAGS);
+      putInt(record + FLAGS, set ? flags | flag : flags & ~flag);
+    }
+
+    private boolean hasFlag(long record, int flag) {
+      return (getInt(record + FLAGS) & flag) != 0;
+    }
+
+    /**
+     * Returns the first record, from the given one, which has the flag, or {@link #NULL}.
+     */
+    private long nextWith(long record, int flag) {
+      while (record != NULL && !hasFlag(record, flag)) {
+        record = getLong(record + NEXT_RECORD);
+      }
+      return record;
+    }
+
+    /**
+     * Returns the record following the given one which has the flag, or {@link #NULL}.
+     */
+    private long nextAfter(long record, int flag) {
+      return nextWith(getLong(record + NEXT_RECORD), flag);
+    }
+
+    /**
+     * Removes the fields from the record of an object, whose storage is not reclaimed.
+     */
+    private void clearFields(long record) {
+      putLong(record + FIRST_FIELD, NULL);
+      putLong(record + LAST_FIELD, NULL);
+      putInt(record + FIELD_COUNT, 0);
+    }
+
+    /**
+     * Appends a field to the record of an object, returning its location.
+     */
+    private long addField(long record, String name, String value) {
+      long field = allocate(FIELD_SIZE);
+      putLong(field + NEXT_FIELD, NULL);
+      putLong(field + FIELD_NAME, symbol(name));
+      putLong(field + FIELD_VALUE, string(value));
+      long last = getLong(record + LAST_FIELD);
+      if (last == NULL) {
+        putLong(record + FIRST_FIELD, field);
+      } else {
+        putLong(last + NEXT_FIELD, field);
+      }
+      putLong(record + LAST_FIELD, field);
+      putInt(record + FIELD_COUNT, getInt(record + FIELD_COUNT) + 1);
+      return field;
+    }
+
+    /**
+     * Returns the location of the symbol (field name or type), storing it on first use.
+     * The locations of the first symbols stored are cached so that they are stored once.
+     */
+    private long symbol(String symbol) {
+      if (symbol == null) {
+        return NULL;
+      }
+      Long location = symbolLocations.get(symbol);
+      if (location != null) {
+        return location;
+      }
+      long stored = string(symbol);
+      if (symbolLocations.size() < MAX_CACHED_SYMBOLS) {
+        symbolLocations.put(symbol, stored);
+        symbols.put(stored, symbol);
+      }
+      return stored;
+    }
+
+    /**
+     * Returns the symbol at the location, from the cache of symbols when it is there.
+     */
+    private String symbolAt(long location) {
+      String symbol = symbols.get(location);
+      return symbol == null ? stringAt(location) : symbol;
+    }
+
+    /**
+     * Stores the string, returning its location. A string is stored as an int holding its
+     * length shifted left by one, with the low bit set when its characters take two bytes
+     * each, followed by its characters in one byte each, when they all fit, or two.
+     */
+    private long string(String s) {
+      if (s == null) {
+        return NULL;
+      }
+      int length = s.length();
+      boolean wide = false;
+      for (int i = 0; i < length && !wide; i++) {
+        wide = s.charAt(i) > 0xFF;
+      }
+      long location = allocate(4 + (wide ? length * 2 : length));
+      ByteBuffer chunk = chunk(location);
+      int offset = (int)location;
+      chunk.putInt(offset, length << 1 | (wide ? 1 : 0));
+      offset += 4;
+      if (wide) {
+        for (int i = 0; i < length; i++, offset += 2) {
+          chunk.putChar(offset, s.charAt(i));
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          chunk.put(offset + i, (byte)s.charAt(i));
+        }
+      }
+      return location;
+    }
+
+    private String stringAt(long location) {
+      if (location == NULL) {
+        return null;
+      }
+      ByteBuffer chunk = chunk(location);
+      int offset = (int)location;
+      int header = chunk.getInt(offset);
+      int length = header >>> 1;
+      offset += 4;
+      char[] chars = new char[length];
+      if ((header & 1) == 1) {
+        for (int i = 0; i < length; i++, offset += 2) {
+          chars[i] = chunk.getChar(offset);
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          chars[i] = (char)(chunk.get(offset + i) & 0xFF);
+        }
+      }
+      return new String(chars);
+    }
+
+    /**
+     * True if the string at the location is equal to the string, compared without
+     * producing the former.
+     */
+    private boolean stringEquals(long location, String s) {
+      ByteBuffer chunk = chunk(location);
+      int offset = (int)location;
+      int header = chunk.getInt(offset);
+      int length = header >>> 1;
+      if (length != s.length()) {
+        return false;
+      }
+      offset += 4;
+      if ((header & 1) == 1) {
+        for (int i = 0; i < length; i++, offset += 2) {
+          if (chunk.getChar(offset) != s.charAt(i)) {
+            return false;
+          }
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          if ((chunk.get(offset + i) & 0xFF) != s.charAt(i)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Allocates the number of bytes from the current chunk, or a new one if the current
+     * chunk does not have enough space left, returning their location.
+     */
+    private long allocate(int size) {
+      if (current == null || current.remaining() < size) {
+        if (chunkCount == chunks.length) {
+          chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        current = ByteBuffer.allocateDirect(Math.max(chunkSize, size));
+        chunks[chunkCount++] = current;
+        allocated += current.capacity();
+      }
+      int offset = current.position();
+      current.position(offset + size);
+      return (long)(chunkCount - 1) << 32 | offset;
+    }
+
+    private ByteBuffer chunk(long location) {
+      return chunks[(int)(location >>> 32)];
+    }
+
+    private long getLong(long location) {
+      return chunk(location).getLong((int)location);
+    }
+
+    private void putLong(long location, long value) {
+      chunk(location).putLong((int)location, value);
+    }
+
+    private int getInt(long location) {
+      return chunk(location).getInt((int)location);
+    }
+
+    private void putInt(long location, int value) {
+      chunk(location).putInt((int)location, value);
+    }
+
+    long allocated() {
+      return closed ? 0 : allocated + index.capacity();
+    }
+
+    private void checkOpen() {
+      checkState(!closed, "Off-heap map is closed");
+    }
+
+    void close() {
+      if (!closed) {
+        closed = true;
+        for (int i = 0; i < chunkCount; i++) {
+          release(chunks[i]);
+          chunks[i] = null;
+        }
+        release(index);
+        index = null;
+        current = null;
+        symbols.clear();
+        symbolLocations.clear();
+      }
+    }
+
+    private static int hash(String name) {
+      int h = name.hashCode();
+      return h ^ (h >>> 16);
+    }
+
+    /**
+     * Read-only view of the objects, by name, in the order in which they were added.
+     * Objects are added through {@link #put(String, Map)}, copying the fields of the map
+     * supplied, or by {@link OffHeapMapped#newObject(String, int)}.
+     */
+    final Map<String, Map<String, String>> objects = new AbstractMap<>() {
+      @Override
+      public Map<String, String> get(Object key) {
+        long record = record(key, false);
+        return record == NULL || !hasFlag(record, HAS_OBJECT) ? null : new ObjectView(record);
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        long record = record(key, false);
+        return record != NULL && hasFlag(record, HAS_OBJECT);
+      }
+
+      /**
+       * Adds the object, or replaces the fields of an existing object, with the fields
+       * of the map. Returns null, as the previous fields of the object are not kept.
+       */
+      @Override
+      public Map<String, String> put(String key, Map<String, String> value) {
+        Map<String, String> object = newObject(key);
+        for (Entry<String, String> field : value.entrySet()) {
+          object.put(field.getKey(), field.getValue());
+        }
+        return null;
+      }
+
+      @Override
+      public int size() {
+        checkOpen();
+        return objectCount;
+      }
+
+      @Override
+      public Set<Entry<String, Map<String, String>>> entrySet() {
+        return new AbstractSet<>() {
+          @Override
+          public Iterator<Entry<String, Map<String, String>>> iterator() {
+            checkOpen();
+            return new Records<>(HAS_OBJECT) {
+              @Override
+              Entry<String, Map<String, String>> at(long record) {
+                return new SimpleImmutableEntry<>(stringAt(getLong(record + NAME)), new ObjectView(record));
+              }
+            };
+          }
+
+          @Override
+          public int size() {
+            checkOpen();
+            return objectCount;
+          }
+        };
+      }
+    };
+
+    /**
+     * View of the types of the objects, by name.
+     */
+    final Map<String, String> types = new AbstractMap<>() {
+      @Override
+      public String get(Object key) {
+        long record = record(key, false);
+        return record == NULL || !hasFlag(record, HAS_TYPE) ? null : symbolAt(getLong(record + TYPE));
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        long record = record(key, false);
+        return record != NULL && hasFlag(record, HAS_TYPE);
+      }
+
+      /**
+       * Sets the type of the object. Returns null, as the previous type is not produced.
+       */
+      @Override
+      public String put(String key, String value) {
+        long record = record(key, true);
+        if (!hasFlag(record, HAS_TYPE)) {
+          setFlag(record, HAS_TYPE, true);
+          typeCount++;
+        }
+        putLong(record + TYPE, symbol(value));
+        return null;
+      }
+
+      @Override
+      public int size() {
+        checkOpen();
+        return typeCount;
+      }
+
+      @Override
+      public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+          @Override
+          public Iterator<Entry<String, String>> iterator() {
+            checkOpen();
+            return new Records<>(HAS_TYPE) {
+              @Override
+              Entry<String, String> at(long record) {
+                return new SimpleImmutableEntry<>(stringAt(getLong(record + NAME)),
+                                                  symbolAt(getLong(record + TYPE)));
+              }
+            };
+          }
+
+          @Override
+          public int size() {
+            checkOpen();
+            return typeCount;
+          }
+        };
+      }
+    };
+
+    /**
+     * View of the names of the objects referred to once, held as a flag of the record
+     * of each object.
+     */
+    final Set<String> singleRefObjects = new AbstractSet<>() {
+      @Override
+      public boolean contains(Object o) {
+        long record = record(o, false);
+        return record != NULL && hasFlag(record, SINGLE_REF);
+      }
+
+      @Override
+      public boolean add(String name) {
+        long record = record(name, true);
+        if (hasFlag(record, SINGLE_REF)) {
+          return false;
+        }
+        setFlag(record, SINGLE_REF, true);
+        singleRefCount++;
+        return true;
+      }
+
+      @Override
+      public boolean remove(Object o) {
+        long record = record(o, false);
+        if (record == NULL || !hasFlag(record, SINGLE_REF)) {
+          return false;
+        }
+        setFlag(record, SINGLE_REF, false);
+        singleRefCount--;
+        return true;
+      }
+
+      @Override
+      public Iterator<String> iterator() {
+        checkOpen();
+        return new Records<>(SINGLE_REF) {
+          @Override
+          String at(long record) {
+            return stringAt(getLong(record + NAME));
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        checkOpen();
+        return singleRefCount;
+      }
+    };
+
+    /**
+     * Iterates over the records with a flag, in the order in which they were added.
+     */
+    private abstract class Records<T> implements Iterator<T> {
+      Records(int flag) {
+        this.flag = flag;
+        this.next = nextWith(firstRecord, flag);
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != NULL;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        checkOpen();
+        long record = next;
+        next = nextAfter(record, flag);
+        return at(record);
+      }
+
+      abstract T at(long record);
+
+      private final int flag;
+      private long next;
+    }
+
+    /**
+     * View of the fields of an object, to which fields can be added. Fields are looked
+     * up sequentially in small objects and through an index of their locations, built
+     * on first lookup, in larger ones (such as arrays and collections).
+     */
+    private class ObjectView extends AbstractMap<String, String> {
+      ObjectView(long record) {
+        this.record = record;
+      }
+
+      @Override
+      public String get(Object key) {
+        long field = field(key);
+        return field == NULL ? null : stringAt(getLong(field + FIELD_VALUE));
+      }
+
+      @Override
+      public boolean containsKey(Object key) {
+        return field(key) != NULL;
+      }
+
+      /**
+       * Adds the field, or replaces its value if the object already has it.
+       */
+      @Override
+      public String put(String key, String value) {
+        long field = field(key);
+        if (field == NULL) {
+          field = addField(record, key, value);
+          if (fields != null) {
+            fields.put(key, field);
+          }
+          return null;
+        } else {
+          String previous = stringAt(getLong(field + FIELD_VALUE));
+          putLong(field + FIELD_VALUE, string(value));
+          return previous;
+        }
+      }
+
+      @Override
+      public int size() {
+        checkOpen();
+        return getInt(record + FIELD_COUNT);
+      }
+
+      @Override
+      public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+          @Override
+          public Iterator<Entry<String, String>> iterator() {
+            checkOpen();
+            return new Iterator<>() {
+              @Override
+              public boolean hasNext() {
+                return next != NULL;
+              }
+
+              @Override
+              public Entry<String, String> next() {
+                if (!hasNext()) {
+                  throw new NoSuchElementException();
+                }
+                checkOpen();
+                long field = next;
+                next = getLong(field + NEXT_FIELD);
+                return new SimpleImmutableEntry<>(symbolAt(getLong(field + FIELD_NAME)),
+                                                  stringAt(getLong(field + FIELD_VALUE)));
+              }
+
+              private long next = getLong(record + FIRST_FIELD);
+            };
+          }
+
+          @Override
+          public int size() {
+            return ObjectView.this.size();
+          }
+        };
+      }
+
+      /**
+       * Returns the location of the named field, or {@link #NULL} if the object does not
+       * have it.
+       */
+      private long field(Object key) {
+        checkOpen();
+        if (!(key instanceof String)) {
+          return NULL;
+        }
+        if (fields == null && getInt(record + FIELD_COUNT) > INDEXED_FIELDS) {
+          fields = new HashMap<>(CollectionHandler.capacity(getInt(record + FIELD_COUNT)));
+          for (long field = getLong(record + FIRST_FIELD); field != NULL; field = getLong(field + NEXT_FIELD)) {
+            fields.putIfAbsent(symbolAt(getLong(field + FIELD_NAME)), field);
+          }
+        }
+        if (fields != null) {
+          Long field = fields.get(key);
+          return field == null ? NULL : field;
+        }
+        String name = (String)key;
+        Long symbol = symbolLocations.get(name);
+        for (long field = getLong(record + FIRST_FIELD); field != NULL; field = getLong(field + NEXT_FIELD)) {
+          long fieldName = getLong(field + FIELD_NAME);
+          if (symbol == null ? stringEquals(fieldName, name) : symbol == fieldName) {
+            return field;
+          }
+        }
+        return NULL;
+      }
+
+      final long record;
+
+      /**
+       * The locations of the fields by name, for large objects, built on first lookup.
+       */
+      Map<String, Long> fields;
+    }
+
+    /**
+     * View of the fields of an object being added, each of which is put once: fields
+     * are appended to the object without looking them up first, so that filling a large
+     * object does not build the index of its fields.
+     */
+    private final class NewObjectView extends ObjectView {
+      NewObjectView(long record) {
+        super(record);
+      }
+
+      /**
+       * Appends the field, which the object must not have already.
+       */
+      @Override
+      public String put(String key, String value) {
+        checkOpen();
+        long field = addField(record, key, value);
+        if (fields != null) {
+          fields.put(key, field);
+        }
+        return null;
+      }
+    }
+
+    private final int chunkSize;
+    private ByteBuffer[] chunks = new ByteBuffer[16];
+    private int chunkCount;
+    private ByteBuffer current;
+    private long allocated;
+
+    /**
+     * The hash table of the locations of records, offset by one so that 0 marks an empty
+     * slot.
+     */
+    private ByteBuffer index;
+    private int indexSlots = INITIAL_INDEX_SLOTS;
+
+    private long firstRecord = NULL;
+    private long lastRecord = NULL;
+    private int recordCount;
+    private int objectCount;
+    private int typeCount;
+    private int singleRefCount;
+
+    /**
+     * The locations of the symbols stored, and the symbols at these locations.
+     */
+    private final Map<String, Long> symbolLocations = new HashMap<>();
+    private final Map<Long, String> symbols = new HashMap<>();
+
+    private boolean closed;
+  }
+
+  /**
+   * Releases the memory of a direct buffer immediately through the cleaner of the
+   * JDK, when it is accessible, instead of when the buffer is garbage-collected.
+   */
+  private static void release(ByteBuffer buffer) {
+    if (INVOKE_CLEANER != null) {
+      try {
+        INVOKE_CLEANER.invokeExact(buffer);
+      } catch (Throwable t) {
+        // left to the garbage collector
+      }
+    }
+  }
+
+  /**
+   * sun.misc.Unsafe.invokeCleaner bound to the Unsafe instance, or null if it cannot
+   * be accessed.
+   */
+  private static final MethodHandle INVOKE_CLEANER;
+
+  static {
+    MethodHandle invokeCleaner;
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      invokeCleaner = MethodHandles.lookup()
+                                   .findVirtual(unsafeClass, "invokeCleaner",
+                                                MethodType.methodType(void.class, ByteBuffer.class))
+                                   .bindTo(theUnsafe.get(null));
+    } catch (Exception e) {
+      invokeCleaner = null;
+    }
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  /**
+   * The default size of the chunks of memory allocated: 16 MB.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+  /**
+   * The absence of a location.
+   */
+  private static final long NULL = -1;
+
+  // layout of object records
+  private static final int NAME = 0;
+  private static final int TYPE = 8;
+  private static final int FIRST_FIELD = 16;
+  private static final int LAST_FIELD = 24;
+  private static final int NEXT_RECORD = 32;
+  private static final int FIELD_COUNT = 40;
+  private static final int FLAGS = 44;
+  private static final int HASH = 48;
+  private static final int RECORD_SIZE = 56;
+
+  // flags of object records
+  private static final int HAS_OBJECT = 1;
+  private static final int HAS_TYPE = 2;
+  private static final int SINGLE_REF = 4;
+
+  // layout of field entries
+  private static final int NEXT_FIELD = 0;
+  private static final int FIELD_NAME = 8;
+  private static final int FIELD_VALUE = 16;
+  private static final int FIELD_SIZE = 24;
+
+  private static final int INITIAL_INDEX_SLOTS = 1024;
+  private static final int MAX_INDEX_SLOTS = 1 << 27;
+  private static final int MAX_CACHED_SYMBOLS = 1 << 16;
+
+  /**
+   * The number of fields of the largest objects whose fields are looked up sequentially.
+   */
+  private static final int INDEXED_FIELDS = 8;
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import com.google.common.collect.MapMaker;
+import ma.vi.serializer.Mapper.MapFrame;
+import ma.vi.serializer.Mapper.MappingPlan;
+import ma.vi.serializer.NamingStrategy.Namer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+import static java.util.Collections.singletonMap;
+import static ma.vi.base.lang.Literal.isLiteral;
+import static ma.vi.base.lang.Literal.toText;
+import static ma.vi.base.reflect.Classes.typeOf;
+import static ma.vi.serializer.Mapper.*;
+
+/**
+ * Maps an object graph in parallel on a fork/join pool. Each task traverses part of
+ * the graph depth-first, as the sequential mapping does, and splits the bottom half
+ * of its stack of pending objects with a new task every time it has mapped a minimum
+ * number of objects. Objects are claimed by the first task to reach them through a
+ * concurrent identity table holding the name of every object mapped, and named by
+ * that task only; the output of the tasks is merged into a single map once all of
+ * them have completed. As the order in which the tasks reach the objects varies
+ * between runs, so do the names of the objects other than the root, including the
+ * values of the counters of the {@link NamingStrategy#COUNTER} strategy.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class ParallelMapper {
+  ParallelMapper(AccessStrategy strategy,
+                 NamingStrategy naming,
+                 ForkJoinPool pool,
+                 int minSubgraphSize) {
+    this.strategy = strategy;
+    this.namer = naming == NamingStrategy.COUNTER
+                 ? new CounterNamer.Shared()
+                 : synchronizedNamer(naming.newNamer(null));
+    this.pool = pool;
+    this.minSubgraphSize = minSubgraphSize;
+    this.names = new MapMaker().concurrencyLevel(pool.getParallelism()).weakKeys().makeMap();
+  }
+
+  Mapped toMap(Object object) {
+    Mapped map = new Mapped();
+    if (object != null) {
+      MapTask root = new MapTask();
+      root.reference(object);
+      pool.invoke(root);
+
+      // merge the output of the tasks, in the order they were split, with the root first,
+      // waiting for each task to complete before reading its output and splits
+      Deque<MapTask> tasks = new ArrayDeque<>();
+      tasks.push(root);
+      while (!tasks.isEmpty()) {
+        MapTask task = tasks.pop();
+        task.join();
+        map.objects.putAll(task.objects);
+        map.types.putAll(task.types);
+        for (ListIterator<MapTask> i = task.splits.listIterator(task.splits.size()); i.hasPrevious(); ) {
+          tasks.push(i.previous());
+        }
+      }
+      for (String name : map.objects.keySet()) {
+        if (!multiRefObjects.contains(name)) {
+          map.singleRefObjects.add(name);
+        }
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Maps the objects on its stack, and all the objects reachable from them which
+   * have not been claimed by another task. A task does not wait for the tasks split
+   * from it, which are joined when their output is merged: joining them from the task
+   * would run the tasks forked in the meantime on the stack of the joining thread,
+   * nested one in the other, overflowing the stack when there are many.
+   */
+  private class MapTask extends RecursiveAction {
+    @Override
+    protected void compute() {
+      Function<Object, String> referencer = this::reference;
+      while (!stack.isEmpty()) {
+        if (mapped >= minSubgraphSize && stack.size() > 1) {
+          split();
+        }
+        mapNext(stack, referencer);
+      }
+    }
+
+    /**
+     * Moves the bottom half of the stack, the pending objects which are the furthest
+     * from the current traversal path, to a new task.
+     */
+    private void split() {
+      MapTask task = new MapTask();
+      for (int i = stack.size() / 2; i > 0; i--) {
+        task.stack.addFirst(stack.removeLast());
+      }
+      splits.add(task);
+      task.fork();
+      mapped = 0;
+    }
+
+    /**
+     * Returns the name of the object, naming it and adding it to the output of this
+     * task if no task has claimed it yet.
+     */
+    private String reference(Object object) {
+      String name = names.get(object);
+      if (name == null) {
+        name = names.putIfAbsent(object, UNNAMED);
+      }
+      if (name != null) {
+        // claimed by another task, which names the object right after claiming it
+        while (name == UNNAMED) {
+          Thread.onSpinWait();
+          name = names.get(object);
+        }
+        if (name == FAILED) {
+          throw new IllegalStateException("Object of " + object.getClass() + " could not be " +
+                                          "named by the task which claimed it");
+        }
+        multiRefObjects.add(name);
+        return name;
+      }
+      Class cls = object.getClass();
+      String potentialName;
+      try {
+        potentialName = potentialNames.get(cls);
+        name = namer.name(object, potentialName);
+      } finally {
+        // publish the name, or the failure to name the object, to the tasks waiting for it
+        names.put(object, name == null ? FAILED : name);
+      }
+      CollectionHandler handler = CollectionHandler.of(cls);
+      types.put(name, handler == null ? typeOf(object) : handler.type(object));
+      mapped++;
+
+      if (isLiteral(cls)) {
+        objects.put(name, singletonMap(potentialName, toText(cls, object)));
+      } else {
+        MappingPlan plan = cls.isArray() || handler != null ? null : plan(cls, strategy);
+        if (plan != null && plan.adapter != null) {
+          objects.put(name, singletonMap(potentialName, plan.adapter.toMapped(object)));
+        } else {
+          Map<String, String> objMap = new LinkedHashMap<>(CollectionHandler.capacity(entryCount(object, handler, plan)));
+          objects.put(name, objMap);
+          stack.push(frame(object, handler, plan, objMap));
+        }
+      }
+      return name;
+    }
+
+    private final Deque<MapFrame> stack = new ArrayDeque<>();
+    private final Map<String, Map<String, String>> objects = new LinkedHashMap<>();
+    private final Map<String, String> types = new HashMap<>();
+    private final List<MapTask> splits = new ArrayList<>();
+
+    /**
+     * Objects mapped since the task started or was last split.
+     */
+    private int mapped;
+  }
+
+  /**
+   * Returns a namer calling the given one under a lock, for naming strategies whose
+   * namers cannot be shared by threads.
+   */
+  private static Namer synchronizedNamer(Namer namer) {
+    return (object, potentialName) -> {
+      synchronized (namer) {
+        return namer.name(object, potentialName);
+      }
+    };
+  }
+
+  private final AccessStrategy strategy;
+
+  /**
+   * The namer shared by all tasks, called only by the task claiming an object.
+   */
+  private final Namer namer;
+
+  private final ForkJoinPool pool;
+
+  private final int minSubgraphSize;
+
+  /**
+   * Names of the objects claimed by the tasks, by identity; {@link #UNNAMED} for an
+   * object claimed but not named yet.
+   */
+  private final ConcurrentMap<Object, String> names;
+
+  /**
+   * Names of the objects referred to more than once in the graph.
+   */
+  private final Set<String> multiRefObjects = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The name of an object claimed by a task before it names it, compared by identity.
+   */
+  private static final String UNNAMED = new String("");
+
+  /**
+   * The name of an object which the task claiming it failed to name, compared by
+   * identity; tasks referring to the object fail in turn instead of waiting for it.
+   */
+  private static final String FAILED = new String("");
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.serializer.Mapper.MappingPlan;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+import static ma.vi.serializer.Mapper.allocate;
+import static ma.vi.serializer.Mapper.isReference;
+import static ma.vi.serializer.Mapper.populate;
+import static ma.vi.serializer.Mapper.plan;
+
+/**
+ * Reconstructs an object graph in parallel on a fork/join pool, in two phases.
+ * As the mapped form lists every object of the graph with its type, all objects are
+ * first allocated, independently of each other, in partitions of the mapped objects.
+ * Once all are allocated, the fields of the objects are set, also by partition,
+ * references between objects being resolved from the table of allocated instances
+ * which is no longer modified at that stage. Handled collections are filled last,
+ * sequentially, in the same order as by {@link Mapper#fromMap(Mapped)}. As immutable
+ * collections can only be built once their elements have been reconstructed, graphs
+ * containing them (such as those built by {@link java.util.List#of},
+ * {@link java.util.Set#of} or {@link java.util.Map#of}) are reconstructed entirely
+ * sequentially.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+class ParallelUnmapper {
+  @SuppressWarnings("unchecked")
+  ParallelUnmapper(Mapped mapped,
+                   AccessStrategy strategy,
+                   ForkJoinPool pool,
+                   int minPartitionSize) {
+    this.strategy = strategy;
+    this.pool = pool;
+    this.minPartitionSize = minPartitionSize;
+
+    int size = mapped.objects.size();
+    names = new String[size];
+    maps = new Map[size];
+    types = new TypeDescriptor[size];
+    handlers = new CollectionHandler[size];
+    instances = new Object[size];
+    positions = new HashMap<>(CollectionHandler.capacity(size));
+    boolean immutables = false;
+    int i = 0;
+    for (Map.Entry<String, Map<String, String>> e : mapped.objects.entrySet()) {
+      names[i] = e.getKey();
+      maps[i] = e.getValue();
+      positions.put(names[i], i);
+      TypeDescriptor type = TypeDescriptor.of(mapped.types.get(names[i]));
+      types[i] = type;
+      if (!type.isArray()) {
+        CollectionHandler handler = CollectionHandler.of(type.type(), maps[i]);
+        handlers[i] = handler;
+        immutables |= handler != null && handler.immutable();
+      }
+      i++;
+    }
+    this.sequential = immutables;
+    this.mapped = mapped;
+  }
+
+  Object fromMap(String objectName) {
+    if (!mapped.objects.containsKey(objectName)) {
+      return null;
+    } else if (sequential) {
+      return Mapper.fromMap(objectName, mapped, strategy);
+    }
+    pool.invoke(new Allocate(0, names.length));
+    Function<String, Object> resolver = this::instance;
+    pool.invoke(new Populate(0, names.length, resolver));
+    fillCollections(objectName, resolver);
+    return resolver.apply(objectName);
+  }
+
+  /**
+   * The instance allocated for the named object; null if there is no such object.
+   */
+  private Object instance(String name) {
+    Integer i = positions.get(name);
+    return i == null ? null : instances[i];
+  }
+
+  /**
+   * Fills the handled collections with their elements in the order in which
+   * {@link Mapper#fromMap(Mapped)} fills them: in reverse order of their discovery by
+   * the depth-first walk of the references from the root through which the latter
+   * creates the objects, replayed here on the mapped objects. Collections reached from
+   * others, as their elements or through the fields of other objects, are thus filled
+   * before the latter, which may hash them. Collections not reachable from the root,
+   * which are not reconstructed sequentially, are filled last.
+   */
+  private void fillCollections(String root, Function<String, Object> resolver) {
+    boolean[] discovered = new boolean[names.length];
+    Deque<Integer> stack = new ArrayDeque<>();
+    List<Integer> collections = new ArrayList<>();
+    discover(root, discovered, stack);
+    while (!stack.isEmpty()) {
+      int i = stack.pop();
+      Map<String, String> map = maps[i];
+      CollectionHandler handler = handlers[i];
+      if (handler != null) {
+        for (int e = 0, count = handler.elementCount(map); e < count; e++) {
+          if (!handler.isLiteral(e)) {
+            discover(map.get(handler.elementKey(e)), discovered, stack);
+          }
+        }
+        collections.add(i);
+      } else if (types[i].isArray()) {
+        for (int e = 0, length = Array.getLength(instances[i]); e < length; e++) {
+          discover(map.get(CollectionHandler.indexKey(e)), discovered, stack);
+        }
+      } else {
+        MappingPlan plan = plan(types[i].type(), strategy);
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+          FieldAccessor field = plan.setters.get(entry.getKey());
+          String value = entry.getValue();
+          if (field != null && value != null && isReference(field, value)) {
+            discover(value, discovered, stack);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < handlers.length; i++) {
+      if (handlers[i] != null && !discovered[i]) {
+        collections.add(0, i);
+      }
+    }
+    for (int c = collections.size() - 1; c >= 0; c--) {
+      int i = collections.get(c);
+      ((CollectionHandler.Mutable)handlers[i]).fill(instances[i], handlers[i].elements(maps[i], resolver));
+    }
+  }
+
+  /**
+   * Marks the named object as discovered, if it was not already, pushing it on the
+   * stack if its fields or elements refer to other objects: as in the sequential
+   * reconstruction, literals, adapted objects and arrays of literals are not walked.
+   */
+  private void discover(String name, boolean[] discovered, Deque<Integer> stack) {
+    Integer position = name == null ? null : positions.get(name);
+    if (position != null && !discovered[position]) {
+      int i = position;
+      discovered[i] = true;
+      TypeDescriptor type = types[i];
+      if (handlers[i] != null ||
+          !type.isLiteral() && (type.isArray() || plan(type.type(), strategy).adapter == null)) {
+        stack.push(i);
+      }
+    }
+  }
+
+  /**
+   * Allocates the objects in a range of the mapped objects, splitting the range in
+   * two while it is larger than twice the minimum partition size.
+   */
+  private class Allocate extends RecursiveAction {
+    Allocate(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from >= 2 * minPartitionSize) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Allocate(from, mid), new Allocate(mid, to));
+      } else {
+        for (int i = from; i < to; i++) {
+          instances[i] = allocate(types[i], maps[i], strategy);
+        }
+      }
+    }
+
+    private final int from;
+    private final int to;
+  }
+
+  /**
+   * Sets the fields of the objects in a range of the mapped objects, splitting the
+   * range as for {@link Allocate}. Literals, which are fully created on allocation,
+   * adapted objects, created from their text, and handled collections, which are
+   * filled afterwards, are skipped.
+   */
+  private class Populate extends RecursiveAction {
+    Populate(int from, int to, Function<String, Object> resolver) {
+      this.from = from;
+      this.to = to;
+      this.resolver = resolver;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from >= 2 * minPartitionSize) {
+        int mid = (from + to) >>> 1;
+        invokeAll(new Populate(from, mid, resolver), new Populate(mid, to, resolver));
+      } else {
+        for (int i = from; i < to; i++) {
+          TypeDescriptor type = types[i];
+          if (!type.isLiteral() && handlers[i] == null) {
+            MappingPlan plan = type.isArray() ? null : plan(type.type(), strategy);
+            if (plan == null || plan.adapter == null) {
+              populate(instances[i], maps[i], plan, type, resolver);
+            }
+          }
+        }
+      }
+    }
+
+    private final int from;
+    private final int to;
+    private final Function<String, Object> resolver;
+  }
+
+  private final Mapped mapped;
+
+  private final AccessStrategy strategy;
+
+  private final ForkJoinPool pool;
+
+  private final int minPartitionSize;
+
+  /**
+   * The names, maps, types, collection handlers (if any) and instances of the mapped
+   * objects, by position in the map.
+   */
+  private final String[] names;
+  private final Map<String, String>[] maps;
+  private final TypeDescriptor[] types;
+  private final CollectionHandler[] handlers;
+  private final Object[] instances;
+
+  /**
+   * True if the graph contains immutable collections and must be reconstructed sequentially.
+   */
+  private final boolean sequential;
+
+  /**
+   * The positions of the mapped objects by name, through which references are
+   * resolved to the instances allocated; only read once built.
+   */
+  private final Map<String, Integer> positions;
+}
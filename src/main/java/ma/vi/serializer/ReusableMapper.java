@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.serializer.Mapper.MapFrame;
+
+import java.util.*;
+
+/**
+ * A mapper configured once, through a {@link ReusableMapperBuilder}, with the strategies
+ * for accessing the fields of objects and naming them, and suited to mapping many
+ * small object graphs in succession. Each thread mapping with it keeps its own scratch
+ * structures for traversing the graphs (the table of objects already mapped and the
+ * stack of objects being mapped), which are cleared and reused from one mapping to
+ * the next instead of being allocated anew; the {@link Mapped} produced is sized
+ * beforehand from the number of objects in the previous graph mapped by the thread.
+ * Instances can be shared between threads.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class ReusableMapper {
+  ReusableMapper(AccessStrategy strategy, NamingStrategy naming, SymbolTable symbols) {
+    this.strategy = strategy;
+    this.naming = naming;
+    this.symbols = symbols;
+  }
+
+  /**
+   * Maps the object graph as {@link Mapper#toMap(Object, AccessStrategy, NamingStrategy)}
+   * does with the strategies of this mapper.
+   */
+  public Mapped toMap(Object object) {
+    Scratch scratch = scratches.get();
+    if (scratch.inUse) {
+      // mapping from within a mapping (e.g. from an adapter) on the same thread
+      scratch = new Scratch();
+    }
+    int capacity = CollectionHandler.capacity(scratch.objects);
+    Mapped map = Mapped.of(new LinkedHashMap<>(capacity), new HashMap<>(capacity), new HashSet<>(capacity));
+    scratch.inUse = true;
+    try {
+      Mapper._toMap(object, Mapper.newNamer(naming, map), map, scratch.mapped, scratch.stack,
+                    symbols == null ? SymbolTable.unshared() : symbols, strategy);
+    } finally {
+      scratch.reset(map.objects.size());
+    }
+    return map;
+  }
+
+  /**
+   * Reconstructs the object graph as {@link Mapper#fromMap(String, Mapped, AccessStrategy)}
+   * does with the access strategy of this mapper.
+   */
+  public Object fromMap(Mapped mapped) {
+    return Mapper.fromMap(null, mapped, strategy);
+  }
+
+  /**
+   * The structures for traversing object graphs kept by each thread, with the number
+   * of objects in the last graph mapped.
+   */
+  private static class Scratch {
+    /**
+     * Clears the structures after mapping a graph of the given number of objects. The
+     * table of mapped objects, which retains its capacity when cleared, is replaced
+     * by a smaller one when the graphs mapped become much smaller than the largest
+     * graph it was used for.
+     */
+    void reset(int objects) {
+      if (objects < largest / SHRINK_FACTOR) {
+        mapped = new IdentityTable(objects);
+        largest = objects;
+      } else {
+        mapped.clear();
+        largest = Math.max(largest, objects);
+      }
+      stack.clear();
+      this.objects = objects;
+      inUse = false;
+    }
+
+    IdentityTable mapped = new IdentityTable();
+    final Deque<MapFrame> stack = new ArrayDeque<>();
+
+    /**
+     * The number of objects in the last graph mapped.
+     */
+    int objects;
+
+    /**
+     * The number of objects in the largest graph mapped with the current table.
+     */
+    int largest;
+
+    boolean inUse;
+  }
+
+  private static final int SHRINK_FACTOR = 4;
+
+  private final ThreadLocal<Scratch> scratches = ThreadLocal.withInitial(Scratch::new);
+
+  private final AccessStrategy strategy;
+  private final NamingStrategy naming;
+
+  /**
+   * The symbol table shared by all mappings, or null for each mapping to use its own.
+   */
+  private final SymbolTable symbols;
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.base.lang.Builder;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A builder for {@link ReusableMapper} providing a simple method for overriding
+ * the latter's defaults. Usage scenario:
+ *
+ * <pre>
+ *  ReusableMapper mapper =
+ *      ReusableMapperBuilder.newBuilder()
+ *          .accessStrategy(AccessStrategy.REFLECTIVE)  // instead of GENERATED
+ *          .namingStrategy(NamingStrategy.COUNTER)     // instead of RANDOM
+ *          .build();
+ *  </pre>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class ReusableMapperBuilder implements Builder<ReusableMapper> {
+  /**
+   * Creates a new builder.
+   */
+  public static ReusableMapperBuilder newBuilder() {
+    return new ReusableMapperBuilder();
+  }
+
+  /**
+   * Changes the strategy for reading and writing the fields of objects: default
+   * {@link Mapper#DEFAULT_ACCESS_STRATEGY}.
+   */
+  public ReusableMapperBuilder accessStrategy(AccessStrategy accessStrategy) {
+    checkNotNull(accessStrategy, "access strategy cannot be null");
+    this.accessStrategy = accessStrategy;
+    return this;
+  }
+
+  /**
+   * Changes the strategy for naming the objects mapped: default
+   * {@link Mapper#DEFAULT_NAMING_STRATEGY}.
+   */
+  public ReusableMapperBuilder namingStrategy(NamingStrategy namingStrategy) {
+    checkNotNull(namingStrategy, "naming strategy cannot be null");
+    this.namingStrategy = namingStrategy;
+    return this;
+  }
+
+  /**
+   * Shares the symbol table, which deduplicates the type strings of the objects mapped,
+   * across all the mappings of the mapper, and possibly other mappers and serializers,
+   * instead of using a new table for each mapping. The table keeps the statistics of
+   * the symbols deduplicated.
+   */
+  public ReusableMapperBuilder symbolTable(SymbolTable symbolTable) {
+    checkNotNull(symbolTable, "symbol table cannot be null");
+    this.symbolTable = symbolTable;
+    return this;
+  }
+
+  @Override
+  public ReusableMapper build() {
+    return new ReusableMapper(accessStrategy, namingStrategy, symbolTable);
+  }
+
+  private ReusableMapperBuilder() {
+  }
+
+  private AccessStrategy accessStrategy = Mapper.DEFAULT_ACCESS_STRATEGY;
+
+  private NamingStrategy namingStrategy = Mapper.DEFAULT_NAMING_STRATEGY;
+
+  private SymbolTable symbolTable;
+}
@@ -5,6 +5,9 @@
 package ma.vi.serializer;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 /**
  * Serializers takes mapped value produced by {@link Mapper} and creates
@@ -24,6 +27,81 @@ public interface Serializer {
    */
   void toText(Mapped map, Writer out) throws IOException;
 
+  /**
+   * Writes the string representation of the indexed mapped value to the writer. By
+   * default, the indexed map is converted to a {@link Mapped} which is then written.
+   */
+  default void toText(IndexedMapped map, Writer out) throws IOException {
+    toText(map.toMapped(), out);
+  }
+
+  /**
+   * Writes the representation of the mapped value to the output stream, which is not
+   * closed. Text is encoded in UTF-8, directly into a pooled buffer.
+   */
+  default void toText(Mapped map, OutputStream out) throws IOException {
+    Utf8Writer writer = new Utf8Writer(out);
+    toText(map, writer);
+    writer.release();
+  }
+
+  /**
+   * Writes the representation of the indexed mapped value to the output stream, which
+   * is not closed. Text is encoded in UTF-8, directly into a pooled buffer.
+   */
+  default void toText(IndexedMapped map, OutputStream out) throws IOException {
+    Utf8Writer writer = new Utf8Writer(out);
+    toText(map, writer);
+    writer.release();
+  }
+
+  /**
+   * Construct the mapped value reading its representation from the input stream, which
+   * is not closed. Text is decoded from UTF-8, directly from a pooled buffer.
+   */
+  default Mapped toMap(InputStream in) throws IOException {
+    Utf8Reader reader = new Utf8Reader(in);
+    Mapped map = toMap(reader);
+    reader.release();
+    return map;
+  }
+
+  /**
+   * Writes the representation of the mapped value into the byte buffer from its
+   * position, throwing a {@link java.nio.BufferOverflowException} if the buffer
+   * does not have enough space left.
+   */
+  default void toText(Mapped map, ByteBuffer out) throws IOException {
+    toText(map, new ByteBufferOutputStream(out));
+  }
+
+  /**
+   * Construct the mapped value reading its representation from the remaining bytes of
+   * the byte buffer.
+   */
+  default Mapped toMap(ByteBuffer in) throws IOException {
+    return toMap(new ByteBufferInputStream(in));
+  }
+
+  /**
+   * Writes the representation of the mapped value to the file, replacing its content
+   * if it exists.
+   */
+  default void toText(Mapped map, Path path) throws IOException {
+    try (OutputStream out = Files.newOutputStream(path)) {
+      toText(map, out);
+    }
+  }
+
+  /**
+   * Construct the mapped value reading its representation from the file.
+   */
+  default Mapped toMap(Path path) throws IOException {
+    try (InputStream in = Files.newInputStream(path)) {
+      return toMap(in);
+    }
+  }
+
   /**
    * Convenience method to get the mapped value from a string.
    */
@@ -48,4 +126,18 @@ public interface Serializer {
       throw new RuntimeException(e);
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Convenience method to get the string representation of the indexed mapped value.
+   */
+  default String toText(IndexedMapped map) {
+    try {
+      StringWriter out = new StringWriter();
+      toText(map, out);
+      return out.toString();
+    } catch (IOException e) {
+      // should not happen
+      throw new RuntimeException(e);
+    }
+  }
+}
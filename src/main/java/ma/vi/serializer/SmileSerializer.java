@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+/**
+ * The Smile serializer, writing maps in the binary JSON format of Jackson, with the
+ * same structure as {@link JsonSerializer}. Repeated field names, and by default short
+ * repeated values such as the names of objects referred to several times, are written
+ * as back-references to their first occurrence.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class SmileSerializer extends AbstractJacksonSerializer {
+  @Override
+  JsonFactory factory() {
+    return factory;
+  }
+
+  /**
+   * Creates the factory of Smile generators and parsers, with back-references to
+   * repeated values enabled or not.
+   */
+  static SmileFactory factory(boolean sharedStringValues) {
+    SmileFactory factory = new SmileFactory();
+    factory.configure(SmileGenerator.Feature.CHECK_SHARED_NAMES, true);
+    factory.configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, sharedStringValues);
+    factory.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    factory.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
+    return factory;
+  }
+
+  SmileFactory factory = factory(true);
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+/**
+ * A builder for {@link SmileSerializer} providing a simple method for
+ * overriding the latter's defaults. Usage scenario:
+ *
+ * <pre>
+ *  SmileSerializer smile =
+ *      SmileSerializerBuilder.newBuilder()
+ *          .sharedStringValues(false)      // do not write back-references to repeated values
+ *          .inlineSingleRefObjects(false)  // do not inline singly-referenced objects
+ *          .build();
+ *  </pre>
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class SmileSerializerBuilder extends AbstractJacksonSerializerBuilder<SmileSerializer, SmileSerializerBuilder> {
+  /**
+   * Creates a new builder.
+   */
+  public static SmileSerializerBuilder newBuilder() {
+    return new SmileSerializerBuilder();
+  }
+
+  /**
+   * Changes whether short repeated values, such as the names of objects referred to
+   * several times, are written as back-references to their first occurrence: default
+   * true. Field names are always written as back-references when repeated.
+   */
+  public SmileSerializerBuilder sharedStringValues(boolean sharedStringValues) {
+    this.sharedStringValues = sharedStringValues;
+    return this;
+  }
+
+  @Override
+  public SmileSerializer build() {
+    SmileSerializer smile = new SmileSerializer();
+    smile.inlineSingleRefObjects = inlineSingleRefObjects;
+    smile.namingStrategy = namingStrategy;
+    smile.symbolTable = symbolTable;
+    smile.compression = compression;
+    smile.factory = SmileSerializer.factory(sharedStringValues);
+    return smile;
+  }
+
+  private SmileSerializerBuilder() {
+  }
+
+  private boolean sharedStringValues = true;
+}
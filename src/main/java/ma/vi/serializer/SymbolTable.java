@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded table of symbols (field names and type strings) used when mapping object
+ * graphs and reading serialized text to replace equal strings by a single canonical
+ * instance, so that the many occurrences of the same few names in a large graph share
+ * the same string. The table holds at most its capacity of symbols: a symbol is looked
+ * up in a few consecutive slots from its hash and, when these are all taken by other
+ * symbols, replaces the symbol in the first of them. The table starts small and is
+ * doubled, up to its capacity, whenever it becomes a quarter full, which keeps such
+ * replacements rare, while the tables used for small graphs stay small.
+ *
+ * <p>
+ * Each call to map a graph or read text uses its own table, unless a table is supplied
+ * to the serializer or reusable mapper builder, in which case it is shared by all the
+ * calls of the serializer or mapper. A table can be shared by several threads: symbols
+ * are immutable strings and a lost update only means that a symbol is not
+ * deduplicated. The tables supplied to builders count the symbols looked up and found,
+ * and estimate the heap saved by returning canonical instances; the tables created for
+ * a single call do not keep these statistics.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class SymbolTable {
+  /**
+   * Creates a table holding at most {@link #DEFAULT_CAPACITY} symbols.
+   */
+  public SymbolTable() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a table holding at most the given number of symbols, rounded up to a
+   * power of 2.
+   */
+  public SymbolTable(int capacity) {
+    this(capacity, true);
+  }
+
+  private SymbolTable(int capacity, boolean statistics) {
+    checkArgument(capacity > 0, "capacity must be positive");
+    this.capacity = Integer.highestOneBit(Math.max(capacity, PROBES) * 2 - 1);
+    this.statistics = statistics;
+  }
+
+  /**
+   * Creates a table of {@link #DEFAULT_CAPACITY} symbols for a single call, which is not
+   * shared and does not keep statistics.
+   */
+  static SymbolTable unshared() {
+    return new SymbolTable(DEFAULT_CAPACITY, false);
+  }
+
+  /**
+   * Returns the canonical instance of the symbol, which becomes the symbol itself if no
+   * equal symbol is in the table.
+   */
+  public String intern(String symbol) {
+    if (symbol == null) {
+      return null;
+    }
+    String[] table = this.table;
+    if (table == null) {
+      // allocated on first use as many tables are used for a single small graph
+      table = this.table = new String[Math.min(capacity, INITIAL_SLOTS)];
+    }
+    int mask = table.length - 1;
+    int h = hash(symbol);
+    for (int probe = 0; probe < PROBES; probe++) {
+      int slot = (h + probe) & mask;
+      String canonical = table[slot];
+      if (canonical == null) {
+        table[slot] = symbol;
+        if (++size * 4 > table.length && table.length < capacity) {
+          grow(table);
+        }
+        if (statistics) {
+          misses.increment();
+        }
+        return symbol;
+      } else if (canonical == symbol || canonical.equals(symbol)) {
+        if (statistics) {
+          hits.increment();
+          if (canonical != symbol) {
+            bytesSaved.add(footprint(symbol));
+          }
+        }
+        return canonical;
+      }
+    }
+    table[h & mask] = symbol;
+    if (statistics) {
+      misses.increment();
+    }
+    return symbol;
+  }
+
+  /**
+   * Replaces the table with one twice as large holding the same symbols, except those
+   * which do not find a free slot in the larger table.
+   */
+  private void grow(String[] table) {
+    String[] grown = new String[table.length * 2];
+    int mask = grown.length - 1;
+    int count = 0;
+    for (String symbol : table) {
+      if (symbol != null) {
+        int h = hash(symbol);
+        for (int probe = 0; probe < PROBES; probe++) {
+          int slot = (h + probe) & mask;
+          if (grown[slot] == null) {
+            grown[slot] = symbol;
+            count++;
+            break;
+          }
+        }
+      }
+    }
+    size = count;
+    this.table = grown;
+  }
+
+  /**
+   * The number of symbols looked up since the table was created or its statistics
+   * last reset.
+   */
+  public long lookups() {
+    return hits.sum() + misses.sum();
+  }
+
+  /**
+   * The number of symbols looked up which were found in the table.
+   */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /**
+   * The proportion of the symbols looked up which were found in the table, or 0 if
+   * no symbol was looked up.
+   */
+  public double hitRate() {
+    long hits = this.hits.sum();
+    long lookups = hits + misses.sum();
+    return lookups == 0 ? 0 : (double)hits / lookups;
+  }
+
+  /**
+   * An estimate of the bytes of heap saved by replacing symbols with an equal
+   * canonical instance, assuming compressed references and strings of one byte
+   * per character (the usual compact form of the ASCII names of fields and types).
+   */
+  public long bytesSaved() {
+    return bytesSaved.sum();
+  }
+
+  /**
+   * Resets the counts of lookups, hits and bytes saved to zero.
+   */
+  public void resetStatistics() {
+    hits.reset();
+    misses.reset();
+    bytesSaved.reset();
+  }
+
+  /**
+   * The hash of the symbol, scrambled so that symbols with consecutive hash codes, such
+   * as the element keys i0, i1, ..., are spread over the table instead of filling runs
+   * of consecutive slots.
+   */
+  private static int hash(String symbol) {
+    // the finalizer of MurmurHash3
+    int h = symbol.hashCode();
+    h = (h ^ (h >>> 16)) * 0x85ebca6b;
+    h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Estimated size of a string object and its array of characters.
+   */
+  private static long footprint(String symbol) {
+    return STRING_SIZE + ((ARRAY_HEADER_SIZE + symbol.length() + 7) & ~7);
+  }
+
+  /**
+   * The default maximum number of symbols in a table, enough to hold the few thousand
+   * distinct field names and types of large graphs with few replacements.
+   */
+  public static final int DEFAULT_CAPACITY = 16384;
+
+  /**
+   * The number of slots of a table when first used.
+   */
+  private static final int INITIAL_SLOTS = 256;
+
+  /**
+   * The number of consecutive slots in which a symbol is looked up.
+   */
+  private static final int PROBES = 8;
+
+  private static final int STRING_SIZE = 24;
+  private static final int ARRAY_HEADER_SIZE = 16;
+
+  private final int capacity;
+  private String[] table;
+
+  /**
+   * The number of symbols in the table, approximate when the table is shared.
+   */
+  private int size;
+
+  /**
+   * True if lookups are counted.
+   */
+  private final boolean statistics;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+}
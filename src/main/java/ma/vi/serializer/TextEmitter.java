@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The writer through which the text serializers emit their output: the many short
+ * pieces of text making up each field (indentation, delimiters, name and value) are
+ * copied into a pooled character buffer, which is written to the underlying writer
+ * in a single call when full, instead of each piece being concatenated into a new
+ * string or written separately to a writer that may lock or encode on every call.
+ *
+ * <p>
+ * The buffer is written out and returned to the pool on {@link #release()}, after
+ * which the emitter cannot be used; {@link #close()} releases the emitter and closes
+ * the underlying writer.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class TextEmitter extends Writer {
+  TextEmitter(Writer out) {
+    this.out = out;
+    this.buffer = BufferPool.acquireChars();
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    if (position == buffer.length) {
+      flushBuffer();
+    }
+    buffer[position++] = (char)c;
+  }
+
+  @Override
+  public void write(String str) throws IOException {
+    write(str, 0, str.length());
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    if (len > buffer.length - position) {
+      flushBuffer();
+      if (len > buffer.length) {
+        out.write(str, off, len);
+        return;
+      }
+    }
+    str.getChars(off, off + len, buffer, position);
+    position += len;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    if (len > buffer.length - position) {
+      flushBuffer();
+      if (len > buffer.length) {
+        out.write(cbuf, off, len);
+        return;
+      }
+    }
+    System.arraycopy(cbuf, off, buffer, position, len);
+    position += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  /**
+   * Writes the text buffered to the underlying writer, without flushing it, and returns
+   * the buffer to the pool.
+   */
+  void release() throws IOException {
+    if (buffer != null) {
+      flushBuffer();
+      BufferPool.releaseChars(buffer);
+      buffer = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      release();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+  private final Writer out;
+  private char[] buffer;
+  private int position;
+}
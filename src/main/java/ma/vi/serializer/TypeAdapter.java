@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+/**
+ * Maps the objects of a type to and from a single compact textual form, in the
+ * same way as the literal types ({@link ma.vi.base.lang.Literal}). Adapters are
+ * registered for a class with {@link Mapper#registerAdapter(Class, TypeAdapter, boolean)},
+ * optionally for its subtypes as well, and are suitable for small value types such
+ * as amounts of money, identifiers and intervals.
+ *
+ * <p>
+ * The textual form produced must not start with {@link Mapper#OBJ_NAME_PREFIX}, so
+ * that it is not mistaken for a reference to another object.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public interface TypeAdapter<T> {
+  /**
+   * Returns the textual form of the non-null value.
+   */
+  String toMapped(T value);
+
+  /**
+   * Returns the value from its textual form, as produced by {@link #toMapped(Object)}.
+   */
+  T fromMapped(String text);
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import ma.vi.base.lang.Literal;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Array;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.Integer.parseInt;
+import static ma.vi.base.lang.Errors.unchecked;
+import static ma.vi.base.reflect.Classes.classOf;
+
+/**
+ * A parsed type string, as found in {@link Mapped#types}. Type strings are
+ * either class names or, for arrays, in the form type[x][][]... where type is the
+ * component type and x is the length of the first dimension (the lengths of the
+ * other dimensions are not specified).
+ *
+ * <p>
+ * Descriptors are cached by type string so that each distinct type string is parsed
+ * only once; the classes they refer to are resolved, also once, when first needed.
+ * As the type strings of arrays specify their length, which would make the cache grow
+ * with every distinct length, the descriptors of array types with a length are kept
+ * in a separate cache bounded to {@link #MAX_SIZED_ARRAY_TYPES} type strings, the
+ * least recently used being evicted first. These descriptors share the classes
+ * resolved by the cached descriptor of the same component type and number of
+ * dimensions.
+ * Descriptors can be scoped to a class loader, in which case classes are resolved
+ * through that loader and cached separately from the descriptors of other loaders.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public final class TypeDescriptor {
+  /**
+   * Returns the descriptor of the type string, resolving classes with the default
+   * class resolution of the mapper.
+   */
+  public static TypeDescriptor of(String type) {
+    return of(type, null, defaultScope);
+  }
+
+  /**
+   * Returns the descriptor of the type string, resolving classes through the supplied
+   * class loader. If the loader is null, this is the same as {@link #of(String)}.
+   */
+  public static TypeDescriptor of(String type, ClassLoader loader) {
+    if (loader == null) {
+      return of(type);
+    } else {
+      return of(type, loader, loaderScopes.getUnchecked(loader));
+    }
+  }
+
+  /**
+   * Returns the descriptor of the type string from the caches of the scope of the
+   * loader, adding it to the cache of its kind if not found.
+   */
+  private static TypeDescriptor of(String type, ClassLoader loader, Scope scope) {
+    boolean sized = hasLength(type);
+    TypeDescriptor descriptor = sized ? scope.sizedArrays.getIfPresent(type) : scope.descriptors.get(type);
+    if (descriptor == null) {
+      descriptor = new TypeDescriptor(type, loader, scope);
+      if (sized) {
+        scope.sizedArrays.put(type, descriptor);
+      } else {
+        TypeDescriptor cached = scope.descriptors.putIfAbsent(type, descriptor);
+        if (cached != null) {
+          descriptor = cached;
+        }
+      }
+    }
+    return descriptor;
+  }
+
+  /**
+   * True if the type string is that of an array type with a length.
+   */
+  private static boolean hasLength(String type) {
+    int pos = type.indexOf('[');
+    return pos != -1 && pos + 1 < type.length() && type.charAt(pos + 1) != ']';
+  }
+
+  /**
+   * Returns the cached instance of the type string equal to the one supplied, so that
+   * readers keep a single copy of each distinct type string; null if the type is null.
+   */
+  static String canonical(String type) {
+    return type == null ? null : of(type).type;
+  }
+
+  private TypeDescriptor(String type, ClassLoader loader, Scope scope) {
+    this.type = type;
+    this.loader = loader == null ? null : new WeakReference<>(loader);
+
+    int pos = type.indexOf('[');
+    if (pos == -1) {
+      componentName = type;
+      dimensions = 0;
+      length = -1;
+    } else {
+      componentName = type.substring(0, pos);
+      int dims = 0;
+      for (int i = pos; i < type.length(); i++) {
+        if (type.charAt(i) == '[') {
+          dims++;
+        }
+      }
+      dimensions = dims;
+
+      int len;
+      try {
+        len = parseInt(type.substring(pos + 1, type.indexOf(']', pos + 1)));
+      } catch (RuntimeException e) {
+        // unspecified or malformed length
+        len = -1;
+      }
+      length = len;
+    }
+    shape = length == -1 ? this : of(componentName + "[]".repeat(dimensions), loader, scope);
+  }
+
+  /**
+   * True if this is an array type.
+   */
+  public boolean isArray() {
+    return dimensions > 0;
+  }
+
+  /**
+   * The class of this type.
+   */
+  public Class<?> type() {
+    Resolution r = resolution();
+    return r.type.get();
+  }
+
+  /**
+   * The component type of the array type, or the class of this type if it is
+   * not an array type.
+   */
+  public Class<?> componentType() {
+    Resolution r = resolution();
+    return r.componentType.get();
+  }
+
+  /**
+   * True if this type (or its component type, for arrays) is a literal type
+   * which is mapped to and from text as a whole.
+   */
+  public boolean isLiteral() {
+    return resolution().literal;
+  }
+
+  /**
+   * Converts the textual representation of a value of this (literal) type to the value.
+   */
+  public Object toValue(String text) {
+    return Literal.toValue(type(), text);
+  }
+
+  /**
+   * Returns the resolution of the classes of this type, resolving them if not
+   * already done (or if they have been unloaded since).
+   */
+  private Resolution resolution() {
+    if (shape != this) {
+      return shape.resolution();
+    }
+    Resolution r = resolution;
+    if (r == null || r.type.get() == null) {
+      try {
+        Class<?> component;
+        Class<?> type;
+        if (loader == null) {
+          component = classOf(componentName);
+          type = dimensions == 0 ? component : classOf(this.type);
+        } else {
+          ClassLoader classLoader = loader.get();
+          checkState(classLoader != null, "Class loader of type " + this.type + " has been unloaded");
+          component = componentName.indexOf('.') == -1
+                      ? classOf(componentName)   // primitive types
+                      : Class.forName(componentName, false, classLoader);
+          type = dimensions == 0 ? component : Array.newInstance(component, new int[dimensions]).getClass();
+        }
+        r = resolution = new Resolution(type, component, Literal.isLiteral(component));
+      } catch (Exception e) {
+        throw unchecked(e);
+      }
+    }
+    return r;
+  }
+
+  /**
+   * The resolved classes of a type. These are weakly referenced so that the cached
+   * descriptors do not prevent the unloading of classes and their class loaders.
+   */
+  private static class Resolution {
+    Resolution(Class<?> type, Class<?> componentType, boolean literal) {
+      this.type = new WeakReference<>(type);
+      this.componentType = new WeakReference<>(componentType);
+      this.literal = literal;
+    }
+
+    final WeakReference<Class<?>> type;
+    final WeakReference<Class<?>> componentType;
+    final boolean literal;
+  }
+
+  @Override
+  public String toString() {
+    return type;
+  }
+
+  /**
+   * The type string.
+   */
+  public final String type;
+
+  /**
+   * The name of the component type for arrays, otherwise same as the type string.
+   */
+  public final String componentName;
+
+  /**
+   * The number of dimensions of the array type; 0 if not an array type.
+   */
+  public final int dimensions;
+
+  /**
+   * The length of the first dimension of the array type; -1 if not an array type
+   * or if the length is not specified.
+   */
+  public final int length;
+
+  /**
+   * The class loader to resolve classes with; null for the default.
+   */
+  private final WeakReference<ClassLoader> loader;
+
+  /**
+   * The cached descriptor of the array type without its length, which resolves the
+   * classes of this type; this descriptor itself if it has no length.
+   */
+  private final TypeDescriptor shape;
+
+  /**
+   * The classes of this type, resolved when first needed.
+   */
+  private volatile Resolution resolution;
+
+  /**
+   * The caches of the descriptors of a scope: the descriptors of the type strings
+   * without a length, of which there is one per class and array type, and a bounded
+   * cache of those of the array type strings with a length.
+   */
+  private static class Scope {
+    final ConcurrentMap<String, TypeDescriptor> descriptors = new ConcurrentHashMap<>();
+
+    final Cache<String, TypeDescriptor> sizedArrays =
+        CacheBuilder.newBuilder().maximumSize(MAX_SIZED_ARRAY_TYPES).build();
+  }
+
+  /**
+   * The maximum number of array type strings with a length whose descriptors are
+   * cached in each scope.
+   */
+  static final int MAX_SIZED_ARRAY_TYPES = 4096;
+
+  /**
+   * Descriptors of the default scope.
+   */
+  private static final Scope defaultScope = new Scope();
+
+  /**
+   * Descriptors scoped to class loaders, weakly referencing the latter.
+   */
+  private static final LoadingCache<ClassLoader, Scope> loaderScopes =
+      CacheBuilder.newBuilder().weakKeys().build(new CacheLoader<>() {
+        @Override
+        public Scope load(ClassLoader loader) {
+          return new Scope();
+        }
+      });
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * A reader decoding UTF-8 directly from a pooled byte buffer filled from the
+ * underlying stream. Runs of ASCII bytes are copied a character per byte without
+ * going through a charset decoder. Malformed sequences are replaced by U+FFFD, as
+ * the standard decoder does.
+ *
+ * <p>
+ * The buffer is returned to the pool on {@link #release()}, after which the reader
+ * cannot be used; {@link #close()} releases the reader and closes the underlying
+ * stream.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class Utf8Reader extends Reader {
+  Utf8Reader(InputStream in) {
+    this.in = in;
+    this.buffer = BufferPool.acquire();
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (lowSurrogate == 0 && position < limit && buffer[position] >= 0) {
+      return buffer[position++];
+    }
+    char[] c = new char[1];
+    return read(c, 0, 1) == -1 ? -1 : c[0];
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int n = 0;
+    if (lowSurrogate != 0) {
+      cbuf[off + n++] = lowSurrogate;
+      lowSurrogate = 0;
+    }
+    byte[] buffer = this.buffer;
+    while (n < len) {
+      if (position == limit) {
+        // block for more bytes only if no character has been read yet
+        if (n > 0 && in.available() <= 0) {
+          break;
+        }
+        if (!fill(0)) {
+          break;
+        }
+      }
+
+      // ASCII fast path up to the end of the request or of the bytes buffered
+      int position = this.position;
+      int end = Math.min(limit, position + len - n);
+      byte b;
+      while (position < end && (b = buffer[position]) >= 0) {
+        cbuf[off + n++] = (char)b;
+        position++;
+      }
+      this.position = position;
+      if (n < len && position < limit) {
+        int code = decode();
+        if (code < 0x10000) {
+          cbuf[off + n++] = (char)code;
+        } else {
+          cbuf[off + n++] = Character.highSurrogate(code);
+          if (n < len) {
+            cbuf[off + n++] = Character.lowSurrogate(code);
+          } else {
+            lowSurrogate = Character.lowSurrogate(code);
+          }
+        }
+      }
+    }
+    return n == 0 ? -1 : n;
+  }
+
+  /**
+   * Returns the buffer to the pool without closing the underlying stream.
+   */
+  void release() {
+    BufferPool.release(buffer);
+    buffer = null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      release();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Decodes the sequence of bytes starting with the non-ASCII byte at the current
+   * position, returning its code point. A malformed sequence is replaced by U+FFFD
+   * for each of its maximal valid prefixes, as the standard decoder does.
+   */
+  private int decode() throws IOException {
+    int lead = buffer[position] & 0xff;
+    int length, code;
+    // range of the second byte, excluding overlong forms and code points beyond U+10FFFF
+    int low = 0x80, high = 0xbf;
+    if (lead >= 0xc2 && lead < 0xe0) {
+      length = 2;
+      code = lead & 0x1f;
+    } else if (lead >= 0xe0 && lead < 0xf0) {
+      length = 3;
+      code = lead & 0x0f;
+      if (lead == 0xe0) {
+        low = 0xa0;
+      }
+    } else if (lead >= 0xf0 && lead < 0xf5) {
+      length = 4;
+      code = lead & 0x07;
+      if (lead == 0xf0) {
+        low = 0x90;
+      } else if (lead == 0xf4) {
+        high = 0x8f;
+      }
+    } else {
+      position++;
+      return REPLACEMENT;
+    }
+    if (limit - position < length) {
+      fill(length);
+    }
+    int i = 1;
+    for (; i < length && position + i < limit; i++) {
+      int b = buffer[position + i] & 0xff;
+      if (i == 1 ? b < low || b > high : (b & 0xc0) != 0x80) {
+        break;
+      }
+      code = code << 6 | (b & 0x3f);
+    }
+    if (i < length) {
+      // replace the valid prefix of the malformed sequence
+      position += i;
+      return REPLACEMENT;
+    }
+    position += length;
+    return code >= Character.MIN_SURROGATE && code <= Character.MAX_SURROGATE ? REPLACEMENT : code;
+  }
+
+  /**
+   * Moves the bytes remaining in the buffer to its start and reads more bytes until at
+   * least the given number of bytes, or one byte if 0, are buffered or the end of the
+   * stream is reached. Returns false if there are no bytes buffered.
+   */
+  private boolean fill(int required) throws IOException {
+    int remaining = limit - position;
+    if (remaining > 0 && position > 0) {
+      System.arraycopy(buffer, position, buffer, 0, remaining);
+    }
+    position = 0;
+    limit = remaining;
+    int min = Math.max(required, 1);
+    while (limit < min) {
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read == -1) {
+        break;
+      }
+      limit += read;
+    }
+    return limit > 0;
+  }
+
+  private static final char REPLACEMENT = '\uFFFD';
+
+  private final InputStream in;
+  private byte[] buffer;
+  private int position;
+  private int limit;
+
+  /**
+   * The low surrogate of a supplementary character decoded last, which did not fit in
+   * the characters requested.
+   */
+  private char lowSurrogate;
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * A writer encoding the characters written to it in UTF-8 directly into a pooled byte
+ * buffer, written to the underlying stream when full or flushed. Runs of ASCII
+ * characters, which make up most of the text of serialized maps, are copied a byte
+ * per character without going through a charset encoder. Unpaired surrogates are
+ * replaced by '?', as the standard encoder does.
+ *
+ * <p>
+ * The buffer is returned to the pool on {@link #release()}, after which the writer
+ * cannot be used; {@link #close()} flushes and releases the writer and closes the
+ * underlying stream.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+final class Utf8Writer extends Writer {
+  Utf8Writer(OutputStream out) {
+    this.out = out;
+    this.buffer = BufferPool.acquire();
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    if (c < 0x80 && highSurrogate == 0) {
+      if (position == buffer.length) {
+        flushBuffer();
+      }
+      buffer[position++] = (byte)c;
+    } else {
+      encode((char)c);
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    byte[] buffer = this.buffer;
+    int end = off + len;
+    while (off < end) {
+      // ASCII fast path up to the end of the text or of the buffer
+      int position = this.position;
+      int limit = Math.min(end, off + buffer.length - position);
+      if (highSurrogate == 0) {
+        char c;
+        while (off < limit && (c = str.charAt(off)) < 0x80) {
+          buffer[position++] = (byte)c;
+          off++;
+        }
+      }
+      this.position = position;
+      if (off < end) {
+        if (position == buffer.length) {
+          flushBuffer();
+        } else {
+          encode(str.charAt(off++));
+        }
+      }
+    }
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    byte[] buffer = this.buffer;
+    int end = off + len;
+    while (off < end) {
+      int position = this.position;
+      int limit = Math.min(end, off + buffer.length - position);
+      if (highSurrogate == 0) {
+        char c;
+        while (off < limit && (c = cbuf[off]) < 0x80) {
+          buffer[position++] = (byte)c;
+          off++;
+        }
+      }
+      this.position = position;
+      if (off < end) {
+        if (position == buffer.length) {
+          flushBuffer();
+        } else {
+          encode(cbuf[off++]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public Writer append(CharSequence csq) throws IOException {
+    String text = String.valueOf(csq);
+    write(text, 0, text.length());
+    return this;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  /**
+   * Flushes the characters written and returns the buffer to the pool, without closing
+   * the underlying stream.
+   */
+  void release() throws IOException {
+    if (buffer != null) {
+      if (highSurrogate != 0) {
+        highSurrogate = 0;
+        write('?');
+      }
+      flush();
+      BufferPool.release(buffer);
+      buffer = null;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      release();
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Encodes a character which is not ASCII or follows a high surrogate.
+   */
+  private void encode(char c) throws IOException {
+    if (position > buffer.length - 4) {
+      flushBuffer();
+    }
+    byte[] buffer = this.buffer;
+    if (highSurrogate != 0) {
+      char high = highSurrogate;
+      highSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        int code = Character.toCodePoint(high, c);
+        buffer[position++] = (byte)(0xf0 | code >> 18);
+        buffer[position++] = (byte)(0x80 | (code >> 12 & 0x3f));
+        buffer[position++] = (byte)(0x80 | (code >> 6 & 0x3f));
+        buffer[position++] = (byte)(0x80 | (code & 0x3f));
+        return;
+      }
+      buffer[position++] = '?';
+      if (position > buffer.length - 4) {
+        flushBuffer();
+      }
+    }
+    if (c < 0x80) {
+      buffer[position++] = (byte)c;
+    } else if (c < 0x800) {
+      buffer[position++] = (byte)(0xc0 | c >> 6);
+      buffer[position++] = (byte)(0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      buffer[position++] = '?';
+    } else {
+      buffer[position++] = (byte)(0xe0 | c >> 12);
+      buffer[position++] = (byte)(0x80 | (c >> 6 & 0x3f));
+      buffer[position++] = (byte)(0x80 | (c & 0x3f));
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if (position > 0) {
+      out.write(buffer, 0, position);
+      position = 0;
+    }
+  }
+
+  private final OutputStream out;
+  private byte[] buffer;
+  private int position;
+
+  /**
+   * A high surrogate written last, waiting for the low surrogate following it.
+   */
+  private char highSurrogate;
+}
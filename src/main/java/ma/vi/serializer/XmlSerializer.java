@@ -16,11 +16,9 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
-import static com.google.common.base.Strings.repeat;
-import static java.util.Map.Entry;
 import static ma.vi.base.lang.Literal.NULL_LITERAL;
 import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
-import static ma.vi.serializer.Mapper.uniqueObjectName;
+import static ma.vi.serializer.TypeDescriptor.canonical;
 import static ma.vi.base.xml.Fragment.Type.T_START_ELEMENT;
 
 /**
@@ -36,6 +34,8 @@ public class XmlSerializer extends AbstractSerializerWriter {
         .discardInterElementSpaces(true)
         .build()) {
       Mapped map = new Mapped();
+      InlineNamer namer = new InlineNamer(map, namingStrategy);
+      SymbolTable symbols = symbols();
 
       // read root element
       xml.next();
@@ -47,31 +47,31 @@ public class XmlSerializer extends AbstractSerializerWriter {
         String objectName = de.text;
         String type = de.attributes.get("type");
 
+        namer.claim(objectName);
         if (multiRefObjects == null) {
           multiRefObjects = new HashSet<>();
           map.singleRefObjects.add(objectName);
         }
 
-        readObject(map, objectName, type, multiRefObjects, xml);
+        readObject(map, objectName, type, multiRefObjects, namer, symbols, xml);
       }
       return map;
     }
   }
 
-  protected void readObject(Mapped map, String objectName, String type, Set<String> multiRefObjects, XmlReader xml) {
+  protected void readObject(Mapped map, String objectName, String type, Set<String> multiRefObjects, InlineNamer namer, SymbolTable symbols, XmlReader xml) {
     Fragment de;
-    map.types.put(objectName, type);
+    map.types.put(objectName, symbols.intern(canonical(type)));
     Map<String, String> object = new LinkedHashMap<>();
     map.objects.put(objectName, object);
 
     while ((de = xml.next()).type == T_START_ELEMENT) {
-      String fieldName = de.text;
+      String fieldName = symbols.intern(de.text);
       String valueType = de.attributes.get("type");
       if (valueType != null) {
-        String valueObjectName = uniqueObjectName(object, fieldName, map.objects.keySet());
-        map.singleRefObjects.add(valueObjectName);
-        readObject(map, valueObjectName, valueType, multiRefObjects, xml);
+        String valueObjectName = namer.name(object, fieldName);
         object.put(fieldName, valueObjectName);
+        readObject(map, valueObjectName, valueType, multiRefObjects, namer, symbols, xml);
 
       } else {
         // read the element contents
@@ -83,6 +83,7 @@ public class XmlSerializer extends AbstractSerializerWriter {
 
           // if refers to another object, update referencing sets.
           if (de.text.startsWith(OBJ_NAME_PREFIX)) {
+            namer.claim(de.text);
             if (map.singleRefObjects.contains(de.text)) {
               multiRefObjects.add(de.text);
               map.singleRefObjects.remove(de.text);
@@ -100,66 +101,78 @@ public class XmlSerializer extends AbstractSerializerWriter {
   }
 
   @Override
-  protected void writeHeader(Mapped map, Writer out) throws IOException {
+  protected void writeHeader(Writer out) throws IOException {
     out.write("<?xml version='1.0' encoding='" + encoding.name() + "'?>" + lineSeparator);
     out.write("<" + rootElement + ">" + lineSeparator);
   }
 
   @Override
-  protected void writeFooter(Mapped map, Writer out) throws IOException {
+  protected void writeFooter(Writer out) throws IOException {
     out.write("</" + rootElement + ">");
   }
 
   @Override
-  protected void writeObjectStart(Mapped map, Writer out,
-                                  String name, String type,
-                                  String indent, Map<String, String> object,
-                                  boolean first) throws IOException {
-    out.write(indent + "<" + name + " type='" + type + "'>" + lineSeparator);
+  protected void writeObjectStart(Writer out, String name, String type, String indent, boolean first) throws IOException {
+    out.write(indent);
+    out.write('<');
+    out.write(name);
+    out.write(" type='");
+    out.write(type);
+    out.write("'>");
+    out.write(lineSeparator);
   }
 
   @Override
-  protected void writeObjectEnd(Mapped map, Writer out,
-                                String name, String type,
-                                String indent, Map<String, String> object,
-                                boolean first) throws IOException {
-    out.write(indent + "</" + name + '>' + lineSeparator);
+  protected void writeObjectEnd(Writer out, String name, String indent) throws IOException {
+    out.write(indent);
+    out.write("</");
+    out.write(name);
+    out.write('>');
+    out.write(lineSeparator);
   }
 
   @Override
-  protected void writeObject(Mapped map,
-                             Writer out,
-                             String name,
-                             String type,
-                             String indent,
-                             Map<String, String> object,
-                             boolean first,
-                             Set<String> written,
-                             int level) throws IOException {
-    written.add(name);
-    String indentation = repeat(indent, level);
-    for (Entry<String, String> field : object.entrySet()) {
-      String fieldName = field.getKey();
-      String value = field.getValue();
-      if (value == null) {
-        value = NULL_LITERAL;
-      }
-      if (inlineSingleRefObjects &&
-          value.startsWith(OBJ_NAME_PREFIX) &&
-          map.singleRefObjects.contains(value) &&
-          map.objects.containsKey(value)) {
+  protected void writeField(Writer out, String fieldName, String value,
+                            String indent, String indentation) throws IOException {
+    out.write(indentation);
+    out.write('<');
+    out.write(fieldName);
+    out.write('>');
+    if (value == null) {
+      out.write(NULL_LITERAL);
+    } else if (value.indexOf('<') != -1 || value.indexOf('>') != -1 || value.indexOf('&') != -1) {
+      out.write("<![CDATA[");
+      out.write(value);
+      out.write("]]>");
+    } else {
+      out.write(value);
+    }
+    out.write("</");
+    out.write(fieldName);
+    out.write('>');
+    out.write(lineSeparator);
+  }
 
-        out.write(indentation + '<' + fieldName + " type='" + map.types.get(value) + "'>" + lineSeparator);
-        writeObject(map, out, value, map.types.get(value), indent, map.objects.get(value), false, written, level + 1);
-        out.write(indentation + "</" + fieldName + '>' + lineSeparator);
+  @Override
+  protected void writeInlineStart(Writer out, String fieldName, String type,
+                                  String indent, String indentation) throws IOException {
+    out.write(indentation);
+    out.write('<');
+    out.write(fieldName);
+    out.write(" type='");
+    out.write(type);
+    out.write("'>");
+    out.write(lineSeparator);
+  }
 
-      } else {
-        if (value.contains("<") || value.contains(">") || value.contains("&")) {
-          value = "<![CDATA[" + value + "]]>";
-        }
-        out.write(indentation + '<' + fieldName + '>' + value + "</" + fieldName + '>' + lineSeparator);
-      }
-    }
+  @Override
+  protected void writeInlineEnd(Writer out, String fieldName,
+                                String indent, String indentation) throws IOException {
+    out.write(indentation);
+    out.write("</");
+    out.write(fieldName);
+    out.write('>');
+    out.write(lineSeparator);
   }
 
   /**
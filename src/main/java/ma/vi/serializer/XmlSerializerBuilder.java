@@ -52,6 +52,9 @@ public class XmlSerializerBuilder extends AbstractSerializerBuilder<XmlSerialize
     xml.lineSeparator = lineSeparator;
     xml.encoding = encoding;
     xml.inlineSingleRefObjects = inlineSingleRefObjects;
+    xml.namingStrategy = namingStrategy;
+    xml.symbolTable = symbolTable;
+    xml.compression = compression;
     xml.rootElement = rootElement;
     return xml;
   }
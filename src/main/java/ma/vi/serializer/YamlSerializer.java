@@ -4,6 +4,7 @@
 
 package ma.vi.serializer;
 
+import org.yaml.snakeyaml.LoaderOptions;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.events.Event;
 import org.yaml.snakeyaml.events.MappingEndEvent;
@@ -16,10 +17,8 @@ import java.io.Writer;
 import java.util.*;
 
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.base.Strings.repeat;
-import static java.util.Map.Entry;
 import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
-import static ma.vi.serializer.Mapper.uniqueObjectName;
+import static ma.vi.serializer.TypeDescriptor.canonical;
 
 /**
  * The YAML serializer.
@@ -30,8 +29,13 @@ public class YamlSerializer extends AbstractSerializerWriter {
 
   @Override
   public Mapped toMap(Reader in) throws IOException {
-    Yaml yaml = new Yaml();
+    // lift the limit on the size of the documents read, of 3 MB by default
+    LoaderOptions options = new LoaderOptions();
+    options.setCodePointLimit(Integer.MAX_VALUE);
+    Yaml yaml = new Yaml(options);
     Mapped map = new Mapped();
+    InlineNamer namer = new InlineNamer(map, namingStrategy);
+    SymbolTable symbols = symbols();
     Set<String> multiRefObjects = null;
 
     String s;
@@ -50,34 +54,33 @@ public class YamlSerializer extends AbstractSerializerWriter {
       e = parser.next();
       String type = ((ScalarEvent) e).getValue();
 
+      namer.claim(objectName);
       if (multiRefObjects == null) {
         multiRefObjects = new HashSet<>();
         map.singleRefObjects.add(objectName);
       }
-      readObject(map, objectName, type, multiRefObjects, parser);
+      readObject(map, objectName, type, multiRefObjects, namer, symbols, parser);
     }
     return map;
   }
 
-  private void readObject(Mapped map, String objectName, String type, Set<String> multiRefObjects, Iterator<Event> parser) throws IOException {
-    map.types.put(objectName, type);
+  private void readObject(Mapped map, String objectName, String type, Set<String> multiRefObjects, InlineNamer namer, SymbolTable symbols, Iterator<Event> parser) throws IOException {
+    map.types.put(objectName, symbols.intern(canonical(type)));
     Map<String, String> object = new LinkedHashMap<>();
     map.objects.put(objectName, object);
 
     Event e;
     while (!((e = parser.next()) instanceof MappingEndEvent)) {
-      String fieldName = ((ScalarEvent) e).getValue();
+      String fieldName = symbols.intern(((ScalarEvent) e).getValue());
       if ((e = parser.next()) instanceof MappingStartEvent) {
         // first field name must be class and contains the type of the object
         parser.next();
         e = parser.next();
 
         String valueType = ((ScalarEvent) e).getValue();
-        String valueObjectName = uniqueObjectName(object, fieldName, map.objects.keySet());
-
-        map.singleRefObjects.add(valueObjectName);
-        readObject(map, valueObjectName, valueType, multiRefObjects, parser);
+        String valueObjectName = namer.name(object, fieldName);
         object.put(fieldName, valueObjectName);
+        readObject(map, valueObjectName, valueType, multiRefObjects, namer, symbols, parser);
 
       } else {
         // read the element contents
@@ -89,6 +92,7 @@ public class YamlSerializer extends AbstractSerializerWriter {
 
           // if refers to another object, update referencing sets.
           if (text.startsWith(OBJ_NAME_PREFIX)) {
+            namer.claim(text);
             if (map.singleRefObjects.contains(text)) {
               multiRefObjects.add(text);
               map.singleRefObjects.remove(text);
@@ -103,59 +107,70 @@ public class YamlSerializer extends AbstractSerializerWriter {
   }
 
   @Override
-  protected void writeHeader(Mapped map, Writer out) throws IOException {
+  protected void writeHeader(Writer out) throws IOException {
   }
 
   @Override
-  protected void writeFooter(Mapped map, Writer out) throws IOException {
+  protected void writeFooter(Writer out) throws IOException {
   }
 
   @Override
-  protected void writeObjectStart(Mapped map, Writer out,
-                                  String name, String type,
-                                  String indent, Map<String, String> object,
-                                  boolean first) throws IOException {
-    out.write(name + ':' + lineSeparator);
-    out.write(indent + " class: " + type + lineSeparator);
+  protected void writeObjectStart(Writer out, String name, String type, String indent, boolean first) throws IOException {
+    out.write(name);
+    out.write(':');
+    out.write(lineSeparator);
+    out.write(indent);
+    out.write(" class: ");
+    out.write(type);
+    out.write(lineSeparator);
   }
 
   @Override
-  protected void writeObjectEnd(Mapped map, Writer out,
-                                String name, String type,
-                                String indent, Map<String, String> object,
-                                boolean first) throws IOException {
+  protected void writeObjectEnd(Writer out, String name, String indent) throws IOException {
   }
 
+  /**
+   * Fields are indented one level less than in the other formats, as objects have
+   * no enclosing element of their own.
+   */
   @Override
-  protected void writeObject(Mapped map,
-                             Writer out,
-                             String name,
-                             String type,
-                             String indent,
-                             Map<String, String> object,
-                             boolean first,
-                             Set<String> written,
-                             int level) throws IOException {
-    written.add(name);
-    String indentation = repeat(indent, level - 1);
-    for (Entry<String, String> field : object.entrySet()) {
-      String fieldName = field.getKey();
-      String value = field.getValue();
-      if (value == null) {
-        out.write(indentation + ' ' + fieldName + ": null" + lineSeparator);
-
-      } else if (inlineSingleRefObjects &&
-          value.startsWith(OBJ_NAME_PREFIX) &&
-          map.singleRefObjects.contains(value) &&
-          map.objects.containsKey(value)) {
-
-        out.write(indentation + ' ' + fieldName + ':' + lineSeparator);
-        out.write(indentation + indent + " class: " + map.types.get(value) + lineSeparator);
-        writeObject(map, out, value, map.types.get(value), indent, map.objects.get(value), false, written, level + 1);
+  protected String indentation(String indent, int level) {
+    return super.indentation(indent, level - 1);
+  }
 
-      } else {
-        out.write(indentation + ' ' + fieldName + ": \"" + JsonSerializer.escapeText(value) + '"' + lineSeparator);
-      }
+  @Override
+  protected void writeField(Writer out, String fieldName, String value,
+                            String indent, String indentation) throws IOException {
+    out.write(indentation);
+    out.write(' ');
+    out.write(fieldName);
+    if (value == null) {
+      out.write(": null");
+    } else {
+      out.write(": \"");
+      JsonSerializer.writeEscaped(out, value);
+      out.write('"');
     }
+    out.write(lineSeparator);
+  }
+
+  @Override
+  protected void writeInlineStart(Writer out, String fieldName, String type,
+                                  String indent, String indentation) throws IOException {
+    out.write(indentation);
+    out.write(' ');
+    out.write(fieldName);
+    out.write(':');
+    out.write(lineSeparator);
+    out.write(indentation);
+    out.write(indent);
+    out.write(" class: ");
+    out.write(type);
+    out.write(lineSeparator);
+  }
+
+  @Override
+  protected void writeInlineEnd(Writer out, String fieldName,
+                                String indent, String indentation) throws IOException {
   }
-}
\ No newline at end of file
+}
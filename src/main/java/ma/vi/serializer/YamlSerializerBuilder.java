@@ -34,6 +34,9 @@ public class YamlSerializerBuilder extends AbstractSerializerBuilder<YamlSeriali
     yaml.lineSeparator = lineSeparator;
     yaml.encoding = encoding;
     yaml.inlineSingleRefObjects = inlineSingleRefObjects;
+    yaml.namingStrategy = namingStrategy;
+    yaml.symbolTable = symbolTable;
+    yaml.compression = compression;
     return yaml;
   }
 
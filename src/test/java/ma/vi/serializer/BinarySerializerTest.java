@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.base.collections.Maps;
+import ma.vi.base.tuple.T2;
+import ma.vi.base.tuple.T3;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static ma.vi.serializer.MapperTest.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class BinarySerializerTest {
+  private Fixture fixture;
+
+  @Before
+  public void init() {
+    fixture = new Fixture();
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    BinarySerializer ser = BinarySerializerBuilder.newBuilder().build();
+    BinarySerializer untyped = BinarySerializerBuilder.newBuilder().typedLiterals(false).bufferSize(16).build();
+    for (Object o: fixture.graphs()) {
+      Mapped map = Mapper.toMap(o);
+      assertEquals(map, ser.toMap(ser.toBytes(map)));
+      assertEquals(map, untyped.toMap(untyped.toBytes(map)));
+      assertEquals(map, ser.toMap(ser.toText(map)));
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ser.write(map, out);
+      Mapped read = ser.read(new ByteArrayInputStream(out.toByteArray()));
+      assertEquals(map, read);
+      assertEquals(Mapper.toMap(Mapper.fromMap(map), AccessStrategy.GENERATED, NamingStrategy.COUNTER),
+                   Mapper.toMap(Mapper.fromMap(read), AccessStrategy.GENERATED, NamingStrategy.COUNTER));
+    }
+
+    IndexedMapped indexed = Mapper.toIndexedMap(fixture.composite());
+    assertEquals(indexed.toMapped(), ser.toMap(ser.toText(indexed)));
+  }
+
+  /**
+   * Values which are numbers or booleans in text not produced by their toString method
+   * must be read back unchanged, as well as the types and single references of names
+   * which are not objects in the map.
+   */
+  @Test
+  public void roundTripAnyMap() throws Exception {
+    String[] values = {null, "true", "false", "True", "0", "-0", "007", "+1", "123", "-9223372036854775808",
+                       "9223372036854775807", "9223372036854775808", "1.0E10", "1e10", "0.30000000000000004",
+                       "3.141592653589793", "NaN", "-Infinity", "\u00e9\u4e00\ud83d\ude00", "", "obj_ref_b"};
+    Mapped map = new Mapped();
+    Map<String, String> first = new LinkedHashMap<>();
+    for (int i = 0; i < values.length; i++) {
+      first.put("f" + i, values[i]);
+    }
+    map.objects.put("obj_ref_a", first);
+    map.objects.put("obj_ref_b", new LinkedHashMap<>(Map.of("x", "obj_ref_a")));
+    map.objects.put("unprefixed", new LinkedHashMap<>());
+    map.types.put("obj_ref_a", "ma.A");
+    map.types.put("obj_ref_b", "ma.B");
+    map.types.put("orphan", "ma.C");
+    map.types.put("untyped", null);
+    map.singleRefObjects.add("obj_ref_b");
+    map.singleRefObjects.add("missing");
+
+    BinarySerializer ser = BinarySerializerBuilder.newBuilder().bufferSize(16).build();
+    Mapped read = ser.toMap(ser.toBytes(map));
+    assertEquals(map, read);
+    assertEquals(new ArrayList<>(first.values()), new ArrayList<>(read.objects.get("obj_ref_a").values()));
+
+    assertTrue(BinarySerializer.isCanonicalLong("-9223372036854775808"));
+    assertFalse(BinarySerializer.isCanonicalLong("9223372036854775808"));
+    assertFalse(BinarySerializer.isCanonicalLong("-0"));
+    assertFalse(BinarySerializer.isCanonicalLong("01"));
+    assertTrue(BinarySerializer.isCanonicalDouble("0.30000000000000004"));
+    assertFalse(BinarySerializer.isCanonicalDouble("1e10"));
+  }
+
+  @Test
+  public void binaryPerf() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), fixture.k));
+    for (int i = 0; i < 10000; i++) {
+      obj.put(T3.of("x", i, now), fixture.k);
+    }
+    Numeric[] numbers = numbers(10000);
+
+    JsonSerializer json = JsonSerializerBuilder.newBuilder().build();
+    BinarySerializer binary = BinarySerializerBuilder.newBuilder().build();
+    for (Object o: new Object[]{obj, numbers}) {
+      Mapped map = Mapper.toMap(o);
+      String text = json.toText(map);
+      byte[] bytes = binary.toBytes(map);
+      System.out.println("JSON size: " + text.getBytes(json.encoding).length + ", binary size: " + bytes.length);
+
+      // heat up
+      int reps = 5;
+      for (int i = 0; i < reps; i++) {
+        json.toMap(json.toText(map));
+        binary.toMap(binary.toBytes(map));
+      }
+
+      int x = 0;
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < reps; i++) {
+        x |= System.identityHashCode(json.toText(map));
+      }
+      System.out.println("Time taken to write JSON: " + ((System.currentTimeMillis() - start) / reps));
+      start = System.currentTimeMillis();
+      for (int i = 0; i < reps; i++) {
+        x |= System.identityHashCode(binary.toBytes(map));
+      }
+      System.out.println("Time taken to write binary: " + ((System.currentTimeMillis() - start) / reps));
+
+      start = System.currentTimeMillis();
+      for (int i = 0; i < reps; i++) {
+        x |= System.identityHashCode(json.toMap(text));
+      }
+      System.out.println("Time taken to read JSON: " + ((System.currentTimeMillis() - start) / reps));
+      start = System.currentTimeMillis();
+      for (int i = 0; i < reps; i++) {
+        x |= System.identityHashCode(binary.toMap(bytes));
+      }
+      System.out.println("Time taken to read binary: " + ((System.currentTimeMillis() - start) / reps));
+      System.out.println(x);
+
+      assertEquals(map, binary.toMap(bytes));
+    }
+  }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2016 Vikash Madhow
+ */
+
+package ma.vi.serializer;
+
+import ma.vi.base.collections.Maps;
+import ma.vi.base.tuple.T2;
+import ma.vi.base.tuple.T3;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static ma.vi.serializer.MapperTest.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the Jackson binary formats share the structure of JSON, and benchmarks
+ * all serialization formats on the same object graphs through a single harness.
+ *
+ * @author Vikash Madhow (vikash.madhow@gmail.com)
+ */
+public class FormatsTest {
+  private Fixture fixture;
+
+  @Before
+  public void init() {
+    fixture = new Fixture();
+  }
+
+  @Test
+  public void jacksonFormats() throws Exception {
+    JsonSerializer json = JsonSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build();
+    JsonSerializer jsonNotInlined = JsonSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER)
+                                                         .inlineSingleRefObjects(false).build();
+    AbstractJacksonSerializer[] serializers = {
+        SmileSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build(),
+        SmileSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).sharedStringValues(false).build(),
+        CborSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build(),
+        CborSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).inlineSingleRefObjects(false).build()
+    };
+    for (Object o: fixture.graphs()) {
+      Mapped map = Mapper.toMap(o, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+      for (AbstractJacksonSerializer serializer: serializers) {
+        // the binary formats read the same map as JSON written with the same inlining
+        JsonSerializer text = serializer.inlineSingleRefObjects ? json : jsonNotInlined;
+        Mapped fromJson = text.toMap(text.toText(map));
+        assertEquals(fromJson, serializer.toMap(serializer.toBytes(map)));
+        assertEquals(fromJson, serializer.toMap(serializer.toText(map)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.write(map, out);
+        Mapped read = serializer.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Mapper.toMap(Mapper.fromMap(map), AccessStrategy.GENERATED, NamingStrategy.COUNTER),
+                     Mapper.toMap(Mapper.fromMap(read), AccessStrategy.GENERATED, NamingStrategy.COUNTER));
+      }
+    }
+  }
+
+  @Test
+  public void formatsPerf() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), fixture.k));
+    for (int i = 0; i < 10000; i++) {
+      obj.put(T3.of("x", i, now), fixture.k);
+    }
+    Numeric[] numbers = numbers(10000);
+
+    List<Format> formats = List.of(
+        Format.of("JSON", JsonSerializerBuilder.newBuilder().build()),
+        Format.of("XML", XmlSerializerBuilder.newBuilder().build()),
+        Format.of("YAML", YamlSerializerBuilder.newBuilder().build()),
+        new Format("Binary", BinarySerializerBuilder.newBuilder().build()::toBytes,
+                             BinarySerializerBuilder.newBuilder().build()::toMap),
+        new Format("Smile", SmileSerializerBuilder.newBuilder().build()::toBytes,
+                            SmileSerializerBuilder.newBuilder().build()::toMap),
+        new Format("CBOR", CborSerializerBuilder.newBuilder().build()::toBytes,
+                           CborSerializerBuilder.newBuilder().build()::toMap));
+
+    for (Object o: new Object[]{obj, numbers}) {
+      Mapped map = Mapper.toMap(o);
+      for (Format format: formats) {
+        format.benchmark(map, 3);
+      }
+    }
+  }
+
+  @Test
+  public void compression() throws Exception {
+    AbstractSerializerWriter[] serializers = {
+        JsonSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).compression(6).build(),
+        XmlSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).compression(1).build(),
+        YamlSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER)
+                             .compression(9, 1024, new ForkJoinPool(3)).build()
+    };
+    // with an empty array as root
+    Object[] graphs = fixture.graphs();
+    graphs = Arrays.copyOf(graphs, graphs.length + 1);
+    graphs[graphs.length - 1] = new Object[0];
+    for (Object o: graphs) {
+      Mapped map = Mapper.toMap(o, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+      for (AbstractSerializerWriter serializer: serializers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.toText(map, out);
+        byte[] compressed = out.toByteArray();
+
+        // standard gzip content
+        assertEquals(serializer.toText(map), new String(gunzip(compressed), UTF_8));
+        assertEquals(serializer.toMap(serializer.toText(map)),
+                     serializer.toMap(new ByteArrayInputStream(compressed)));
+
+        // gzip content from other tools is read too
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream zip = new GZIPOutputStream(gzip)) {
+          zip.write(serializer.toText(map).getBytes(UTF_8));
+        }
+        assertEquals(serializer.toMap(serializer.toText(map)),
+                     serializer.toMap(new ByteArrayInputStream(gzip.toByteArray())));
+      }
+
+      JsonSerializer json = (JsonSerializer)serializers[0];
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      json.write(o, out);
+      // both rebuilt, as immutable sets rebuilt from their elements may iterate in another order
+      assertEquals(Mapper.toMap(Mapper.fromMap(map), AccessStrategy.GENERATED, NamingStrategy.COUNTER),
+                   Mapper.toMap(json.read(new ByteArrayInputStream(out.toByteArray())),
+                                AccessStrategy.GENERATED, NamingStrategy.COUNTER));
+    }
+  }
+
+  @Test
+  public void binaryCompression() throws Exception {
+    BinarySerializer binary = BinarySerializerBuilder.newBuilder().build();
+    BinarySerializer compressedBinary = BinarySerializerBuilder.newBuilder().compression(6).build();
+    AbstractJacksonSerializer[] serializers = {
+        SmileSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build(),
+        CborSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build()
+    };
+    AbstractJacksonSerializer[] compressedSerializers = {
+        SmileSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).compression(1).build(),
+        CborSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER)
+                             .compression(9, 1024, new ForkJoinPool(3)).build()
+    };
+    for (Object o: fixture.graphs()) {
+      Mapped map = Mapper.toMap(o, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+
+      // standard gzip content
+      byte[] compressed = compressedBinary.toBytes(map);
+      assertArrayEquals(binary.toBytes(map), gunzip(compressed));
+      assertEquals(map, compressedBinary.toMap(compressed));
+      assertEquals(map, compressedBinary.toMap(gzip(binary.toBytes(map))));
+
+      for (int i = 0; i < serializers.length; i++) {
+        compressed = compressedSerializers[i].toBytes(map);
+        assertArrayEquals(serializers[i].toBytes(map), gunzip(compressed));
+        assertEquals(serializers[i].toMap(serializers[i].toBytes(map)), compressedSerializers[i].toMap(compressed));
+      }
+    }
+  }
+
+  @Test
+  public void compressionPerf() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), fixture.k));
+    for (int i = 0; i < 100000; i++) {
+      obj.put(T3.of("x", i, now), fixture.k);
+    }
+    Mapped map = Mapper.toMap(obj);
+    JsonSerializer json = JsonSerializerBuilder.newBuilder().build();
+    JsonSerializer compressed = JsonSerializerBuilder.newBuilder().compression(6).build();
+
+    List<Format> formats = List.of(
+        new Format("JSON then gzip", m -> gzip(json.toText(m).getBytes(UTF_8)),
+                                     bytes -> json.toMap(new String(gunzip(bytes), UTF_8))),
+        new Format("JSON, parallel gzip", m -> {
+                                            ByteArrayOutputStream out = new ByteArrayOutputStream();
+                                            try {
+                                              compressed.toText(m, out);
+                                            } catch (IOException e) {
+                                              throw new RuntimeException(e);
+                                            }
+                                            return out.toByteArray();
+                                          },
+                                          bytes -> {
+                                            try {
+                                              return compressed.toMap(new ByteArrayInputStream(bytes));
+                                            } catch (IOException e) {
+                                              throw new RuntimeException(e);
+                                            }
+                                          }));
+    for (Format format: formats) {
+      format.benchmark(map, 3);
+    }
+  }
+
+  @Test
+  public void streams() throws Exception {
+    A u = new A();
+    u.a = "Unicode: \u00e9t\u00e9, \u2713, \ud834\udd1e, \\ \"quoted\" <tag> & done";
+    u.b = 42;
+    Map<String, Object> obj = new LinkedHashMap<>();
+    obj.put("u", u);
+    obj.put("d", fixture.d);
+    obj.put("k", fixture.k);
+
+    Serializer[] serializers = {
+        JsonSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build(),
+        XmlSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build(),
+        YamlSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build(),
+        BinarySerializerBuilder.newBuilder().build(),
+        SmileSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build(),
+        CborSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build()
+    };
+    Path file = Files.createTempFile("serializer", ".out");
+    try {
+      for (Object o: new Object[]{u, fixture.a, fixture.d, fixture.k, obj}) {
+        Mapped map = Mapper.toMap(o, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+        for (Serializer serializer: serializers) {
+          Mapped expected = serializer.toMap(serializer.toText(map));
+
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          serializer.toText(map, out);
+          byte[] bytes = out.toByteArray();
+          assertEquals(serializer.toText(map), new String(bytes, UTF_8));
+          assertEquals(expected, serializer.toMap(new ByteArrayInputStream(bytes)));
+
+          for (ByteBuffer buffer: new ByteBuffer[]{ByteBuffer.allocate(bytes.length + 10),
+                                                   ByteBuffer.allocateDirect(bytes.length)}) {
+            serializer.toText(map, buffer);
+            assertEquals(bytes.length, buffer.position());
+            buffer.flip();
+            assertEquals(expected, serializer.toMap(buffer));
+            assertEquals(0, buffer.remaining());
+          }
+
+          serializer.toText(map, file);
+          assertEquals(bytes.length, Files.size(file));
+          assertEquals(expected, serializer.toMap(file));
+        }
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void streamsPerf() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), fixture.k));
+    for (int i = 0; i < 50000; i++) {
+      obj.put(T3.of("x" + i, i, now), fixture.k);
+    }
+    Mapped map = Mapper.toMap(obj);
+    Path file = Files.createTempFile("serializer", ".out");
+    try {
+      for (Serializer serializer: new Serializer[]{JsonSerializerBuilder.newBuilder().build(),
+                                                   XmlSerializerBuilder.newBuilder().build(),
+                                                   YamlSerializerBuilder.newBuilder().build()}) {
+        String name = serializer.getClass().getSimpleName();
+        long writerTime = 0, streamTime = 0, readerTime = 0, inputTime = 0;
+        for (int i = 0; i < 4; i++) {
+          // the first round heats up
+          long start = System.nanoTime();
+          try (Writer out = Files.newBufferedWriter(file)) {
+            serializer.toText(map, out);
+          }
+          long writer = System.nanoTime() - start;
+
+          start = System.nanoTime();
+          try (Reader in = Files.newBufferedReader(file)) {
+            serializer.toMap(in);
+          }
+          long reader = System.nanoTime() - start;
+
+          start = System.nanoTime();
+          serializer.toText(map, file);
+          long stream = System.nanoTime() - start;
+
+          start = System.nanoTime();
+          serializer.toMap(file);
+          long input = System.nanoTime() - start;
+
+          if (i > 0) {
+            writerTime += writer;
+            readerTime += reader;
+            streamTime += stream;
+            inputTime += input;
+          }
+        }
+        System.out.println(name + " file of " + Files.size(file) + " bytes: " +
+                           "write through Writer " + writerTime / 3000000 + " ms, direct UTF-8 " + streamTime / 3000000 + " ms; " +
+                           "read through Reader " + readerTime / 3000000 + " ms, direct UTF-8 " + inputTime / 3000000 + " ms");
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void allocationPerField() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), fixture.k));
+    for (int i = 0; i < 10000; i++) {
+      obj.put(T3.of("x" + i, i, now), fixture.k);
+    }
+    Mapped map = Mapper.toMap(obj);
+    long fields = 0;
+    for (Map<String, String> object: map.objects.values()) {
+      fields += object.size();
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    for (Serializer serializer: new Serializer[]{JsonSerializerBuilder.newBuilder().build(),
+                                                 XmlSerializerBuilder.newBuilder().build(),
+                                                 YamlSerializerBuilder.newBuilder().build()}) {
+      Writer out = Writer.nullWriter();
+      long allocated = 0;
+      for (int i = 0; i < 6; i++) {
+        // the first rounds heat up
+        long start = threads.getThreadAllocatedBytes(thread);
+        serializer.toText(map, out);
+        if (i >= 3) {
+          allocated += threads.getThreadAllocatedBytes(thread) - start;
+        }
+      }
+      System.out.println(serializer.getClass().getSimpleName() + ": " + fields + " fields, " +
+                         allocated / 3 / fields + " bytes allocated per field");
+    }
+  }
+
+  @Test
+  public void inlinedNameClash() throws Exception {
+    // the string in field 'a' of the tuple is inlined and named when read before the
+    // object of class A, referred to twice, is defined further in the text
+    List<Object> obj = new ArrayList<>(List.of(T2.of("x", 1), fixture.a, fixture.b));
+    Mapped map = Mapper.toMap(obj);
+    for (AbstractSerializerWriter serializer: new AbstractSerializerWriter[]{
+        JsonSerializerBuilder.newBuilder().build(),
+        XmlSerializerBuilder.newBuilder().build(),
+        YamlSerializerBuilder.newBuilder().build()}) {
+      Mapped read = serializer.toMap(serializer.toText(map));
+      assertEquals(obj, Mapper.fromMap(read));
+      assertEquals(map.singleRefObjects.size(), read.singleRefObjects.size());
+    }
+    JsonSerializer json = JsonSerializerBuilder.newBuilder().build();
+    assertEquals(obj, json.read(new StringReader(json.toText(map))));
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (GZIPOutputStream zip = new GZIPOutputStream(out)) {
+        zip.write(bytes);
+      }
+      return out.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static byte[] gunzip(byte[] bytes) {
+    try (GZIPInputStream zip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      return zip.readAllBytes();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * A serialization format, writing maps to bytes and reading them back.
+   */
+  static class Format {
+    Format(String name, Function<Mapped, byte[]> write, Function<byte[], Mapped> read) {
+      this.name = name;
+      this.write = write;
+      this.read = read;
+    }
+
+    /**
+     * The format of a text serializer, whose text is encoded in UTF-8.
+     */
+    static Format of(String name, Serializer serializer) {
+      return new Format(name,
+                        map -> serializer.toText(map).getBytes(UTF_8),
+                        bytes -> serializer.toMap(new String(bytes, UTF_8)));
+    }
+
+    /**
+     * Prints the size of the map in this format and the average time taken to write
+     * and read it, after heating up.
+     */
+    void benchmark(Mapped map, int reps) {
+      byte[] bytes = write.apply(map);
+      for (int i = 0; i < reps; i++) {
+        read.apply(write.apply(map));
+      }
+
+      int x = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < reps; i++) {
+        x |= System.identityHashCode(write.apply(map));
+      }
+      long writeTime = (System.nanoTime() - start) / reps / 1000000;
+
+      start = System.nanoTime();
+      for (int i = 0; i < reps; i++) {
+        x |= System.identityHashCode(read.apply(bytes));
+      }
+      long readTime = (System.nanoTime() - start) / reps / 1000000;
+      System.out.println(name + ": size " + bytes.length + " bytes, write " + writeTime + " ms, read " +
+                         readTime + " ms (" + x + ')');
+      assertEquals(map.objects.size(), read.apply(bytes).objects.size());
+    }
+
+    final String name;
+    final Function<Mapped, byte[]> write;
+    final Function<byte[], Mapped> read;
+  }
+}
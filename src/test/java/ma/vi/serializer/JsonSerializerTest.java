@@ -10,6 +10,10 @@ import ma.vi.base.tuple.T3;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.*;
 
 import static java.util.Collections.*;
@@ -17,7 +21,7 @@ import static java.util.stream.Collectors.toMap;
 import static ma.vi.base.lang.Literal.NULL_LITERAL;
 import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
 import static ma.vi.serializer.MapperTest.*;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * @author Vikash Madhow (vikash.madhow@gmail.com)
@@ -200,6 +204,34 @@ public class JsonSerializerTest {
     }
   }
 
+  @Test
+  public void mapBCounterNaming() throws Exception {
+    Mapped map = Mapper.toMap(b, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+    JsonSerializer ser = JsonSerializerBuilder.newBuilder().namingStrategy(NamingStrategy.COUNTER).build();
+    String serialized = ser.toText(map);
+    assertEquals(serialized,
+                 "{" + ls +
+                     "  \"" + OBJ_NAME_PREFIX + "b_1\": {" + ls +
+                     "    \"class\": \"" + B.class.getName() + "\"," + ls +
+                     "    \"a\": \"-10\"," + ls +
+                     "    \"b\": \"Another test\"," + ls +
+                     "    \"c\": {" + ls +
+                     "      \"class\": \"" + A.class.getName() + "\"," + ls +
+                     "      \"a\": \"Test\"," + ls +
+                     "      \"b\": \"10\"" + ls +
+                     "    }" + ls +
+                     "  }" + ls +
+                     "}"
+    );
+
+    // inlined object named from its field name
+    map = ser.toMap(serialized);
+    assertEquals(map.types, Map.of(
+        OBJ_NAME_PREFIX + "b_1", B.class.getName(),
+        OBJ_NAME_PREFIX + "c_1", A.class.getName()));
+    assertEquals(Mapper.fromMap(map), b);
+  }
+
   /**
    * Checks that toMap(c) equals:
    * <pre>
@@ -644,4 +676,235 @@ public class JsonSerializerTest {
       System.out.println("Time taken to reconstruct: " + ((System.currentTimeMillis() - start) / reps));
     }
   }
+
+  @Test
+  public void writeDirect() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T2<String, Integer>, Object> obj = new LinkedHashMap<>();
+    obj.put(T2.of("a", 1), now);
+    obj.put(T2.of("b", 2), k);
+    obj.put(T2.of("c", 3), j);
+    obj.put(T2.of("d", 4), new ArrayList<>(List.of(a, b, "x", 42)));
+
+    for (JsonSerializer ser: new JsonSerializer[]{JsonSerializerBuilder.newBuilder().build(),
+        JsonSerializerBuilder.newBuilder().inlineSingleRefObjects(false).build()}) {
+      for (Object o: new Object[]{null, a, b, c, d, f, h, i, j, k, obj}) {
+        String expected = ser.toText(Mapper.toMap(o, AccessStrategy.GENERATED, NamingStrategy.COUNTER));
+        StringWriter out = new StringWriter();
+        ser.write(o, out, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+        assertEquals(expected, out.toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ser.write(o, bytes, AccessStrategy.REFLECTIVE, NamingStrategy.COUNTER);
+        assertEquals(expected, new String(bytes.toByteArray(), ser.encoding));
+      }
+    }
+  }
+
+  @Test
+  public void writeDirectPerf() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(
+        T2.of(T3.of("a", 1, now), k), T2.of(T3.of("b", 2, now), k),
+        T2.of(T3.of("c", 3, now), k), T2.of(T3.of("d", 4, now), k));
+    for (int i = 0; i < 10000; i++) {
+      obj.put(T3.of("x", i, now), k);
+    }
+
+    JsonSerializer ser = JsonSerializerBuilder.newBuilder().build();
+
+    // heat up
+    int reps = 3;
+    System.out.println("Heating up...");
+    for (int i = 0; i < reps; i++) {
+      ser.toText(Mapper.toMap(obj));
+      ser.write(obj, new StringWriter());
+    }
+
+    // assess performance
+    int a = 0;
+    System.out.println("Computing performance to map and serialize...");
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < reps; i++) {
+      String s = ser.toText(Mapper.toMap(obj));
+      a |= System.identityHashCode(s);
+    }
+    System.out.println(a);
+    System.out.println("Time taken to map and serialize: " + ((System.currentTimeMillis() - start) / reps));
+
+    System.out.println("Computing performance to write directly...");
+    start = System.currentTimeMillis();
+    for (int i = 0; i < reps; i++) {
+      StringWriter out = new StringWriter();
+      ser.write(obj, out);
+      a |= System.identityHashCode(out.toString());
+    }
+    System.out.println(a);
+    System.out.println("Time taken to write directly: " + ((System.currentTimeMillis() - start) / reps));
+  }
+
+  @Test
+  public void readDirect() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T2<String, Integer>, Object> obj = new LinkedHashMap<>();
+    obj.put(T2.of("a", 1), now);
+    obj.put(T2.of("b", 2), k);
+    obj.put(T2.of("c", 3), j);
+    obj.put(T2.of("d", 4), new ArrayList<>(List.of(a, b, "x", 42)));
+    obj.put(T2.of("e", 5), Map.of("x", List.of(a, now), "y", Set.of(1, 2)));
+
+    JsonSerializer canonical = JsonSerializerBuilder.newBuilder().build();
+    for (JsonSerializer ser: new JsonSerializer[]{JsonSerializerBuilder.newBuilder().build(),
+        JsonSerializerBuilder.newBuilder().inlineSingleRefObjects(false).build()}) {
+      for (Object o: new Object[]{a, b, c, d, f, h, i, j, k, obj}) {
+        String text = ser.toText(Mapper.toMap(o));
+        Object expected = Mapper.fromMap(ser.toMap(text));
+        Object read = ser.read(new StringReader(text));
+        assertEquals(canonical.toText(Mapper.toMap(expected, AccessStrategy.GENERATED, NamingStrategy.COUNTER)),
+                     canonical.toText(Mapper.toMap(read, AccessStrategy.GENERATED, NamingStrategy.COUNTER)));
+
+        read = ser.read(new ByteArrayInputStream(text.getBytes(ser.encoding)), AccessStrategy.REFLECTIVE);
+        assertEquals(canonical.toText(Mapper.toMap(expected, AccessStrategy.GENERATED, NamingStrategy.COUNTER)),
+                     canonical.toText(Mapper.toMap(read, AccessStrategy.GENERATED, NamingStrategy.COUNTER)));
+      }
+    }
+  }
+
+  @Test
+  public void readDirectPerf() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(
+        T2.of(T3.of("a", 1, now), k), T2.of(T3.of("b", 2, now), k),
+        T2.of(T3.of("c", 3, now), k), T2.of(T3.of("d", 4, now), k));
+    for (int i = 0; i < 10000; i++) {
+      obj.put(T3.of("x", i, now), k);
+    }
+
+    JsonSerializer ser = JsonSerializerBuilder.newBuilder().build();
+    String text = ser.toText(Mapper.toMap(obj));
+    assertEquals(obj, ser.read(new StringReader(text)));
+
+    // heat up
+    int reps = 3;
+    System.out.println("Heating up...");
+    for (int i = 0; i < reps; i++) {
+      Mapper.fromMap(ser.toMap(text));
+      ser.read(new StringReader(text));
+    }
+
+    // assess performance
+    int a = 0;
+    System.out.println("Computing performance to read and reconstruct...");
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < reps; i++) {
+      Object o = Mapper.fromMap(ser.toMap(text));
+      a |= System.identityHashCode(o);
+    }
+    System.out.println(a);
+    System.out.println("Time taken to read and reconstruct: " + ((System.currentTimeMillis() - start) / reps));
+
+    System.out.println("Computing performance to read directly...");
+    start = System.currentTimeMillis();
+    for (int i = 0; i < reps; i++) {
+      Object o = ser.read(new StringReader(text));
+      a |= System.identityHashCode(o);
+    }
+    System.out.println(a);
+    System.out.println("Time taken to read directly: " + ((System.currentTimeMillis() - start) / reps));
+  }
+
+  @Test
+  public void mapQuotesAndBackslashes() throws Exception {
+    A quoted = new A();
+    quoted.a = "say \"hi\", C:\\dir\\ and \\\"both\\\"";
+    quoted.b = 1;
+    B holder = new B();
+    holder.a = 2;
+    holder.b = "\\";
+    holder.c = quoted;
+
+    for (JsonSerializer ser: new JsonSerializer[]{JsonSerializerBuilder.newBuilder().build(),
+        JsonSerializerBuilder.newBuilder().inlineSingleRefObjects(false).build()}) {
+      String text = ser.toText(Mapper.toMap(holder, AccessStrategy.GENERATED, NamingStrategy.COUNTER));
+      assertTrue(text.contains("\"a\": \"say \\\"hi\\\", C:\\\\dir\\\\ and \\\\\\\"both\\\\\\\"\""));
+      assertTrue(text.contains("\"b\": \"\\\\\""));
+
+      B read = (B)Mapper.fromMap(ser.toMap(text));
+      assertEquals(holder.b, read.b);
+      assertEquals(quoted.a, read.c.a);
+
+      // written and read directly
+      StringWriter out = new StringWriter();
+      ser.write(holder, out, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+      assertEquals(text, out.toString());
+      read = (B)ser.read(new StringReader(out.toString()));
+      assertEquals(holder.b, read.b);
+      assertEquals(quoted.a, read.c.a);
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ser.write(holder, bytes);
+      read = (B)ser.read(new ByteArrayInputStream(bytes.toByteArray()));
+      assertEquals(holder.b, read.b);
+      assertEquals(quoted.a, read.c.a);
+    }
+  }
+
+  @Test
+  public void mapIndexed() throws Exception {
+    for (JsonSerializer ser: new JsonSerializer[]{JsonSerializerBuilder.newBuilder().build(),
+        JsonSerializerBuilder.newBuilder().inlineSingleRefObjects(false).build()}) {
+      for (Object o: new Object[]{a, b, c, d, f, h, i, j, k}) {
+        IndexedMapped indexed = Mapper.toIndexedMap(o);
+        String text = ser.toText(indexed);
+        assertEquals(ser.toText(indexed.toMapped()), text);
+        assertEquals(text, ser.toText(IndexedMapped.of(ser.toMap(text))));
+      }
+    }
+  }
+
+  @Test
+  public void sharedSymbolTable() throws Exception {
+    B[] objects = new B[100];
+    for (int i = 0; i < objects.length; i++) {
+      B o = new B();
+      o.a = i;
+      o.b = "b" + i;
+      objects[i] = o;
+    }
+    SymbolTable symbols = new SymbolTable();
+    JsonSerializer ser = JsonSerializerBuilder.newBuilder().symbolTable(symbols).build();
+    String text = ser.toText(Mapper.toMap(objects));
+
+    Mapped first = ser.toMap(text);
+
+    // every symbol read the second time was added to the table by the first read
+    symbols.resetStatistics();
+    Mapped second = ser.toMap(text);
+    assertEquals(1.0, symbols.hitRate(), 0.0);
+    assertEquals(first, second);
+    assertEquals(Mapper.toMap(Mapper.fromMap(first), AccessStrategy.GENERATED, NamingStrategy.COUNTER),
+                 Mapper.toMap(objects, AccessStrategy.GENERATED, NamingStrategy.COUNTER));
+
+    // the field names and types of the objects read by both calls are the same instances
+    List<String> firstNames = new ArrayList<>();
+    List<String> firstTypes = new ArrayList<>();
+    for (Map.Entry<String, Map<String, String>> e: first.objects.entrySet()) {
+      firstNames.addAll(e.getValue().keySet());
+      firstTypes.add(first.types.get(e.getKey()));
+    }
+    List<String> secondNames = new ArrayList<>();
+    List<String> secondTypes = new ArrayList<>();
+    for (Map.Entry<String, Map<String, String>> e: second.objects.entrySet()) {
+      secondNames.addAll(e.getValue().keySet());
+      secondTypes.add(second.types.get(e.getKey()));
+    }
+    for (int i = 0; i < firstNames.size(); i++) {
+      assertSame(firstNames.get(i), secondNames.get(i));
+    }
+    for (int i = 0; i < firstTypes.size(); i++) {
+      assertSame(firstTypes.get(i), secondTypes.get(i));
+    }
+    System.out.println("Symbol table hit rate: " + symbols.hitRate() +
+                       ", bytes saved: " + symbols.bytesSaved());
+  }
 }
@@ -10,12 +10,19 @@ import ma.vi.base.tuple.T3;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.*;
 import static java.util.Map.Entry;
 import static java.util.stream.Collectors.toMap;
 import static ma.vi.base.lang.Literal.NULL_LITERAL;
+import static ma.vi.serializer.Mapper.OBJ_NAME_PREFIX;
 import static org.junit.Assert.*;
 
 /**
@@ -129,6 +136,76 @@ public class MapperTest {
     }
   }
 
+  public static class Numeric {
+    int a;
+    long b;
+    double c;
+    float d;
+    short e;
+    byte f;
+    boolean g;
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Numeric n = (Numeric)o;
+      return a == n.a && b == n.b && c == n.c && d == n.d && e == n.e && f == n.f && g == n.g;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(a, b, c, d, e, f, g);
+    }
+  }
+
+  public static class Node {
+    int value;
+    Node next;
+  }
+
+  public static class Counted {
+    static int count;
+    static String label;
+    String name;
+  }
+
+  public static class Money {
+    Money(String currency, long cents) {
+      this.currency = currency;
+      this.cents = cents;
+    }
+
+    final String currency;
+    final long cents;
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Money m = (Money)o;
+      return cents == m.cents && currency.equals(m.currency);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(currency, cents);
+    }
+  }
+
+  public static class Cash extends Money {
+    Cash(String currency, long cents) {
+      super(currency, cents);
+    }
+  }
+
+  public static class Account {
+    String owner;
+    Money balance;
+    Object limit;
+    Money[] history;
+  }
+
   public static class K {
     int[] a;
     String[][] b;
@@ -164,6 +241,129 @@ public class MapperTest {
     }
   }
 
+  public static class Tagged {
+    Tagged() {
+    }
+
+    Tagged(List<String> tags) {
+      this.tags = tags;
+    }
+
+    List<String> tags;
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      return Objects.equals(tags, ((Tagged)o).tags);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(tags);
+    }
+
+    @Override
+    public String toString() {
+      return "Tagged{tags=" + tags + '}';
+    }
+  }
+
+  /**
+   * The objects tested by the mapper and serializer tests, with shared and cyclic
+   * references, built anew for each test.
+   */
+  public static class Fixture {
+    public Fixture() {
+      a = new A();
+      a.a = "Test";
+      a.b = 10;
+
+      b = new B();
+      b.a = -10;
+      b.b = "Another test";
+      b.c = a;
+
+      c = new C();
+      c.c = c;
+
+      d = new D();
+      e = new E();
+      d.e = e;
+      e.d = d;
+      e.e = e;
+
+      f = F.a;
+
+      g = new G();
+      g.a = F.b;
+      g.b = new F[]{F.a, F.a, F.b, F.c};
+
+      h = new int[]{1, 2, 3};
+      i = new String[][]{{"a"}, {"c", "d"}};
+      j = new G[][]{new G[]{g}, new G[]{g, g}};
+
+      k = new K();
+      k.a = h;
+      k.b = new String[][]{{}, {"", null, "["}, {"]", ",", "[,]"}};
+      k.c = new G[]{g, g};
+    }
+
+    /**
+     * A map of objects of the fixture with a date, immutable collections and a
+     * mutable map keyed by tuples.
+     */
+    public Map<String, Object> composite() {
+      Map<String, Object> composite = new LinkedHashMap<>();
+      composite.put("a", a);
+      composite.put("d", d);
+      composite.put("k", k);
+      composite.put("list", List.of(a, new Date(System.currentTimeMillis()), Set.of(1, 2)));
+      composite.put("map", new HashMap<>(Map.of(T2.of("x", 1), b)));
+      return composite;
+    }
+
+    /**
+     * The objects of the fixture, except e which is part of the graph of d, followed
+     * by its {@link #composite()}, for round trips.
+     */
+    public Object[] graphs() {
+      return new Object[]{a, b, c, d, f, g, h, i, j, k, composite()};
+    }
+
+    public final A a;
+    public final B b;
+    public final C c;
+    public final D d;
+    public final E e;
+    public final F f;
+    public final G g;
+    public final int[] h;
+    public final String[][] i;
+    public final G[][] j;
+    public final K k;
+  }
+
+  /**
+   * Returns the given number of numeric objects, with the values of their fields
+   * derived from their positions.
+   */
+  public static Numeric[] numbers(int count) {
+    Numeric[] numbers = new Numeric[count];
+    for (int i = 0; i < count; i++) {
+      Numeric n = new Numeric();
+      n.a = 1000 + i;
+      n.b = 1000000L * i;
+      n.c = i / 3.0;
+      n.d = i / 7.0f;
+      n.e = (short)i;
+      n.f = (byte)i;
+      n.g = i % 2 == 0;
+      numbers[i] = n;
+    }
+    return numbers;
+  }
+
   private A a;
   private B b;
   private C c;
@@ -175,41 +375,22 @@ public class MapperTest {
   private String[][] i;
   private G[][] j;
   private K k;
+  private Fixture fixture;
 
   @Before
   public void init() {
-    a = new A();
-    a.a = "Test";
-    a.b = 10;
-
-    b = new B();
-    b.a = -10;
-    b.b = "Another test";
-    b.c = a;
-
-    c = new C();
-    c.c = c;
-
-    d = new D();
-    E e = new E();
-    d.e = e;
-    e.d = d;
-    e.e = e;
-
-    f = F.a;
-
-    g = new G();
-    g.a = F.b;
-    g.b = new F[]{F.a, F.a, F.b, F.c};
-
-    h = new int[]{1, 2, 3};
-    i = new String[][]{{"a"}, {"c", "d"}};
-    j = new G[][]{new G[]{g}, new G[]{g, g}};
-
-    k = new K();
-    k.a = h;
-    k.b = new String[][]{{}, {"", null, "["}, {"]", ",", "[,]"}};
-    k.c = new G[]{g, g};
+    fixture = new Fixture();
+    a = fixture.a;
+    b = fixture.b;
+    c = fixture.c;
+    d = fixture.d;
+    e = fixture.e;
+    f = fixture.f;
+    g = fixture.g;
+    h = fixture.h;
+    i = fixture.i;
+    j = fixture.j;
+    k = fixture.k;
   }
 
   /**
@@ -531,6 +712,67 @@ public class MapperTest {
   }
 
 
+  @Test
+  public void mapCounterNaming() throws Exception {
+    Mapped map = Mapper.toMap(b, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+    assertEquals(map.types, Map.of(
+        OBJ_NAME_PREFIX + "b_1", B.class.getName(),
+        OBJ_NAME_PREFIX + "a_1", A.class.getName()));
+
+    map = Mapper.toMap(j, AccessStrategy.GENERATED, NamingStrategy.COUNTER);
+    assertEquals(map, Mapper.toMap(j, AccessStrategy.GENERATED, NamingStrategy.COUNTER));
+    assertEquals(map.types.size(), 4);
+    assertArrayEquals((G[][])Mapper.fromMap(map), j);
+  }
+
+  @Test
+  public void typeDescriptors() throws Exception {
+    TypeDescriptor type = TypeDescriptor.of(G.class.getName());
+    assertSame(type, TypeDescriptor.of(G.class.getName()));
+    assertFalse(type.isArray());
+    assertFalse(type.isLiteral());
+    assertEquals(type.type(), G.class);
+    assertEquals(type.componentType(), G.class);
+
+    type = TypeDescriptor.of(String.class.getName() + "[2][]");
+    assertTrue(type.isArray());
+    assertTrue(type.isLiteral());
+    assertEquals(type.dimensions, 2);
+    assertEquals(type.length, 2);
+    assertEquals(type.type(), String[][].class);
+    assertEquals(type.componentType(), String.class);
+
+    // array types with lengths are cached apart, in a bounded cache
+    assertSame(type, TypeDescriptor.of(String.class.getName() + "[2][]"));
+    assertSame(TypeDescriptor.of(String.class.getName() + "[][]"), TypeDescriptor.of(String.class.getName() + "[][]"));
+    assertEquals(TypeDescriptor.of(String.class.getName() + "[5][]").type(), String[][].class);
+    for (int i = 0; i < 2 * TypeDescriptor.MAX_SIZED_ARRAY_TYPES; i++) {
+      assertEquals(TypeDescriptor.of("int[" + i + "]").length, i);
+    }
+    assertEquals(TypeDescriptor.of(String.class.getName() + "[2][]").type(), String[][].class);
+
+    type = TypeDescriptor.of("int[3]", getClass().getClassLoader());
+    assertNotSame(type, TypeDescriptor.of("int[3]"));
+    assertEquals(type.type(), int[].class);
+    assertArrayEquals((int[])type.toValue("[1,2,3]"), h);
+
+    type = TypeDescriptor.of(G.class.getName() + "[2]", getClass().getClassLoader());
+    assertEquals(type.type(), G[].class);
+    assertEquals(type.componentType(), G.class);
+  }
+
+  @Test
+  public void demapUnknownFields() throws Exception {
+    Mapped map = Mapper.toMap(a);
+    String objectName = map.objects.keySet().iterator().next();
+    map.objects.get(objectName).put("x", "discarded");
+    map.objects.get(objectName).put("y", null);
+
+    long unknown = Mapper.unknownFieldHits();
+    assertEquals(Mapper.fromMap(map), a);
+    assertEquals(Mapper.unknownFieldHits() - unknown, 2);
+  }
+
   @Test
   public void mapDemapList() throws Exception {
     List<String> obj = Arrays.asList("a", "b", "c", "d");
@@ -564,6 +806,259 @@ public class MapperTest {
     assertEquals(reconstructed, obj2);
   }
 
+  @Test
+  public void mapCollections() throws Exception {
+    List<String> list = new ArrayList<>(100);
+    list.add("a");
+    list.add(null);
+    list.add("b");
+    Mapped map = Mapper.toMap(list);
+    String objectName = map.objects.keySet().iterator().next();
+    assertEquals(map.types.get(objectName), ArrayList.class.getName());
+    assertEquals(map.objects.get(objectName).keySet(), Set.of("size", "i0", "i1", "i2"));
+    assertEquals(map.objects.get(objectName).get("size"), "3");
+    assertEquals(map.objects.size(), 3);
+    assertEquals(Mapper.fromMap(map), list);
+
+    Map<String, G> hashMap = new HashMap<>();
+    hashMap.put("x", g);
+    hashMap.put("y", g);
+    map = Mapper.toMap(hashMap);
+    objectName = map.objects.keySet().iterator().next();
+    assertEquals(map.objects.get(objectName).keySet(), Set.of("size", "k0", "v0", "k1", "v1"));
+    assertEquals(map.objects.size(), 4);
+    assertEquals(Mapper.fromMap(map), hashMap);
+
+    EnumSet<F> enumSet = EnumSet.of(F.a, F.c);
+    map = Mapper.toMap(enumSet);
+    objectName = map.objects.keySet().iterator().next();
+    assertEquals(map.types.get(objectName), EnumSet.class.getName());
+    assertEquals(map.objects.get(objectName),
+                 Map.of("size", "2", "elementType", F.class.getName(), "i0", "a", "i1", "c"));
+    assertEquals(Mapper.fromMap(map), enumSet);
+    assertEquals(Mapper.fromMap(Mapper.toMap(EnumSet.noneOf(F.class))), EnumSet.noneOf(F.class));
+
+    EnumMap<F, G> enumMap = new EnumMap<>(F.class);
+    enumMap.put(F.b, g);
+    assertEquals(Mapper.fromMap(Mapper.toMap(enumMap)), enumMap);
+    assertEquals(Mapper.fromMap(Mapper.toMap(new EnumMap<>(F.class))), new EnumMap<>(F.class));
+
+    for (Object collection : new Object[]{
+        new LinkedList<>(list), new ArrayDeque<>(List.of("a", "b")),
+        new HashSet<>(List.of("a", "b")), new LinkedHashSet<>(List.of("a", "b")),
+        new LinkedHashMap<>(hashMap), List.of(), List.of("a"), List.of("a", "b", "c"),
+        Set.of("a"), Set.of("a", "b", "c"), Map.of("a", g), Map.of("a", g, "b", g)}) {
+      map = Mapper.toMap(collection);
+      Object reconstructed = Mapper.fromMap(map);
+      assertEquals(reconstructed.getClass(), collection.getClass());
+      if (collection instanceof ArrayDeque) {
+        assertEquals(new ArrayList<>((ArrayDeque<?>)reconstructed), new ArrayList<>((ArrayDeque<?>)collection));
+      } else {
+        assertEquals(reconstructed, collection);
+      }
+    }
+
+    // immutable collections are mapped under their interfaces
+    map = Mapper.toMap(List.of("a", "b", "c"));
+    assertEquals(map.types.get(map.objects.keySet().iterator().next()), List.class.getName());
+
+    // objects shared between collections and hashed keys are reconstructed
+    Map<T2<String, Integer>, List<G>> nested = new HashMap<>();
+    nested.put(T2.of("a", 1), new ArrayList<>(List.of(g, g)));
+    nested.put(T2.of("b", 2), nested.get(T2.of("a", 1)));
+    Map<T2<String, Integer>, List<G>> nested1 = (Map<T2<String, Integer>, List<G>>)Mapper.fromMap(Mapper.toMap(nested));
+    assertEquals(nested1, nested);
+    assertSame(nested1.get(T2.of("a", 1)), nested1.get(T2.of("b", 2)));
+    assertSame(nested1.get(T2.of("a", 1)).get(0), nested1.get(T2.of("a", 1)).get(1));
+
+    // self-containing lists
+    List<Object> cyclic = new ArrayList<>();
+    cyclic.add(cyclic);
+    List<Object> cyclic1 = (List<Object>)Mapper.fromMap(Mapper.toMap(cyclic));
+    assertSame(cyclic1.get(0), cyclic1);
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertEquals(Mapper.fromMap(Mapper.toMap(nested, pool, 1), pool, 1), nested);
+      assertEquals(Mapper.fromMap(Mapper.toMap(Map.of("a", g)), pool, 1), Map.of("a", g));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Checks that the collections of an archive written before collections were handled,
+   * mapped through the internal fields of their classes, are reconstructed through
+   * these fields by all the ways of reading the archive.
+   */
+  @Test
+  public void legacyCollections() throws Exception {
+    String text;
+    try (InputStream in = MapperTest.class.getResourceAsStream("legacy-collections.json")) {
+      text = new String(in.readAllBytes(), UTF_8);
+    }
+    JsonSerializer json = new JsonSerializer();
+    Mapped map = json.toMap(text);
+    checkLegacyCollections(Mapper.fromMap(map));
+    checkLegacyCollections(Mapper.fromMap(IndexedMapped.of(map)));
+    checkLegacyCollections(json.read(new StringReader(text)));
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      checkLegacyCollections(Mapper.fromMap(map, pool, 1));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  private static void checkLegacyCollections(Object reconstructed) {
+    List<?> list = (List<?>)reconstructed;
+    assertEquals(9, list.size());
+    assertEquals(new ArrayList<>(Arrays.asList("a", 1, null)), list.get(0));
+    assertEquals(new LinkedList<>(List.of("b", 2L)), list.get(1));
+    assertEquals(LinkedList.class, list.get(1).getClass());
+    assertEquals(new HashSet<>(List.of("c", 3)), list.get(2));
+
+    Map<Object, Object> hashMap = new HashMap<>();
+    hashMap.put("d", 4);
+    hashMap.put(5, new ArrayList<>(List.of(6)));
+    assertEquals(hashMap, list.get(3));
+
+    Map<Object, Object> linkedHashMap = new LinkedHashMap<>();
+    linkedHashMap.put("z", "last");
+    linkedHashMap.put("a", null);
+    assertEquals(List.copyOf(linkedHashMap.keySet()), new ArrayList<>(((Map<?, ?>)list.get(4)).keySet()));
+    assertEquals(linkedHashMap, list.get(4));
+
+    assertEquals(List.of("y", "x"), new ArrayList<>((Set<?>)list.get(5)));
+    assertEquals(List.of(7, 8), new ArrayList<>((ArrayDeque<?>)list.get(6)));
+    assertEquals(emptyList(), list.get(7));
+    assertEquals(emptyMap(), list.get(8));
+  }
+
+  /**
+   * Prints the number of objects, the size of the JSON text and the time to map and
+   * reconstruct the graph of {@link #mapPerf()}, whose collections are mapped through
+   * their elements only. Mapped through their fields, the HashMap of the graph alone
+   * would have been mapped to a node table and a node object for each of its entries.
+   */
+  @Test
+  public void mapPerfCollections() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), k));
+    for (int i = 0; i < 10000; i++) {
+      obj.put(T3.of("x", i, now), k);
+    }
+    Mapped map = Mapper.toMap(obj);
+    for (String type : map.types.values()) {
+      assertFalse(type, type.contains("$Node") || type.contains("$Entry"));
+    }
+    assertEquals(Mapper.fromMap(map), obj);
+    System.out.println("Number of mapped objects: " + map.objects.size());
+    System.out.println("Size of JSON text: " + new JsonSerializer().toText(map).length());
+
+    int reps = 3;
+    int a = 0;
+    for (int i = 0; i < reps; i++) {
+      a |= System.identityHashCode(Mapper.fromMap(Mapper.toMap(obj)));
+    }
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < reps; i++) {
+      map = Mapper.toMap(obj);
+      a |= System.identityHashCode(map.objects);
+    }
+    System.out.println("Time taken to map: " + ((System.currentTimeMillis() - start) / reps));
+    start = System.currentTimeMillis();
+    for (int i = 0; i < reps; i++) {
+      a |= System.identityHashCode(Mapper.fromMap(map));
+    }
+    System.out.println("Time taken to reconstruct: " + ((System.currentTimeMillis() - start) / reps));
+    System.out.println(a);
+  }
+
+  @Test
+  public void mapAdapted() throws Exception {
+    Mapper.registerAdapter(Money.class, new TypeAdapter<>() {
+      @Override
+      public String toMapped(Money value) {
+        return value.currency + ' ' + value.cents;
+      }
+
+      @Override
+      public Money fromMapped(String text) {
+        int space = text.indexOf(' ');
+        return new Money(text.substring(0, space), Long.parseLong(text.substring(space + 1)));
+      }
+    });
+    try {
+      Account account = new Account();
+      account.owner = "x";
+      account.balance = new Money("MUR", 1050);
+      account.limit = new Money("USD", 20000);
+      account.history = new Money[]{account.balance, new Money("MUR", 0)};
+
+      Mapped map = Mapper.toMap(account);
+      String objectName = map.objects.keySet().iterator().next();
+      Map<String, String> accountMap = map.objects.get(objectName);
+      assertEquals(accountMap.get("balance"), "MUR 1050");
+      assertEquals(map.objects.get(accountMap.get("limit")), Map.of("money", "USD 20000"));
+      assertEquals(map.types.get(accountMap.get("limit")), Money.class.getName());
+
+      Account account1 = (Account)Mapper.fromMap(map);
+      assertEquals(account1.owner, account.owner);
+      assertEquals(account1.balance, account.balance);
+      assertEquals(account1.limit, account.limit);
+      assertArrayEquals(account1.history, account.history);
+
+      assertEquals(Mapper.fromMap(Mapper.toMap(account.balance)), account.balance);
+      ForkJoinPool pool = new ForkJoinPool(2);
+      try {
+        Account account2 = (Account)Mapper.fromMap(Mapper.toMap(account, pool, 1), pool, 1);
+        assertEquals(account2.limit, account.limit);
+        assertArrayEquals(account2.history, account.history);
+      } finally {
+        pool.shutdown();
+      }
+    } finally {
+      Mapper.unregisterAdapter(Money.class);
+    }
+    Mapped map = Mapper.toMap(new Money("MUR", 1));
+    assertEquals(map.objects.values().iterator().next(), Map.of("currency", "MUR", "cents", "1"));
+  }
+
+  @Test
+  public void mapAdaptedSubtypes() throws Exception {
+    Mapper.registerAdapter(Money.class, new TypeAdapter<>() {
+      @Override
+      public String toMapped(Money value) {
+        return (value instanceof Cash ? "cash " : "") + value.currency + ' ' + value.cents;
+      }
+
+      @Override
+      public Money fromMapped(String text) {
+        String[] parts = text.split(" ");
+        return parts.length == 3
+               ? new Cash(parts[1], Long.parseLong(parts[2]))
+               : new Money(parts[0], Long.parseLong(parts[1]));
+      }
+    }, true);
+    try {
+      Account account = new Account();
+      account.balance = new Cash("MUR", 5);
+      account.limit = new Cash("MUR", 10);
+
+      Mapped map = Mapper.toMap(account);
+      Map<String, String> accountMap = map.objects.values().iterator().next();
+      assertEquals(accountMap.get("balance"), "cash MUR 5");
+      assertEquals(map.objects.get(accountMap.get("limit")), Map.of("cash", "cash MUR 10"));
+
+      Account account1 = (Account)Mapper.fromMap(map);
+      assertEquals(account1.balance, account.balance);
+      assertEquals(account1.limit, account.limit);
+    } finally {
+      Mapper.unregisterAdapter(Money.class);
+    }
+  }
+
   @Test
   public void mapPerf() throws Exception {
     Date now = new Date(System.currentTimeMillis());
@@ -609,4 +1104,780 @@ public class MapperTest {
     System.out.println(a);
     System.out.println("Time taken to reconstruct: " + ((System.currentTimeMillis() - start) / reps));
   }
-}
\ No newline at end of file
+
+  /**
+   * Maps and reconstructs a long chain of objects, which requires a traversal that is
+   * not limited by the depth of the stack. The length of the chain (200,000 by default)
+   * can be changed through the 'mapper.chainLength' system property, e.g. to 10,000,000
+   * when running with a large enough heap.
+   */
+  @Test
+  public void mapDemapLongChain() throws Exception {
+    int length = Integer.getInteger("mapper.chainLength", 200_000);
+    Node head = new Node();
+    Node node = head;
+    for (int i = 1; i < length; i++) {
+      node.next = new Node();
+      node.next.value = i;
+      node = node.next;
+    }
+
+    long start = System.currentTimeMillis();
+    Mapped map = Mapper.toMap(head);
+    System.out.println("Time taken to map chain of " + length + ": " + (System.currentTimeMillis() - start));
+    assertEquals(map.objects.size(), length);
+
+    start = System.currentTimeMillis();
+    Node reconstructed = (Node)Mapper.fromMap(map);
+    System.out.println("Time taken to reconstruct chain of " + length + ": " + (System.currentTimeMillis() - start));
+
+    int count = 0;
+    for (node = reconstructed; node != null; node = node.next) {
+      assertEquals(node.value, count++);
+    }
+    assertEquals(count, length);
+
+    // immutable collections nested as deeply, built from their elements
+    List<Object> nested = List.of();
+    for (int i = 0; i < length; i++) {
+      nested = List.of(nested, i);
+    }
+    List<?> nested1 = (List<?>)Mapper.fromMap(Mapper.toMap(nested));
+    count = length;
+    for (List<?> l = nested1; !l.isEmpty(); l = (List<?>)l.get(0)) {
+      assertEquals(l.get(1), --count);
+    }
+    assertEquals(count, 0);
+  }
+
+  /**
+   * Measures the garbage produced per object when mapping and reconstructing objects
+   * with primitive fields, with the reflective strategy which boxes field values and
+   * the generated one which reads and writes them through primitive accessors.
+   */
+  @Test
+  public void mapAllocationPrimitives() throws Exception {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    int count = 10000;
+    Numeric[] numbers = numbers(count);
+
+    for (AccessStrategy strategy: AccessStrategy.values()) {
+      // heat up
+      for (int i = 0; i < 3; i++) {
+        assertArrayEquals((Numeric[])Mapper.fromMap(null, Mapper.toMap(numbers, strategy), strategy), numbers);
+      }
+
+      long start = threads.getThreadAllocatedBytes(threadId);
+      Mapped map = Mapper.toMap(numbers, strategy);
+      long allocated = threads.getThreadAllocatedBytes(threadId) - start;
+      System.out.println("Bytes allocated per object to map with " + strategy + ": " + (allocated / count));
+
+      start = threads.getThreadAllocatedBytes(threadId);
+      Object reconstructed = Mapper.fromMap(null, map, strategy);
+      allocated = threads.getThreadAllocatedBytes(threadId) - start;
+      System.out.println("Bytes allocated per object to reconstruct with " + strategy + ": " + (allocated / count));
+      assertArrayEquals((Numeric[])reconstructed, numbers);
+    }
+  }
+
+  @Test
+  public void mapPerfAccessStrategies() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), k));
+    for (int i = 0; i < 10000; i++) {
+      obj.put(T3.of("x", i, now), k);
+    }
+
+    for (AccessStrategy strategy: AccessStrategy.values()) {
+      Mapped map = Mapper.toMap(obj, strategy);
+      assertEquals(Mapper.fromMap(null, map, strategy), obj);
+
+      // heat up
+      int reps = 3;
+      System.out.println("Heating up " + strategy + "...");
+      for (int i = 0; i < reps; i++) {
+        map = Mapper.toMap(obj, strategy);
+        Mapper.fromMap(null, map, strategy);
+      }
+
+      int a = 0;
+      long start = System.currentTimeMillis();
+      for (int i = 0; i < reps; i++) {
+        map = Mapper.toMap(obj, strategy);
+        a |= System.identityHashCode(map.objects);
+      }
+      System.out.println(a);
+      System.out.println("Time taken to map with " + strategy + ": " + ((System.currentTimeMillis() - start) / reps));
+
+      start = System.currentTimeMillis();
+      for (int i = 0; i < reps; i++) {
+        Object reconstructed = Mapper.fromMap(null, map, strategy);
+        a |= System.identityHashCode(reconstructed);
+      }
+      System.out.println(a);
+      System.out.println("Time taken to reconstruct with " + strategy + ": " + ((System.currentTimeMillis() - start) / reps));
+    }
+  }
+
+  @Test
+  public void mapParallel() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      Date now = new Date(System.currentTimeMillis());
+      Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), k));
+      for (int i = 0; i < 1000; i++) {
+        obj.put(T3.of("x", i, now), k);
+      }
+      for (Object o : new Object[]{b, c, d, j, k, obj}) {
+        Mapped sequential = Mapper.toMap(o);
+        Mapped parallel = Mapper.toMap(o, pool, 1);
+        assertEquals(sequential.objects.size(), parallel.objects.size());
+        assertEquals(sequential.singleRefObjects.size(), parallel.singleRefObjects.size());
+        assertEquals(parallel.objects.keySet(), parallel.types.keySet());
+        assertEquals(parallel.types.get(parallel.objects.keySet().iterator().next()),
+                     sequential.types.get(sequential.objects.keySet().iterator().next()));
+
+        // names are given only to the objects claimed, so no counter value is skipped
+        assertEquals(Mapper.toMap(o, Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER).objects.keySet(),
+                     Mapper.toMap(o, Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER, pool, 1).objects.keySet());
+      }
+      assertEquals(Mapper.fromMap(Mapper.toMap(b, pool, 1)), b);
+      assertEquals(Mapper.fromMap(Mapper.toMap(k, pool, 1)), k);
+      assertEquals(Mapper.fromMap(Mapper.toMap(obj, pool, 1)), obj);
+
+      D d1 = (D)Mapper.fromMap(Mapper.toMap(d, pool, 1));
+      assertSame(d1.e.d, d1);
+      assertSame(d1.e.e, d1.e);
+
+      // tasks referring to an object which could not be named fail instead of waiting
+      Money shared = new Money("MUR", 1);
+      Account[] accounts = new Account[64];
+      for (int i = 0; i < accounts.length; i++) {
+        accounts[i] = new Account();
+        accounts[i].balance = shared;
+      }
+      NamingStrategy failing = existingNames -> {
+        NamingStrategy.Namer namer = NamingStrategy.COUNTER.newNamer(existingNames);
+        return (object, potentialName) -> {
+          if (object == shared) {
+            try {
+              Thread.sleep(50);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            throw new IllegalArgumentException("Unnamed");
+          }
+          return namer.name(object, potentialName);
+        };
+      };
+      try {
+        Mapper.toMap(accounts, Mapper.DEFAULT_ACCESS_STRATEGY, failing, pool, 1);
+        fail("Mapping should have failed");
+      } catch (RuntimeException e) {
+        // expected
+      }
+      assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void mapPerfParallel() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), k));
+    for (int i = 0; i < 100000; i++) {
+      obj.put(T3.of("x", i, now), k);
+    }
+    int reps = 3;
+    int a = 0;
+    System.out.println("Heating up sequential...");
+    for (int i = 0; i < reps; i++) {
+      a |= System.identityHashCode(Mapper.toMap(obj).objects);
+    }
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < reps; i++) {
+      a |= System.identityHashCode(Mapper.toMap(obj).objects);
+    }
+    System.out.println("Time taken to map sequentially: " + ((System.currentTimeMillis() - start) / reps));
+
+    for (int parallelism: new int[]{1, 2, 4, 8}) {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        System.out.println("Heating up parallelism " + parallelism + "...");
+        for (int i = 0; i < reps; i++) {
+          a |= System.identityHashCode(Mapper.toMap(obj, pool, 1000).objects);
+        }
+        start = System.currentTimeMillis();
+        for (int i = 0; i < reps; i++) {
+          a |= System.identityHashCode(Mapper.toMap(obj, pool, 1000).objects);
+        }
+        System.out.println("Time taken to map with parallelism " + parallelism + ": "
+                               + ((System.currentTimeMillis() - start) / reps));
+      } finally {
+        pool.shutdown();
+      }
+    }
+    System.out.println(a);
+  }
+
+  @Test
+  public void demapParallel() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertEquals(Mapper.fromMap(Mapper.toMap(b), pool, 1), b);
+      assertEquals(Mapper.fromMap(Mapper.toMap(g), pool, 1), g);
+      assertEquals(Mapper.fromMap(Mapper.toMap(k), pool, 1), k);
+      assertEquals(Mapper.fromMap(Mapper.toMap(42), pool, 1), 42);
+      assertSame(Mapper.fromMap(Mapper.toMap(null), pool, 1), null);
+      assertArrayEquals((G[][])Mapper.fromMap(Mapper.toMap(j), pool, 1), j);
+
+      C c1 = (C)Mapper.fromMap(Mapper.toMap(c), pool, 1);
+      assertSame(c1.c, c1);
+
+      D d1 = (D)Mapper.fromMap(Mapper.toMap(d), pool, 1);
+      assertSame(d1.e.d, d1);
+      assertSame(d1.e.e, d1.e);
+
+      K[] shared = (K[])Mapper.fromMap(Mapper.toMap(new K[]{k, k}), pool, 1);
+      assertSame(shared[0], shared[1]);
+      assertSame(shared[0].c[0], shared[0].c[1]);
+
+      Date now = new Date(System.currentTimeMillis());
+      Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), k));
+      for (int i = 0; i < 1000; i++) {
+        obj.put(T3.of("x", i, now), k);
+      }
+      assertEquals(Mapper.fromMap(Mapper.toMap(obj), pool, 16), obj);
+
+      // collections nested deeper than the stack would allow filling recursively
+      List<Object> nested = new ArrayList<>();
+      List<Object> list = nested;
+      for (int i = 0; i < 100000; i++) {
+        List<Object> inner = new ArrayList<>();
+        list.add(inner);
+        list.add(i);
+        list = inner;
+      }
+      List<?> nested1 = (List<?>)Mapper.fromMap(Mapper.toMap(nested), pool, 1000);
+      int depth = 0;
+      for (List<?> l = nested1; !l.isEmpty(); l = (List<?>)l.get(0)) {
+        assertEquals(depth++, l.get(1));
+      }
+      assertEquals(100000, depth);
+
+      // lists reached through the fields of the elements of a set are hashed by the
+      // latter and must be filled first
+      Set<Tagged> tagged = new HashSet<>();
+      for (int i = 0; i < 100; i++) {
+        tagged.add(new Tagged(new ArrayList<>(List.of("t" + i, "u" + i))));
+      }
+      Set<?> tagged1 = (Set<?>)Mapper.fromMap(Mapper.toMap(tagged), pool, 1);
+      assertEquals(tagged, tagged1);
+      for (Tagged t: tagged) {
+        assertTrue(tagged1.contains(t));
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    // objects allocated as null by their adapter
+    Mapper.registerAdapter(Money.class, new TypeAdapter<>() {
+      @Override
+      public String toMapped(Money value) {
+        return "none";
+      }
+
+      @Override
+      public Money fromMapped(String text) {
+        return null;
+      }
+    });
+    pool = new ForkJoinPool(2);
+    try {
+      Account account = new Account();
+      account.owner = "x";
+      account.limit = new Money("MUR", 1);
+      Account account1 = (Account)Mapper.fromMap(Mapper.toMap(account), pool, 1);
+      assertEquals(account1.owner, "x");
+      assertNull(account1.limit);
+    } finally {
+      pool.shutdown();
+      Mapper.unregisterAdapter(Money.class);
+    }
+  }
+
+  @Test
+  public void demapPerfParallel() throws Exception {
+    Date now = new Date(System.currentTimeMillis());
+    Map<T3<String, Integer, Date>, K> obj = Maps.of(T2.of(T3.of("a", 1, now), k));
+    for (int i = 0; i < 100000; i++) {
+      obj.put(T3.of("x", i, now), k);
+    }
+    Mapped map = Mapper.toMap(obj);
+    int reps = 3;
+    int a = 0;
+    System.out.println("Heating up sequential...");
+    for (int i = 0; i < reps; i++) {
+      a |= System.identityHashCode(Mapper.fromMap(map));
+    }
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < reps; i++) {
+      a |= System.identityHashCode(Mapper.fromMap(map));
+    }
+    System.out.println("Time taken to reconstruct sequentially: " + ((System.currentTimeMillis() - start) / reps));
+
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int parallelism = 1; parallelism <= cores; parallelism *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        System.out.println("Heating up parallelism " + parallelism + "...");
+        for (int i = 0; i < reps; i++) {
+          a |= System.identityHashCode(Mapper.fromMap(map, pool, 1000));
+        }
+        start = System.currentTimeMillis();
+        for (int i = 0; i < reps; i++) {
+          a |= System.identityHashCode(Mapper.fromMap(map, pool, 1000));
+        }
+        System.out.println("Time taken to reconstruct with parallelism " + parallelism + ": "
+                               + ((System.currentTimeMillis() - start) / reps));
+      } finally {
+        pool.shutdown();
+      }
+    }
+    System.out.println(a);
+  }
+
+  @Test
+  public void evictPlans() throws Exception {
+    Mapper.MappingPlan plan = Mapper.plan(G.class, AccessStrategy.GENERATED);
+    assertSame(plan, Mapper.plan(G.class, AccessStrategy.GENERATED));
+    assertNotSame(plan, Mapper.plan(G.class, AccessStrategy.REFLECTIVE));
+
+    Mapper.evict(G.class.getClassLoader());
+    assertNotSame(plan, Mapper.plan(G.class, AccessStrategy.GENERATED));
+    assertEquals(Mapper.fromMap(Mapper.toMap(g)), g);
+  }
+  @Test
+  public void generatedAccessors() throws Exception {
+    // accessors and instantiators are compiled into classes of their own
+    Numeric n = (Numeric)Instantiator.of(Numeric.class, AccessStrategy.GENERATED).newInstance();
+    String[] values = {"42", "4200000000", "0.5", "1.5", "7", "-3", "true"};
+    Field[] fields = Numeric.class.getDeclaredFields();
+    for (int i = 0; i < fields.length; i++) {
+      fields[i].setAccessible(true);
+      FieldAccessor accessor = FieldAccessor.of(fields[i], AccessStrategy.GENERATED, null);
+      assertTrue(accessor instanceof FieldAccessor.Generated);
+      assertTrue(accessor.primitive);
+      accessor.setText(n, values[i]);
+      assertEquals(accessor.getText(n), values[i]);
+      assertEquals(accessor.get(n).toString(), values[i]);
+    }
+    assertEquals(n.b, 4200000000L);
+    assertEquals(n.f, -3);
+
+    Field next = Node.class.getDeclaredField("next");
+    next.setAccessible(true);
+    FieldAccessor accessor = FieldAccessor.of(next, AccessStrategy.GENERATED, null);
+    assertTrue(accessor instanceof FieldAccessor.Generated);
+    Node node = new Node();
+    accessor.set(node, node);
+    assertSame(accessor.get(node), node);
+  }
+
+
+  @Test
+  public void staticFields() throws Exception {
+    // static fields which are not final are mapped, through reflection for both strategies
+    Counted.count = 3;
+    Counted.label = "counted";
+    Counted counted = new Counted();
+    counted.name = "x";
+    for (AccessStrategy strategy : AccessStrategy.values()) {
+      Mapped map = Mapper.toMap(counted, strategy, NamingStrategy.COUNTER);
+      String objectName = OBJ_NAME_PREFIX + "counted_1";
+      assertEquals(map.objects.get(objectName), Map.of("count", "3", "label", "counted", "name", "x"));
+
+      Counted.count = 0;
+      Counted.label = null;
+      Counted read = (Counted)Mapper.fromMap(objectName, map, strategy);
+      assertEquals(read.name, "x");
+      assertEquals(Counted.count, 3);
+      assertEquals(Counted.label, "counted");
+    }
+  }
+
+  @Test
+  public void mappingPlans() throws Exception {
+    Map<String, FieldAccessor.Kind> kinds = new HashMap<>();
+    for (FieldAccessor slot : Mapper.plan(G.class, AccessStrategy.GENERATED).slots) {
+      kinds.put(slot.name, slot.kind);
+    }
+    assertEquals(kinds, Map.of("a", FieldAccessor.Kind.ENUM, "b", FieldAccessor.Kind.LITERAL));
+
+    kinds.clear();
+    for (FieldAccessor slot : Mapper.plan(K.class, AccessStrategy.GENERATED).slots) {
+      kinds.put(slot.name, slot.kind);
+    }
+    assertEquals(kinds, Map.of("a", FieldAccessor.Kind.LITERAL,
+                               "b", FieldAccessor.Kind.LITERAL,
+                               "c", FieldAccessor.Kind.REFERENCE));
+
+    for (FieldAccessor slot : Mapper.plan(Numeric.class, AccessStrategy.GENERATED).slots) {
+      assertEquals(slot.kind, FieldAccessor.Kind.PRIMITIVE);
+    }
+    for (FieldAccessor slot : Mapper.plan(Numeric.class, AccessStrategy.REFLECTIVE).slots) {
+      assertEquals(slot.kind, FieldAccessor.Kind.LITERAL);
+    }
+
+    // entries out of the order of the plan are found by name
+    Mapped map = Mapper.toMap(k);
+    String objectName = map.objects.keySet().iterator().next();
+    List<Entry<String, String>> entries = new ArrayList<>(map.objects.get(objectName).entrySet());
+    reverse(entries);
+    Map<String, String> reversed = new LinkedHashMap<>();
+    for (Entry<String, String> entry : entries) {
+      reversed.put(entry.getKey(), entry.getValue());
+    }
+    map.objects.put(objectName, reversed);
+    assertEquals(Mapper.fromMap(map), k);
+  }
+
+  /**
+   * Measures the cost of looking up the mapping plans of classes from an
+   * increasing number of threads contending for them.
+   */
+  @Test
+  public void planLookupContention() throws Exception {
+    Class<?>[] classes = {A.class, B.class, C.class, D.class, E.class, G.class, K.class, Numeric.class, Node.class};
+    int lookups = 1_000_000;
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= cores * 2; threads *= 2) {
+      Thread[] workers = new Thread[threads];
+      int[] results = new int[threads];
+      for (int rep = 0; rep < 2; rep++) {
+        // first repetition heats up
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+          int thread = t;
+          workers[t] = new Thread(() -> {
+            int a = 0;
+            for (int i = 0; i < lookups; i++) {
+              a += Mapper.plan(classes[i % classes.length], AccessStrategy.GENERATED).slots.length;
+            }
+            results[thread] = a;
+          });
+          workers[t].start();
+        }
+        for (Thread worker : workers) {
+          worker.join();
+        }
+        if (rep == 1) {
+          System.out.println("Time per plan lookup with " + threads + " threads (ns): "
+                                 + ((double)(System.nanoTime() - start) / lookups));
+        }
+      }
+      System.out.println(Arrays.stream(results).sum());
+    }
+  }
+
+  @Test
+  public void reusableMapper() throws Exception {
+    ReusableMapper mapper = ReusableMapperBuilder.newBuilder()
+                                                 .namingStrategy(NamingStrategy.COUNTER)
+                                                 .build();
+    for (int rep = 0; rep < 2; rep++) {
+      for (Object o: new Object[]{a, b, c, d, f, g, j, k, List.of(a, b), new HashMap<>(Map.of("x", k))}) {
+        Mapped map = mapper.toMap(o);
+        assertEquals(Mapper.toMap(o, Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER), map);
+        assertEquals(Mapper.toMap(Mapper.fromMap(map), Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER),
+                     mapper.toMap(mapper.fromMap(map)));
+      }
+    }
+    assertEquals(new Mapped(), mapper.toMap(null));
+  }
+
+  /**
+   * Compares the bytes allocated and the time taken to map many small object graphs
+   * with the static mapper and with a reusable mapper.
+   */
+  @Test
+  public void mapAllocationReusable() throws Exception {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean)java.lang.management.ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    int count = 100000;
+    B[] graphs = new B[100];
+    for (int i = 0; i < graphs.length; i++) {
+      B graph = new B();
+      graph.a = i;
+      graph.b = "graph " + i;
+      graph.c = new A();
+      graph.c.a = "Test";
+      graph.c.b = i;
+      graphs[i] = graph;
+    }
+    ReusableMapper mapper = ReusableMapperBuilder.newBuilder()
+                                                 .namingStrategy(NamingStrategy.COUNTER)
+                                                 .build();
+
+    for (int rep = 0; rep < 2; rep++) {
+      // first repetition heats up
+      int x = 0;
+      long start = threads.getThreadAllocatedBytes(threadId);
+      long time = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        x += Mapper.toMap(graphs[i % graphs.length], Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER).objects.size();
+      }
+      long allocated = threads.getThreadAllocatedBytes(threadId) - start;
+      time = System.nanoTime() - time;
+      if (rep == 1) {
+        System.out.println("Static mapper, bytes allocated per graph: " + (allocated / count) +
+                               ", time per graph (ns): " + (time / count));
+      }
+
+      start = threads.getThreadAllocatedBytes(threadId);
+      time = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        x += mapper.toMap(graphs[i % graphs.length]).objects.size();
+      }
+      allocated = threads.getThreadAllocatedBytes(threadId) - start;
+      time = System.nanoTime() - time;
+      if (rep == 1) {
+        System.out.println("Reusable mapper, bytes allocated per graph: " + (allocated / count) +
+                               ", time per graph (ns): " + (time / count));
+      }
+      System.out.println(x);
+    }
+  }
+
+  @Test
+  public void identityTable() throws Exception {
+    IdentityTable table = new IdentityTable();
+    int count = 100000;
+    Object[] objects = new Object[count];
+    for (int i = 0; i < count; i++) {
+      // equal but distinct objects
+      objects[i] = new String("o");
+      assertEquals(-1, table.id(objects[i]));
+      assertEquals(i, table.add(objects[i], "o" + i));
+    }
+    for (int i = 0; i < count; i += 2) {
+      table.reference(table.id(objects[i]));
+    }
+    assertEquals(count, table.size());
+    for (int i = 0; i < count; i++) {
+      assertEquals(i, table.id(objects[i]));
+      assertSame(objects[i], table.object(i));
+      assertEquals("o" + i, table.name(i));
+      assertEquals(i % 2 == 0 ? 2 : 1, table.count(i));
+    }
+    Set<String> singleRefNames = new HashSet<>();
+    table.singleRefNames(singleRefNames);
+    assertEquals(count / 2, singleRefNames.size());
+    assertTrue(singleRefNames.contains("o1"));
+
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(-1, table.id(objects[0]));
+  }
+
+  @Test
+  public void mapIndexed() throws Exception {
+    for (Object o: fixture.graphs()) {
+      IndexedMapped indexed = Mapper.toIndexedMap(o);
+      Mapped map = Mapper.toMap(o, Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER);
+      assertEquals(map.objects.size(), indexed.size());
+      assertEquals(map.singleRefObjects.size(), indexed.toMapped().singleRefObjects.size());
+      assertEquals(indexed.toMapped(), IndexedMapped.of(indexed.toMapped()).toMapped());
+
+      // the graphs reconstructed from the indexed and named maps are the same
+      assertEquals(Mapper.toMap(Mapper.fromMap(map), Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER),
+                   Mapper.toMap(Mapper.fromMap(indexed), Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER));
+    }
+
+    C c_ = (C)Mapper.fromMap(Mapper.toIndexedMap(c));
+    assertSame(c_, c_.c);
+    D d_ = (D)Mapper.fromMap(Mapper.toIndexedMap(d));
+    assertSame(d_, d_.e.d);
+    assertSame(d_.e, d_.e.e);
+    assertNull(Mapper.fromMap(Mapper.toIndexedMap(null)));
+  }
+
+  @Test
+  public void mapFrozen() throws Exception {
+    Map<String, Object> obj = fixture.composite();
+
+    for (Object o: fixture.graphs()) {
+      Mapped map = Mapper.toMap(o, Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER);
+      Mapped frozen = map.freeze();
+      assertTrue(frozen.isFrozen());
+      assertFalse(map.isFrozen());
+      assertSame(frozen, frozen.freeze());
+      assertEquals(map, frozen);
+      assertEquals(new ArrayList<>(map.objects.keySet()), new ArrayList<>(frozen.objects.keySet()));
+      assertEquals(Mapper.toMap(Mapper.fromMap(map), Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER),
+                   Mapper.toMap(Mapper.fromMap(frozen), Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER));
+    }
+
+    Mapped frozen = Mapper.toMap(obj).freeze();
+    String root = frozen.objects.keySet().iterator().next();
+    try {
+      frozen.objects.get(root).put("x", "y");
+      fail("Frozen map modified");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      frozen.objects.remove(root);
+      fail("Frozen map modified");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    assertNull(frozen.objects.get("obj_ref_none"));
+    assertNull(frozen.types.get("obj_ref_none"));
+    assertFalse(frozen.singleRefObjects.contains("obj_ref_none"));
+
+    // a frozen map can be read concurrently
+    List<Thread> threads = new ArrayList<>();
+    List<Object> reconstructed = synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 4; i++) {
+      Thread thread = new Thread(() -> reconstructed.add(Mapper.fromMap(frozen)));
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread: threads) {
+      thread.join();
+    }
+    assertEquals(4, reconstructed.size());
+    for (Object o: reconstructed) {
+      assertEquals(Mapper.toMap(o, Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER),
+                   Mapper.toMap(reconstructed.get(0), Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER));
+    }
+  }
+
+  /**
+   * Compares the heap retained by a mapped object graph before and after it is frozen.
+   */
+  @Test
+  public void mapFrozenFootprint() throws Exception {
+    int count = 100000;
+    Numeric[] numbers = numbers(count);
+
+    long before = usedMemory();
+    Mapped map = Mapper.toMap(numbers);
+    long mapped = usedMemory() - before;
+    System.out.println("Bytes retained per object by mapped graph: " + (mapped / count));
+
+    // the objects share the shape of their type: one for the numbers, one for the array
+    assertEquals(2, new FrozenMapped(map).shapeCount());
+
+    Mapped frozen = map.freeze();
+    map = null;
+    long frozenSize = usedMemory() - before;
+    System.out.println("Bytes retained per object by frozen mapped graph: " + (frozenSize / count));
+
+    assertArrayEquals((Numeric[])Mapper.fromMap(frozen), numbers);
+  }
+
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  @Test
+  public void symbolTable() throws Exception {
+    SymbolTable symbols = new SymbolTable(16);
+    String a = symbols.intern(new String("field"));
+    assertSame(a, symbols.intern(new String("field")));
+    assertSame(a, symbols.intern(a));
+    assertNull(symbols.intern(null));
+    assertEquals(3, symbols.lookups());
+    assertEquals(2, symbols.hits());
+    assertTrue(symbols.bytesSaved() > 0);
+
+    // the table is bounded: symbols beyond its capacity replace others
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("s" + i, symbols.intern("s" + i));
+    }
+    int found = 0;
+    for (int i = 0; i < 1000; i++) {
+      String s = "s" + i;
+      if (symbols.intern(s) != s) {
+        found++;
+      }
+    }
+    assertTrue(found <= 16);
+
+    symbols.resetStatistics();
+    assertEquals(0, symbols.lookups());
+    assertEquals(0.0, symbols.hitRate(), 0.0);
+
+    // element keys are shared by all arrays
+    Mapped first = Mapper.toMap(new A[]{new A(), new A(), new A()});
+    Mapped second = Mapper.toMap(new A[]{new A(), new A(), new A()});
+    Iterator<String> firstKeys = first.objects.values().iterator().next().keySet().iterator();
+    Iterator<String> secondKeys = second.objects.values().iterator().next().keySet().iterator();
+    while (firstKeys.hasNext()) {
+      assertSame(firstKeys.next(), secondKeys.next());
+    }
+  }
+
+  @Test
+  public void mapOffHeap() throws Exception {
+    Map<String, Object> obj = fixture.composite();
+
+    Serializer[] serializers = {
+        JsonSerializerBuilder.newBuilder().build(),
+        XmlSerializerBuilder.newBuilder().build(),
+        YamlSerializerBuilder.newBuilder().build()
+    };
+    for (Object o: fixture.graphs()) {
+      Mapped map = Mapper.toMap(o, Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER);
+      try (OffHeapMapped offHeap = Mapper.toMap(o, new OffHeapMapped(4096),
+                                                Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER)) {
+        assertEquals(map.objects, offHeap.objects);
+        assertEquals(map.types, offHeap.types);
+        assertEquals(map.singleRefObjects, offHeap.singleRefObjects);
+        assertEquals(new ArrayList<>(map.objects.keySet()), new ArrayList<>(offHeap.objects.keySet()));
+        for (Serializer serializer: serializers) {
+          assertEquals(serializer.toText(map), serializer.toText(offHeap));
+        }
+        assertEquals(Mapper.toMap(Mapper.fromMap(map), Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER),
+                     Mapper.toMap(Mapper.fromMap(offHeap), Mapper.DEFAULT_ACCESS_STRATEGY, NamingStrategy.COUNTER));
+      }
+    }
+
+    OffHeapMapped offHeap = Mapper.toMap(obj, new OffHeapMapped());
+    assertTrue(offHeap.offHeapBytes() > 0);
+    offHeap.close();
+    assertEquals(0, offHeap.offHeapBytes());
+    try {
+      offHeap.objects.size();
+      fail("Closed off-heap map used");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void mapOffHeapLarge() throws Exception {
+    int count = 100000;
+    Numeric[] numbers = numbers(count);
+    long before = usedMemory();
+    try (OffHeapMapped offHeap = Mapper.toMap(numbers, new OffHeapMapped())) {
+      long heap = usedMemory() - before;
+      System.out.println("Off-heap bytes per object: " + (offHeap.offHeapBytes() / count) +
+                         ", heap bytes per object: " + (heap / count));
+      assertEquals(count + 1, offHeap.objects.size());
+      assertArrayEquals((Numeric[])Mapper.fromMap(offHeap), numbers);
+    }
+  }
+}
@@ -647,4 +647,17 @@ public class XmlSerializerTest {
       System.out.println("Time taken to reconstruct: " + ((System.currentTimeMillis() - start) / reps));
     }
   }
+
+  @Test
+  public void mapIndexed() throws Exception {
+    for (XmlSerializer ser: new XmlSerializer[]{XmlSerializerBuilder.newBuilder().build(),
+        XmlSerializerBuilder.newBuilder().inlineSingleRefObjects(false).build()}) {
+      for (Object o: new Object[]{a, b, c, d, f, h, i, j, k}) {
+        IndexedMapped indexed = Mapper.toIndexedMap(o);
+        String text = ser.toText(indexed);
+        assertEquals(ser.toText(indexed.toMapped()), text);
+        assertEquals(text, ser.toText(IndexedMapped.of(ser.toMap(text))));
+      }
+    }
+  }
 }
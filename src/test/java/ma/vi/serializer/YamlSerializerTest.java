@@ -17,6 +17,7 @@ import static java.util.Collections.emptySet;
 import static ma.vi.base.lang.Literal.NULL_LITERAL;
 import static ma.vi.serializer.MapperTest.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Vikash Madhow (vikash.madhow@gmail.com)
@@ -596,6 +597,28 @@ public class YamlSerializerTest {
     }
   }
 
+  @Test
+  public void mapQuotesAndBackslashes() throws Exception {
+    A quoted = new A();
+    quoted.a = "say \"hi\", C:\\dir\\ and \\\"both\\\"";
+    quoted.b = 1;
+    B holder = new B();
+    holder.a = 2;
+    holder.b = "\\";
+    holder.c = quoted;
+
+    for (YamlSerializer ser: new YamlSerializer[]{YamlSerializerBuilder.newBuilder().build(),
+        YamlSerializerBuilder.newBuilder().inlineSingleRefObjects(false).build()}) {
+      String text = ser.toText(Mapper.toMap(holder));
+      assertTrue(text.contains("a: \"say \\\"hi\\\", C:\\\\dir\\\\ and \\\\\\\"both\\\\\\\"\"\n"));
+      assertTrue(text.contains("b: \"\\\\\"\n"));
+
+      B read = (B)Mapper.fromMap(ser.toMap(text));
+      assertEquals(holder.b, read.b);
+      assertEquals(quoted.a, read.c.a);
+    }
+  }
+
   @Test
   public void mapPerf() throws Exception {
     Date now = new Date(System.currentTimeMillis());
@@ -647,4 +670,17 @@ public class YamlSerializerTest {
       System.out.println("Time taken to reconstruct: " + ((System.currentTimeMillis() - start) / reps));
     }
   }
+
+  @Test
+  public void mapIndexed() throws Exception {
+    for (YamlSerializer ser: new YamlSerializer[]{YamlSerializerBuilder.newBuilder().build(),
+        YamlSerializerBuilder.newBuilder().inlineSingleRefObjects(false).build()}) {
+      for (Object o: new Object[]{a, b, c, d, f, h, i, j, k}) {
+        IndexedMapped indexed = Mapper.toIndexedMap(o);
+        String text = ser.toText(indexed);
+        assertEquals(ser.toText(indexed.toMapped()), text);
+        assertEquals(text, ser.toText(IndexedMapped.of(ser.toMap(text))));
+      }
+    }
+  }
 }